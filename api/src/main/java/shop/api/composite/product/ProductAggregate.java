@@ -1,13 +1,33 @@
 package shop.api.composite.product;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
+/**
+ * @param ratings    the summaries of the ratings of the recommendations and reviews, or null if they were not
+ *                   asked for
+ * @param staleParts the parts, recommendations, reviews and/or ratings, that could not be fetched and are served
+ *                   from the last known good values instead, or null if all parts are fresh
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record ProductAggregate(
         int productId,
         String name,
         int weight,
         List<RecommendationSummary> recommendations,
         List<ReviewSummary> reviews,
-        ServiceAddresses serviceAddresses
+        ProductRatings ratings,
+        ServiceAddresses serviceAddresses,
+        List<String> staleParts
 ) {
+    public ProductAggregate(
+            int productId,
+            String name,
+            int weight,
+            List<RecommendationSummary> recommendations,
+            List<ReviewSummary> reviews,
+            ServiceAddresses serviceAddresses) {
+        this(productId, name, weight, recommendations, reviews, null, serviceAddresses, null);
+    }
 }
@@ -0,0 +1,9 @@
+package shop.api.composite.product;
+
+import java.util.List;
+
+public record ProductAggregatePage(
+        List<ProductAggregate> products,
+        String nextPageToken
+) {
+}
@@ -1,14 +1,22 @@
 package shop.api.composite.product;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Set;
+
 @Tag(name = "ProductComposite", description = "REST API for composite product information.")
 public interface ProductCompositeService {
 
@@ -35,9 +43,16 @@ public interface ProductCompositeService {
     Mono<Void> createProduct(@RequestBody ProductAggregate body);
 
     /**
-     * Sample usage: "curl $HOST:$PORT/product-composite/1".
+     * Sample usage: "curl $HOST:$PORT/product-composite/1?include=reviews".
+     * <p>
+     * The response has a weak ETag derived from the versions of the product, its recommendations and its reviews,
+     * unless a part is served from the last known good values. Send it back in an If-None-Match header to get
+     * "304 Not Modified" without a body if none of them changed.
      *
-     * @param productId ID of the product
+     * @param productId   ID of the product
+     * @param include     the parts to include besides the product itself, recommendations and/or reviews.
+     *                    All parts are included if left out, only the parts asked for are fetched.
+     * @param ifNoneMatch the ETag of an earlier response, if any
      * @return the composite product info, if found, else null
      */
     @Operation(
@@ -45,6 +60,7 @@ public interface ProductCompositeService {
             description = "${api.product-composite.get-composite-product.notes}")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "304", description = "${api.responseCodes.notModified.description}"),
             @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
             @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
             @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
@@ -52,13 +68,46 @@ public interface ProductCompositeService {
     @GetMapping(
             value = "/product-composite/{productId}",
             produces = "application/json")
-    Mono<ProductAggregate> getProduct(@PathVariable int productId);
+    Mono<ResponseEntity<ProductAggregate>> getProduct(
+            @PathVariable int productId,
+            @RequestParam(required = false) Set<String> include,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite".
+     * <p>
+     * Use "-H 'Accept: application/x-ndjson'" or "-H 'Accept: text/event-stream'" to get each composite product
+     * streamed as soon as it is assembled, instead of one JSON array.
+     *
+     * @param include the parts to include besides the products, see getProduct
+     * @return the composite product info of all products
+     */
     @GetMapping(
             value = "/product-composite",
-            produces = "application/json"
+            produces = {"application/json", "application/x-ndjson", "text/event-stream"}
     )
-    Flux<ProductAggregate> getAllProducts();
+    Flux<ProductAggregate> getAllProducts(@RequestParam(required = false) Set<String> include);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite?limit=10&sort=weight".
+     * <p>
+     * The paging parameters are passed on to the product service, see ProductService.getProductPage. The include
+     * parameter works as for getProduct.
+     *
+     * @return a page of composite product info
+     */
+    @GetMapping(
+            value = "/product-composite",
+            params = "limit",
+            produces = "application/json")
+    Mono<ProductAggregatePage> getProductPage(
+            @RequestParam int limit,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer minWeight,
+            @RequestParam(required = false) Integer maxWeight,
+            @RequestParam(required = false) String namePrefix,
+            @RequestParam(defaultValue = "productId") String sort,
+            @RequestParam(required = false) Set<String> include);
 
     /**
      * Sample usage: "curl -X DELETE $HOST:$PORT/product-composite/1".
@@ -79,15 +128,22 @@ public interface ProductCompositeService {
     /**
      * Sample usage: "curl $HOST:$PORT/product-composite/reviews/1".
      *
+     * The JSON from the review service is passed through with the fields that are not part of a ReviewSummary
+     * removed, without binding it to objects.
+     *
      * @param productId ID of the product
-     * @return the list of reviews for a product
+     * @return the list of reviews for a product, as JSON array of review summaries
      */
     @Operation(
             summary = "${api.product-composite.get-reviews.description}",
             description = "${api.product-composite.get-reviews.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}",
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = ReviewSummary.class))))
+    })
     @GetMapping(
             value = "/product-composite/reviews/{productId}",
             produces = "application/json"
     )
-    Flux<ReviewSummary> getReviews(@PathVariable int productId);
+    Flux<DataBuffer> getReviews(@PathVariable int productId);
 }
@@ -0,0 +1,13 @@
+package shop.api.composite.product;
+
+import shop.api.core.rating.RatingSummary;
+
+/**
+ * @param recommendations the ratings of the recommendations of the product
+ * @param reviews         the ratings of the reviews of the product
+ */
+public record ProductRatings(
+        RatingSummary recommendations,
+        RatingSummary reviews
+) {
+}
@@ -0,0 +1,9 @@
+package shop.api.core.product;
+
+import java.util.List;
+
+public record ProductPage(
+        List<Product> products,
+        String nextPageToken
+) {
+}
@@ -1,7 +1,9 @@
 package shop.api.core.product;
 
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -13,17 +15,53 @@ public interface ProductService {
 
     /**
      * Sample usage: "curl $HOST:$PORT/product/1".
+     * <p>
+     * The response has a weak ETag derived from the version of the product. Send it back in an If-None-Match
+     * header to get "304 Not Modified" without a body if the product did not change.
      *
      * @param productId ID of the product
      * @return the product, if found, else null
      */
     @GetMapping(
             value = "/product/{productId}",
-            produces = "application/json")
-    Mono<Product> getProduct(@PathVariable("productId") int productId);
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<ResponseEntity<Product>> getProduct(@PathVariable("productId") int productId);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/product".
+     * <p>
+     * Use "-H 'Accept: application/x-ndjson'" to get the products streamed as they are read from the database.
+     *
+     * @return all products
+     */
     @GetMapping(
             value = "/product",
-            produces = "application/json")
+            produces = {"application/json", "application/x-ndjson"})
     Flux<Product> getAllProducts();
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product?limit=10&minWeight=1&maxWeight=5&namePrefix=Wat&sort=weight".
+     * <p>
+     * Pass the returned nextPageToken as pageToken, together with the same filter and sort parameters,
+     * to get the next page.
+     *
+     * @param limit      the maximum number of products in the page
+     * @param pageToken  the continuation token returned with the previous page, if any
+     * @param minWeight  the minimum weight of the products, if any
+     * @param maxWeight  the maximum weight of the products, if any
+     * @param namePrefix the prefix of the product names, if any
+     * @param sort       the sort order, productId or weight
+     * @return a page of products
+     */
+    @GetMapping(
+            value = "/product",
+            params = "limit",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<ProductPage> getProductPage(
+            @RequestParam int limit,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer minWeight,
+            @RequestParam(required = false) Integer maxWeight,
+            @RequestParam(required = false) String namePrefix,
+            @RequestParam(defaultValue = "productId") String sort);
 }
@@ -0,0 +1,69 @@
+package shop.api.core.rating;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The ratings of a product, 1 to 5 stars, kept by the review and recommendation services as they are created and
+ * deleted, so that e.g. "4.3 stars from 1,200 reviews" can be shown without fetching the reviews themselves.
+ *
+ * @param count     the number of ratings
+ * @param sum       the sum of the ratings
+ * @param histogram the number of ratings with 1 to 5 stars, at index 0 to 4
+ */
+public record RatingSummary(int count, long sum, List<Integer> histogram) {
+
+    public static final int MIN_RATING = 1;
+    public static final int MAX_RATING = 5;
+
+    private static final RatingSummary EMPTY = new RatingSummary(0, 0, Collections.nCopies(MAX_RATING, 0));
+
+    public static RatingSummary empty() {
+        return EMPTY;
+    }
+
+    public static RatingSummary of(IntStream ratings) {
+        int[] histogram = new int[MAX_RATING];
+        ratings.forEach(rating -> {
+            if (rating < MIN_RATING || rating > MAX_RATING) {
+                throw new IllegalArgumentException("Invalid rating: " + rating);
+            }
+            histogram[rating - 1]++;
+        });
+        return of(histogram);
+    }
+
+    /**
+     * @param histogram the number of ratings with 1 to 5 stars, at index 0 to 4
+     */
+    public static RatingSummary of(int... histogram) {
+        if (histogram.length != MAX_RATING) {
+            throw new IllegalArgumentException("Invalid histogram, must have " + MAX_RATING + " counts: " + histogram.length);
+        }
+        int count = 0;
+        long sum = 0;
+        List<Integer> counts = new ArrayList<>(MAX_RATING);
+        for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+            sum += (long) (i + 1) * histogram[i];
+            counts.add(histogram[i]);
+        }
+        return new RatingSummary(count, sum, List.copyOf(counts));
+    }
+
+    /**
+     * The number of ratings with the given number of stars.
+     */
+    public int countOf(int rating) {
+        return histogram.get(rating - 1);
+    }
+
+    /**
+     * The average rating, or 0 if there are none.
+     */
+    public double average() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+}
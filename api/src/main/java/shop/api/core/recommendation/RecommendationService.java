@@ -1,24 +1,119 @@
 package shop.api.core.recommendation;
 
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface RecommendationService {
 
     Mono<Recommendation> createRecommendation(Recommendation body);
 
+    /**
+     * Creates the recommendations in one go where the persistence supports it, by default one by one.
+     *
+     * @param body the recommendations to create
+     * @return the created recommendations
+     */
+    default Mono<List<Recommendation>> createRecommendations(List<Recommendation> body) {
+        return Flux.fromIterable(body).concatMap(this::createRecommendation).collectList();
+    }
+
     Mono<Void> deleteRecommendations(int productId);
 
     /**
      * Sample usage: "curl $HOST:$PORT/recommendation?productId=1".
      *
+     * <p>
+     * The response has a weak ETag derived from the versions of the recommendations, see ProductService.getProduct.
+     *
      * @param productId ID of the product
      * @return the recommendations of the product
      */
     @GetMapping(
             value = "/recommendation",
-            produces = "application/json")
-    Flux<Recommendation> getRecommendations(@RequestParam int productId);
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<ResponseEntity<List<Recommendation>>> getRecommendations(@RequestParam int productId);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productId=1&top=5&sort=rating".
+     *
+     * <p>
+     * Only the best rated recommendations, highest rating first, so that the response stays bounded however many
+     * recommendations a product collects. The weak ETag also covers the ratings of all recommendations of the
+     * product, see getRecommendationRatings, so it changes when a recommendation is created below the top too.
+     *
+     * @param productId ID of the product
+     * @param top       the number of recommendations, at most 100
+     * @param sort      the order of the recommendations, only rating
+     * @return the top recommendations of the product
+     */
+    @GetMapping(
+            value = "/recommendation",
+            params = "top",
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<ResponseEntity<List<Recommendation>>> getTopRecommendations(
+            @RequestParam int productId,
+            @RequestParam int top,
+            @RequestParam(defaultValue = "rating") String sort);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation/bulk?productIds=1,2,3".
+     *
+     * @param productIds IDs of the products
+     * @return the recommendations of the products, grouped by product id
+     */
+    @GetMapping(
+            value = "/recommendation/bulk",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<Map<Integer, List<Recommendation>>> getRecommendationsByProductIds(@RequestParam Set<Integer> productIds);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation/bulk?productIds=1,2,3&top=5&sort=rating".
+     *
+     * @param productIds IDs of the products
+     * @param top        the number of recommendations per product, at most 100
+     * @param sort       the order of the recommendations, only rating
+     * @return the top recommendations of the products, grouped by product id
+     */
+    @GetMapping(
+            value = "/recommendation/bulk",
+            params = "top",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<Map<Integer, List<Recommendation>>> getTopRecommendationsByProductIds(
+            @RequestParam Set<Integer> productIds,
+            @RequestParam int top,
+            @RequestParam(defaultValue = "rating") String sort);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation/rating?productId=1".
+     *
+     * <p>
+     * Kept up to date as the recommendations are created and deleted, so it is looked up by productId instead of computed
+     * from all recommendations.
+     *
+     * @param productId ID of the product
+     * @return the summary of the ratings of the recommendations of the product, empty if it has none
+     */
+    @GetMapping(
+            value = "/recommendation/rating",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<RatingSummary> getRecommendationRatings(@RequestParam int productId);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation/rating/bulk?productIds=1,2,3".
+     *
+     * @param productIds IDs of the products
+     * @return the summaries of the ratings by product id, products without recommendations are left out
+     */
+    @GetMapping(
+            value = "/recommendation/rating/bulk",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<Map<Integer, RatingSummary>> getRecommendationRatingsByProductIds(@RequestParam Set<Integer> productIds);
 }
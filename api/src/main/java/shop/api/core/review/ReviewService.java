@@ -1,24 +1,80 @@
 package shop.api.core.review;
 
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface ReviewService {
 
     Mono<Review> createReview(Review body);
 
+    /**
+     * Creates the reviews in one go where the persistence supports it, by default one by one.
+     *
+     * @param body the reviews to create
+     * @return the created reviews
+     */
+    default Mono<List<Review>> createReviews(List<Review> body) {
+        return Flux.fromIterable(body).concatMap(this::createReview).collectList();
+    }
+
     Mono<Void> deleteReviews(int productId);
 
     /**
      * Sample usage: "curl $HOST:$PORT/review?productId=1".
      *
+     * <p>
+     * The response has a weak ETag derived from the versions of the reviews, see ProductService.getProduct.
+     *
      * @param productId ID of the product
      * @return the reviews of the product
      */
     @GetMapping(
             value = "/review",
-            produces = "application/json")
-    Flux<Review> getReviews(@RequestParam int productId);
+            produces = {"application/json", "application/x-jackson-smile"})
+    Mono<ResponseEntity<List<Review>>> getReviews(@RequestParam int productId);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review/bulk?productIds=1,2,3".
+     *
+     * @param productIds IDs of the products
+     * @return the reviews of the products, grouped by product id
+     */
+    @GetMapping(
+            value = "/review/bulk",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<Map<Integer, List<Review>>> getReviewsByProductIds(@RequestParam Set<Integer> productIds);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review/rating?productId=1".
+     *
+     * <p>
+     * Kept up to date as the reviews are created and deleted, so it is looked up by productId instead of computed
+     * from all reviews.
+     *
+     * @param productId ID of the product
+     * @return the summary of the ratings of the reviews of the product, empty if it has none
+     */
+    @GetMapping(
+            value = "/review/rating",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<RatingSummary> getReviewRatings(@RequestParam int productId);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review/rating/bulk?productIds=1,2,3".
+     *
+     * @param productIds IDs of the products
+     * @return the summaries of the ratings by product id, products without reviews are left out
+     */
+    @GetMapping(
+            value = "/review/rating/bulk",
+            produces = {"application/json", "application/x-jackson-smile", "application/cbor"})
+    Mono<Map<Integer, RatingSummary>> getReviewRatingsByProductIds(@RequestParam Set<Integer> productIds);
 }
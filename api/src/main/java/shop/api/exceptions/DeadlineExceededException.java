@@ -0,0 +1,8 @@
+package shop.api.exceptions;
+
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
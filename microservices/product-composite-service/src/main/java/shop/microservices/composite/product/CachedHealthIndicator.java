@@ -0,0 +1,92 @@
+package shop.microservices.composite.product;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Serves the health of a downstream service from a snapshot that is refreshed in the background, so that health
+ * checks neither call the service nor wait for it.
+ * <p>
+ * The details tell the age of the snapshot and the latency of the probe that took it. A snapshot older than the
+ * max age, e.g. because the probes hang, is reported as down.
+ */
+public class CachedHealthIndicator implements ReactiveHealthIndicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachedHealthIndicator.class);
+
+    private record Snapshot(Health health, long probedAtNanos, Duration latency) {
+    }
+
+    private final String name;
+    private final Supplier<Mono<Health>> probe;
+    private final Duration refreshInterval;
+    private final Duration maxAge;
+    private volatile Snapshot snapshot;
+    private Disposable refreshes;
+
+    public CachedHealthIndicator(String name, Supplier<Mono<Health>> probe, Duration refreshInterval, Duration maxAge) {
+        this.name = name;
+        this.probe = probe;
+        this.refreshInterval = refreshInterval;
+        this.maxAge = maxAge;
+    }
+
+    public synchronized void start() {
+        if (refreshes == null) {
+            // A probe that takes longer than the interval skips the next refreshes instead of queueing them
+            refreshes = Flux.interval(Duration.ZERO, refreshInterval)
+                    .onBackpressureDrop()
+                    .concatMap(_ -> refresh(), 0)
+                    .subscribe();
+        }
+    }
+
+    public synchronized void stop() {
+        if (refreshes != null) {
+            refreshes.dispose();
+            refreshes = null;
+        }
+    }
+
+    @Override
+    public Mono<Health> health() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return Mono.just(Health.unknown().withDetail("reason", "Not probed yet").build());
+        }
+
+        Duration age = Duration.ofNanos(System.nanoTime() - current.probedAtNanos());
+        Health.Builder health = age.compareTo(maxAge) > 0
+                ? Health.down().withDetail("reason", "Last probe is older than " + maxAge.toMillis() + " ms")
+                : Health.status(current.health().getStatus());
+        return Mono.just(health
+                .withDetails(current.health().getDetails())
+                .withDetail("probeAgeMillis", age.toMillis())
+                .withDetail("probeLatencyMillis", current.latency().toMillis())
+                .build());
+    }
+
+    Mono<Void> refresh() {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            // Deferred, so that a probe that throws is reported as down instead of ending the refreshes
+            return Mono.defer(probe)
+                    .timeout(maxAge)
+                    .onErrorResume(ex -> Mono.just(Health.down(ex).build()))
+                    .doOnNext(health -> {
+                        long now = System.nanoTime();
+                        LOG.debug("Probed health of {}: {}", name, health.getStatus());
+                        snapshot = new Snapshot(health, now, Duration.ofNanos(now - start));
+                    })
+                    .then();
+        });
+    }
+}
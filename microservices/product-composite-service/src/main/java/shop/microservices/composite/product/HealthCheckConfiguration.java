@@ -1,32 +1,51 @@
 package shop.microservices.composite.product;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.CompositeReactiveHealthContributor;
 import org.springframework.boot.actuate.health.ReactiveHealthContributor;
-import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import shop.microservices.composite.product.services.ProductCompositeIntegration;
 
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Health of the core services, probed every app.healthCheck.refreshIntervalMillis in the background and served
+ * from the last probe, see {@link CachedHealthIndicator}.
+ */
 @Configuration
 public class HealthCheckConfiguration {
 
     private final ProductCompositeIntegration integration;
-
-    public HealthCheckConfiguration(ProductCompositeIntegration integration) {
+    private final Duration refreshInterval;
+    private final Duration maxAge;
+    private final Map<String, CachedHealthIndicator> indicators = new LinkedHashMap<>();
+
+    public HealthCheckConfiguration(
+            ProductCompositeIntegration integration,
+            @Value("${app.healthCheck.refreshIntervalMillis:10000}") long refreshIntervalMillis,
+            @Value("${app.healthCheck.maxAgeMillis:30000}") long maxAgeMillis
+    ) {
         this.integration = integration;
+        this.refreshInterval = Duration.ofMillis(refreshIntervalMillis);
+        this.maxAge = Duration.ofMillis(maxAgeMillis);
     }
 
     @Bean
     ReactiveHealthContributor coreServices() {
-        final Map<String, ReactiveHealthIndicator> registry = new LinkedHashMap<>();
+        indicators.put("product", new CachedHealthIndicator("product", integration::getProductHealth, refreshInterval, maxAge));
+        indicators.put("recommendation", new CachedHealthIndicator("recommendation", integration::getRecommendationHealth, refreshInterval, maxAge));
+        indicators.put("review", new CachedHealthIndicator("review", integration::getReviewHealth, refreshInterval, maxAge));
+        indicators.values().forEach(CachedHealthIndicator::start);
 
-        registry.put("product", integration::getProductHealth);
-        registry.put("recommendation", integration::getRecommendationHealth);
-        registry.put("review", integration::getReviewHealth);
+        return CompositeReactiveHealthContributor.fromMap(indicators);
+    }
 
-        return CompositeReactiveHealthContributor.fromMap(registry);
+    @PreDestroy
+    void stop() {
+        indicators.values().forEach(CachedHealthIndicator::stop);
     }
 }
@@ -0,0 +1,67 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.RoundRobinLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import shop.microservices.composite.product.services.ConsistentHashLoadBalancer;
+import shop.microservices.composite.product.services.LatencyAwareLoadBalancer;
+import shop.microservices.composite.product.services.OutlierDetector;
+import shop.microservices.composite.product.services.OutlierEjectingServiceInstanceListSupplier;
+import shop.microservices.composite.product.services.ServiceInstanceStats;
+
+/**
+ * Load balancer of the core services, applied to each of them by @LoadBalancerClients.
+ * <p>
+ * Not annotated with @Configuration, the beans belong in the context of each load balancer client and not in the
+ * application context. The load balancers pick among the instances that are not ejected by the outlier detector.
+ */
+public class LoadBalancerConfiguration {
+
+    /**
+     * The default supplier of Spring Cloud, discovery client and caching, without the instances ejected by the
+     * outlier detector. The ejections are applied on top of the cache, so that they take effect right away.
+     */
+    @Bean
+    ServiceInstanceListSupplier outlierEjectingServiceInstanceListSupplier(
+            ConfigurableApplicationContext context,
+            OutlierDetector outlierDetector) {
+        return ServiceInstanceListSupplier.builder()
+                .withDiscoveryClient()
+                .withCaching()
+                .with((_, delegate) -> new OutlierEjectingServiceInstanceListSupplier(delegate, outlierDetector))
+                .build(context);
+    }
+
+    /**
+     * Latency aware, or round-robin without app.loadBalancer.latencyAware. With app.loadBalancer.consistentHash the
+     * requests for a productId are routed by the hash ring and the other requests by the load balancer above.
+     */
+    @Bean
+    ReactorLoadBalancer<ServiceInstance> loadBalancer(
+            Environment environment,
+            LoadBalancerClientFactory loadBalancerClientFactory,
+            ServiceInstanceStats stats,
+            MeterRegistry meterRegistry) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        ObjectProvider<ServiceInstanceListSupplier> supplierProvider =
+                loadBalancerClientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class);
+
+        ReactorServiceInstanceLoadBalancer loadBalancer = environment.getProperty("app.loadBalancer.latencyAware", Boolean.class, true)
+                ? new LatencyAwareLoadBalancer(supplierProvider, serviceId, stats, meterRegistry)
+                : new RoundRobinLoadBalancer(supplierProvider, serviceId);
+
+        if (!environment.getProperty("app.loadBalancer.consistentHash.enabled", Boolean.class, false)) {
+            return loadBalancer;
+        }
+        int virtualNodes = environment.getProperty("app.loadBalancer.consistentHash.virtualNodes", Integer.class, 100);
+        return new ConsistentHashLoadBalancer(supplierProvider, serviceId, loadBalancer, virtualNodes, meterRegistry);
+    }
+}
@@ -1,20 +1,25 @@
 package shop.microservices.composite.product;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Import;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
+import shop.util.http.Deadline;
 
 @SpringBootApplication
 @ComponentScan("shop")
 @Import(OpenApiConfiguration.class)
+@LoadBalancerClients(defaultConfiguration = LoadBalancerConfiguration.class)
 public class ProductCompositeServiceApplication {
 
     private final Integer threadPoolSize;
@@ -40,7 +45,10 @@ public class ProductCompositeServiceApplication {
 
     @Bean
     @LoadBalanced
-    public WebClient.Builder loadBalancedWebClientBuilder() {
-        return WebClient.builder();
+    public WebClient.Builder loadBalancedWebClientBuilder(
+            @Qualifier("binaryCodecsCustomizer") CodecCustomizer binaryCodecsCustomizer) {
+        return WebClient.builder()
+                .codecs(binaryCodecsCustomizer::customize)
+                .filter(Deadline.propagationFilter());
     }
 }
@@ -0,0 +1,171 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.SelectedInstanceCallback;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Routes the requests for a productId to the same instance, so that the caches of the instances each hold a slice
+ * of the products instead of all of them.
+ * <p>
+ * The instances are placed on a hash ring with a number of virtual nodes each, a productId goes to the first
+ * virtual node after its hash. When an instance comes or goes, only the productIds of its slices move, to or from
+ * the neighbours on the ring. The ring is rebuilt whenever the instance list changes, also when the outlier
+ * detector ejects or readmits an instance.
+ * <p>
+ * Requests without a routing key, see {@link #ROUTING_KEY_ATTRIBUTE}, are left to the fallback load balancer.
+ */
+public class ConsistentHashLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsistentHashLoadBalancer.class);
+
+    /**
+     * The request attribute with the Integer key that a request is routed by.
+     */
+    public static final String ROUTING_KEY_ATTRIBUTE = ConsistentHashLoadBalancer.class.getName() + ".routingKey";
+
+    private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+    private final String serviceId;
+    private final ReactorServiceInstanceLoadBalancer fallback;
+    private final int virtualNodes;
+    private final MeterRegistry meterRegistry;
+    private volatile Ring ring = new Ring(Set.of(), new long[0], new ServiceInstance[0]);
+
+    public ConsistentHashLoadBalancer(
+            ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider,
+            String serviceId,
+            ReactorServiceInstanceLoadBalancer fallback,
+            int virtualNodes,
+            MeterRegistry meterRegistry
+    ) {
+        this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+        this.serviceId = serviceId;
+        this.fallback = fallback;
+        this.virtualNodes = virtualNodes;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        Integer key = routingKey(request);
+        if (key == null) {
+            return fallback.choose(request);
+        }
+
+        ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider
+                .getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next()
+                .map(instances -> {
+                    if (instances.isEmpty()) {
+                        LOG.warn("No servers available for service: {}", serviceId);
+                        return new EmptyResponse();
+                    }
+
+                    ServiceInstance instance = choose(instances, key);
+                    if (supplier instanceof SelectedInstanceCallback callback) {
+                        callback.selectedServiceInstance(instance);
+                    }
+                    Counter.builder("composite.loadbalancer.choices")
+                            .tag("service", serviceId)
+                            .tag("instance", ServiceInstanceStats.key(instance))
+                            .description("The number of requests sent to the instance by the load balancer")
+                            .register(meterRegistry)
+                            .increment();
+                    return new DefaultResponse(instance);
+                });
+    }
+
+    ServiceInstance choose(List<ServiceInstance> instances, int key) {
+        Set<String> instanceKeys = instances.stream().map(ServiceInstanceStats::key).collect(Collectors.toSet());
+        Ring current = ring;
+        if (!current.instanceKeys().equals(instanceKeys)) {
+            current = buildRing(instances, instanceKeys);
+            ring = current;
+        }
+        return current.get(mix(key));
+    }
+
+    private Ring buildRing(List<ServiceInstance> instances, Set<String> instanceKeys) {
+        LOG.info("Build hash ring of {} with {} instances", serviceId, instances.size());
+
+        record Node(long hash, ServiceInstance instance) {
+        }
+        List<Node> nodes = instances.stream()
+                .flatMap(instance -> IntStream.range(0, virtualNodes)
+                        .mapToObj(i -> new Node(hash(ServiceInstanceStats.key(instance) + "#" + i), instance)))
+                .sorted(Comparator.comparingLong(Node::hash))
+                .toList();
+
+        return new Ring(
+                instanceKeys,
+                nodes.stream().mapToLong(Node::hash).toArray(),
+                nodes.stream().map(Node::instance).toArray(ServiceInstance[]::new));
+    }
+
+    private static Integer routingKey(Request<?> request) {
+        if (request.getContext() instanceof RequestDataContext context
+                && context.getClientRequest().getAttributes().get(ROUTING_KEY_ATTRIBUTE) instanceof Integer key) {
+            return key;
+        }
+        return null;
+    }
+
+    /**
+     * The ring positions of the virtual nodes, the first 8 bytes of the MD5 digest, like Ketama.
+     */
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The ring position of a key, the finalizer of MurmurHash3, which spreads consecutive keys over the ring.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private record Ring(Set<String> instanceKeys, long[] hashes, ServiceInstance[] instances) {
+
+        ServiceInstance get(long hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return instances[index == hashes.length ? 0 : index];
+        }
+    }
+}
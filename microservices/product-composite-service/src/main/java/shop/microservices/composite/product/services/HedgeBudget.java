@@ -0,0 +1,39 @@
+package shop.microservices.composite.product.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps hedged requests to a percentage of the primary requests.
+ * <p>
+ * Every primary request deposits {@code budgetPercent / 100} of a token, every hedge withdraws a whole token.
+ * The balance is capped so that a quiet period can not be saved up for a burst of hedges.
+ */
+public class HedgeBudget {
+
+    private static final long TOKEN = 1_000_000L;
+
+    private final long depositPerRequest;
+    private final long maxBalance;
+    private final AtomicLong balance = new AtomicLong();
+
+    public HedgeBudget(double budgetPercent, int maxTokens) {
+        this.depositPerRequest = (long) (budgetPercent / 100 * TOKEN);
+        this.maxBalance = maxTokens * TOKEN;
+    }
+
+    public void onRequest() {
+        balance.accumulateAndGet(depositPerRequest, (current, deposit) -> Math.min(current + deposit, maxBalance));
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long current = balance.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactiveLoadBalancer;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import shop.api.core.product.Product;
+import shop.util.http.Deadline;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Hedged product lookups.
+ * <p>
+ * The primary request goes to the instance picked by the load balancer. If it has not answered within the
+ * configured latency percentile, a second request is sent to another instance of the product service and
+ * whichever answers first is used. A failing request does not fail the lookup while the other one may still
+ * answer. Hedges are capped by a {@link HedgeBudget}.
+ */
+@Component
+public class HedgingProductClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HedgingProductClient.class);
+
+    private static final String PRODUCT_SERVICE_ID = "product";
+
+    private final boolean enabled;
+    private final Duration minDelay;
+    private final Duration maxDelay;
+    private final ReactiveLoadBalancer.Factory<ServiceInstance> loadBalancerFactory;
+    private final ReactiveDiscoveryClient discoveryClient;
+    private final HedgeBudget budget;
+    private final Timer latency;
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+
+    private final WebClient webClient;
+    private final InternalWireFormat wireFormat;
+    private final OutlierDetector outlierDetector;
+
+    @Autowired
+    public HedgingProductClient(
+            ReactiveLoadBalancer.Factory<ServiceInstance> loadBalancerFactory,
+            ReactiveDiscoveryClient discoveryClient,
+            MeterRegistry meterRegistry,
+            ServiceHttpConnectors connectors,
+            @Qualifier("binaryCodecsCustomizer") CodecCustomizer binaryCodecsCustomizer,
+            InternalWireFormat wireFormat,
+            ServiceInstanceStats serviceInstanceStats,
+            OutlierDetector outlierDetector,
+            @Value("${app.hedging.enabled:false}") boolean enabled,
+            @Value("${app.hedging.percentile:0.95}") double percentile,
+            @Value("${app.hedging.minDelayMillis:5}") long minDelayMillis,
+            @Value("${app.hedging.maxDelayMillis:500}") long maxDelayMillis,
+            @Value("${app.hedging.budgetPercent:5}") double budgetPercent,
+            @Value("${app.hedging.budgetMaxTokens:10}") int budgetMaxTokens
+    ) {
+        this.loadBalancerFactory = loadBalancerFactory;
+        this.discoveryClient = discoveryClient;
+        this.enabled = enabled;
+        this.minDelay = Duration.ofMillis(minDelayMillis);
+        this.maxDelay = Duration.ofMillis(maxDelayMillis);
+        this.budget = new HedgeBudget(budgetPercent, budgetMaxTokens);
+        this.wireFormat = wireFormat;
+        this.outlierDetector = outlierDetector;
+
+        // Not load balanced, the instances are picked explicitly. Shares the connection pool of the product service.
+        this.webClient = WebClient.builder()
+                .clientConnector(connectors.forService(PRODUCT_SERVICE_ID))
+                .codecs(binaryCodecsCustomizer::customize)
+                .filter(Deadline.propagationFilter())
+                .filter(serviceInstanceStats.filter())
+                .filter(outlierDetector.filter())
+                .build();
+
+        this.latency = Timer.builder("composite.hedging.latency")
+                .tag("service", PRODUCT_SERVICE_ID)
+                .description("Latency of the primary single product lookups, used to calculate the hedge delay")
+                .publishPercentiles(percentile)
+                .register(meterRegistry);
+        this.hedgesSent = Counter.builder("composite.hedges.sent")
+                .tag("service", PRODUCT_SERVICE_ID)
+                .register(meterRegistry);
+        this.hedgesWon = Counter.builder("composite.hedges.won")
+                .tag("service", PRODUCT_SERVICE_ID)
+                .description("The number of hedged requests that answered before the primary request")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Mono<ResponseEntity<Product>> getProduct(int productId, String ifNoneMatch) {
+        budget.onRequest();
+
+        // The primary request is routed by productId like the unhedged requests, the hedge goes to any other instance
+        RequestData requestData = new RequestData(HttpMethod.GET, URI.create("http://" + PRODUCT_SERVICE_ID + "/product/" + productId),
+                new HttpHeaders(), new LinkedMultiValueMap<>(), Map.of(ConsistentHashLoadBalancer.ROUTING_KEY_ATTRIBUTE, productId));
+        return Mono.from(loadBalancerFactory.getInstance(PRODUCT_SERVICE_ID).choose(new DefaultRequest<>(new RequestDataContext(requestData))))
+                .flatMap(response -> {
+                    if (!response.hasServer()) {
+                        return Mono.error(new IllegalStateException("No instance available for " + PRODUCT_SERVICE_ID));
+                    }
+
+                    ServiceInstance primary = response.getServer();
+
+                    // The primary request's error only counts once no hedge can answer instead, an error cuts the
+                    // hedge delay short so that it is not waited for
+                    AtomicReference<Throwable> primaryError = new AtomicReference<>();
+                    Sinks.Empty<Void> primaryFailed = Sinks.empty();
+                    Mono<Answer> primaryRequest = recordLatency(getProduct(primary, productId, ifNoneMatch))
+                            .map(productResponse -> new Answer(productResponse, false))
+                            .doOnError(e -> {
+                                primaryError.set(e);
+                                primaryFailed.tryEmitEmpty();
+                            });
+
+                    Mono<Answer> hedge = Mono.delay(hedgeDelay())
+                            .takeUntilOther(primaryFailed.asMono())
+                            .flatMap(_ -> selectOtherInstance(primary))
+                            .filter(_ -> budget.tryAcquire())
+                            .flatMap(instance -> {
+                                LOG.debug("Hedge getProduct for productId: {} to {}", productId, instance.getUri());
+                                hedgesSent.increment();
+                                return getProduct(instance, productId, ifNoneMatch).map(productResponse -> new Answer(productResponse, true));
+                            });
+
+                    // A hedge is counted as won from the answer that is used, both may answer at nearly the same time
+                    return Mono.firstWithValue(primaryRequest, hedge)
+                            .onErrorMap(NoSuchElementException.class, e -> primaryError.get() != null ? primaryError.get() : e)
+                            .doOnNext(answer -> {
+                                if (answer.hedged()) {
+                                    hedgesWon.increment();
+                                }
+                            })
+                            .map(Answer::response);
+                });
+    }
+
+    private Mono<ResponseEntity<Product>> getProduct(ServiceInstance instance, int productId, String ifNoneMatch) {
+        String url = instance.getUri() + "/product/" + productId;
+
+        return webClient.get()
+                .uri(url)
+                .accept(wireFormat.forValues())
+                .headers(headers -> ProductCompositeIntegration.setIfNoneMatch(headers, ifNoneMatch))
+                .retrieve()
+                .toEntity(Product.class);
+    }
+
+    /**
+     * Records the latency of the primary requests. A primary request cancelled because the hedge answered first is
+     * recorded too, with the time until then, so that slow primary requests keep the hedge delay up.
+     */
+    private <T> Mono<T> recordLatency(Mono<T> request) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return request
+                    .doOnNext(_ -> latency.record(System.nanoTime() - start, NANOSECONDS))
+                    .doOnCancel(() -> latency.record(System.nanoTime() - start, NANOSECONDS));
+        });
+    }
+
+    private record Answer(ResponseEntity<Product> response, boolean hedged) {
+    }
+
+    private Duration hedgeDelay() {
+        ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+        if (percentiles.length == 0 || percentiles[0].value() <= 0) {
+            // No latencies recorded yet
+            return maxDelay;
+        }
+
+        Duration delay = Duration.ofMillis((long) percentiles[0].value(MILLISECONDS));
+        if (delay.compareTo(minDelay) < 0) {
+            return minDelay;
+        }
+        return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+
+    private Mono<ServiceInstance> selectOtherInstance(ServiceInstance primary) {
+        return discoveryClient.getInstances(PRODUCT_SERVICE_ID)
+                .filter(instance -> !(instance.getHost().equals(primary.getHost()) && instance.getPort() == primary.getPort()))
+                .filter(instance -> !outlierDetector.isEjected(instance))
+                .collectList()
+                .flatMap(instances -> instances.isEmpty()
+                        ? Mono.empty()
+                        : Mono.just(instances.get(ThreadLocalRandom.current().nextInt(instances.size()))));
+    }
+}
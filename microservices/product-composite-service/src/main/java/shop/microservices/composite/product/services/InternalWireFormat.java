@@ -0,0 +1,56 @@
+package shop.microservices.composite.product.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static shop.util.http.BinaryCodecs.APPLICATION_CBOR;
+import static shop.util.http.BinaryCodecs.APPLICATION_SMILE;
+
+/**
+ * The media types the composite service asks the core services for, configured with app.internalWireFormat.
+ * <p>
+ * JSON is always accepted as well, so that a core service without the binary codecs still works. CBOR can not be
+ * used for streamed responses, Smile is asked for instead.
+ */
+@Component
+public class InternalWireFormat {
+
+    private final MediaType[] valueTypes;
+    private final MediaType[] streamTypes;
+
+    @Autowired
+    public InternalWireFormat(@Value("${app.internalWireFormat:smile}") String format) {
+        switch (format) {
+            case "json" -> {
+                valueTypes = new MediaType[]{APPLICATION_JSON};
+                streamTypes = new MediaType[]{APPLICATION_JSON};
+            }
+            case "smile" -> {
+                valueTypes = new MediaType[]{APPLICATION_SMILE, APPLICATION_JSON};
+                streamTypes = new MediaType[]{APPLICATION_SMILE, APPLICATION_JSON};
+            }
+            case "cbor" -> {
+                valueTypes = new MediaType[]{APPLICATION_CBOR, APPLICATION_JSON};
+                streamTypes = new MediaType[]{APPLICATION_SMILE, APPLICATION_JSON};
+            }
+            default -> throw new IllegalArgumentException("Invalid app.internalWireFormat: " + format + ", must be json, smile or cbor");
+        }
+    }
+
+    /**
+     * The media types for responses with a single value, e.g. a Mono.
+     */
+    public MediaType[] forValues() {
+        return valueTypes.clone();
+    }
+
+    /**
+     * The media types for responses with a sequence of values, e.g. a Flux.
+     */
+    public MediaType[] forStreams() {
+        return streamTypes.clone();
+    }
+}
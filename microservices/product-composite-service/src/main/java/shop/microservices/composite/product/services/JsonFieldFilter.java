@@ -0,0 +1,179 @@
+package shop.microservices.composite.product.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * Drops fields from the objects of a JSON array while it streams through, without binding it to objects.
+ * <p>
+ * The input is parsed token by token with a non-blocking parser, and every token that is kept is copied to a
+ * generator that writes into the output buffer of the current input buffer. Field names are canonicalized by the
+ * parser and string values are copied from its character buffer, so only the buffers themselves are allocated.
+ * Only the fields of the objects directly in the top-level array are dropped, nested objects are copied as is.
+ */
+public class JsonFieldFilter {
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .disable(StreamWriteFeature.AUTO_CLOSE_CONTENT)
+            .build();
+
+    // Root, top-level array, element object
+    private static final int ELEMENT_DEPTH = 2;
+
+    private final Set<String> droppedFields;
+
+    public JsonFieldFilter(Set<String> droppedFields) {
+        this.droppedFields = Set.copyOf(droppedFields);
+    }
+
+    public Flux<DataBuffer> filter(Flux<DataBuffer> input, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+                    Filter filter = new Filter(bufferFactory);
+                    return input
+                            .map(filter::process)
+                            .concatWith(Mono.fromCallable(filter::complete))
+                            .filter(JsonFieldFilter::isNotEmpty)
+                            .doFinally(_ -> filter.close());
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    private static boolean isNotEmpty(DataBuffer buffer) {
+        if (buffer.readableByteCount() > 0) {
+            return true;
+        }
+        DataBufferUtils.release(buffer);
+        return false;
+    }
+
+    private final class Filter {
+
+        private final DataBufferFactory bufferFactory;
+        private final JsonParser parser;
+        private final TargetOutputStream output = new TargetOutputStream();
+        private final JsonGenerator generator;
+
+        // Set after a dropped field name, the next value is skipped
+        private boolean skipValue;
+        // The nesting depth within a skipped object or array value
+        private int skipDepth;
+
+        Filter(DataBufferFactory bufferFactory) {
+            this.bufferFactory = bufferFactory;
+            try {
+                this.parser = JSON_FACTORY.createNonBlockingByteBufferParser();
+                this.generator = JSON_FACTORY.createGenerator(output);
+            } catch (IOException e) {
+                throw Exceptions.propagate(e);
+            }
+        }
+
+        DataBuffer process(DataBuffer input) {
+            DataBuffer buffer = bufferFactory.allocateBuffer(input.readableByteCount());
+            try (DataBuffer.ByteBufferIterator iterator = input.readableByteBuffers()) {
+                output.target = buffer.asOutputStream();
+                while (iterator.hasNext()) {
+                    ((ByteBufferFeeder) parser.getNonBlockingInputFeeder()).feedInput(iterator.next());
+                    copyAvailableTokens();
+                }
+                generator.flush();
+                return buffer;
+            } catch (IOException | RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw Exceptions.propagate(e);
+            } finally {
+                output.target = null;
+                DataBufferUtils.release(input);
+            }
+        }
+
+        DataBuffer complete() throws IOException {
+            DataBuffer buffer = bufferFactory.allocateBuffer(16);
+            try {
+                output.target = buffer.asOutputStream();
+                parser.getNonBlockingInputFeeder().endOfInput();
+                copyAvailableTokens();
+                generator.flush();
+                return buffer;
+            } catch (IOException | RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw e;
+            } finally {
+                output.target = null;
+            }
+        }
+
+        void close() {
+            try {
+                parser.close();
+                generator.close();
+            } catch (IOException ignored) {
+                // Nothing left to write to
+            }
+        }
+
+        private void copyAvailableTokens() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                if (skipDepth > 0) {
+                    if (token.isStructStart()) {
+                        skipDepth++;
+                    } else if (token.isStructEnd()) {
+                        skipDepth--;
+                    }
+                } else if (skipValue) {
+                    skipValue = false;
+                    if (token.isStructStart()) {
+                        skipDepth = 1;
+                    }
+                } else if (token == JsonToken.FIELD_NAME
+                        && parser.getParsingContext().getNestingDepth() == ELEMENT_DEPTH
+                        && droppedFields.contains(parser.currentName())) {
+                    skipValue = true;
+                } else {
+                    generator.copyCurrentEvent(parser);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the generator write into the output buffer of the input buffer that is currently processed.
+     */
+    private static final class TargetOutputStream extends OutputStream {
+
+        private OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        private OutputStream target() throws IOException {
+            if (target == null) {
+                throw new IOException("No output buffer to write to");
+            }
+            return target;
+        }
+    }
+}
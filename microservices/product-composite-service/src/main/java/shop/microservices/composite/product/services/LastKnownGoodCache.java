@@ -0,0 +1,207 @@
+package shop.microservices.composite.product.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Last known good values of a downstream service per productId, served stale while the service fails or is slow.
+ * <p>
+ * Without a known good value every request waits for the service, and gets the empty value if it fails.
+ * With a known good value a request waits at most the soft timeout for a fresh value and gets the stale one
+ * otherwise. The fetch keeps running in the background to refresh the value. After a failure, requests get
+ * the stale value right away and the service is only tried again once per retry interval, so that a failing
+ * service is not hit by every request.
+ * <p>
+ * Refreshes are not bound to the deadline of the request that started them, they have a timeout of their own.
+ */
+public class LastKnownGoodCache<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LastKnownGoodCache.class);
+
+    public record Result<T>(T value, boolean stale) {
+
+        static <T> Result<T> fresh(T value) {
+            return new Result<>(value, false);
+        }
+    }
+
+    private record Entry<T>(T value, long retryAtNanos) {
+
+        static <T> Entry<T> healthy(T value) {
+            return new Entry<>(value, 0);
+        }
+
+        boolean isFailing() {
+            return retryAtNanos != 0;
+        }
+
+        boolean isRetryDue() {
+            return System.nanoTime() - retryAtNanos >= 0;
+        }
+    }
+
+    private final String name;
+    private final T emptyValue;
+    private final boolean enabled;
+    private final Duration softTimeout;
+    private final Duration refreshTimeout;
+    private final long retryIntervalNanos;
+    private final Cache<Integer, Entry<T>> entries;
+    private final Map<Integer, Mono<T>> refreshes = new ConcurrentHashMap<>();
+    private final Counter staleResults;
+
+    public LastKnownGoodCache(
+            String name,
+            T emptyValue,
+            MeterRegistry meterRegistry,
+            boolean enabled,
+            long maximumSize,
+            Duration softTimeout,
+            Duration refreshTimeout,
+            Duration retryInterval
+    ) {
+        this.name = name;
+        this.emptyValue = emptyValue;
+        this.enabled = enabled;
+        this.softTimeout = softTimeout;
+        this.refreshTimeout = refreshTimeout;
+        this.retryIntervalNanos = retryInterval.toNanos();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+        this.staleResults = Counter.builder("composite.fallback.stale")
+                .tag("part", name)
+                .description("The number of results served from the last known good values, or empty, because the service failed or was slow")
+                .register(meterRegistry);
+    }
+
+    public Mono<Result<T>> get(int productId, IntFunction<Mono<T>> fetcher) {
+        return Mono.defer(() -> {
+            Entry<T> entry = enabled ? entries.getIfPresent(productId) : null;
+            if (entry == null) {
+                // Nothing to fall back on, wait for the service
+                return fetcher.apply(productId)
+                        .doOnNext(value -> store(productId, value))
+                        .map(Result::fresh)
+                        .onErrorResume(ex -> Mono.just(stale(productId, emptyValue, ex)));
+            }
+
+            if (entry.isFailing()) {
+                if (entry.isRetryDue()) {
+                    refresh(productId, fetcher);
+                }
+                return Mono.just(stale(productId, entry.value(), null));
+            }
+
+            return refresh(productId, fetcher)
+                    .map(Result::fresh)
+                    .timeout(softTimeout, Mono.fromSupplier(() -> stale(productId, entry.value(), null)))
+                    .onErrorResume(ex -> Mono.just(stale(productId, entry.value(), ex)));
+        });
+    }
+
+    /**
+     * Bulk variant of {@link #get}, without the soft timeout. If the service fails, all values are served stale.
+     */
+    public Mono<Map<Integer, Result<T>>> getAll(Set<Integer> productIds, Mono<Map<Integer, T>> fetch) {
+        return fetch
+                .map(values -> {
+                    Map<Integer, Result<T>> results = new HashMap<>();
+                    productIds.forEach(productId -> {
+                        T value = values.getOrDefault(productId, emptyValue);
+                        store(productId, value);
+                        results.put(productId, Result.fresh(value));
+                    });
+                    return results;
+                })
+                .onErrorResume(ex -> {
+                    LOG.warn("Serve {} for {} products stale, got: {}", name, productIds.size(), ex.toString());
+                    Map<Integer, Result<T>> results = new HashMap<>();
+                    productIds.forEach(productId -> {
+                        Entry<T> entry = enabled ? entries.getIfPresent(productId) : null;
+                        results.put(productId, new Result<>(entry == null ? emptyValue : entry.value(), true));
+                    });
+                    staleResults.increment(productIds.size());
+                    return Mono.just(results);
+                });
+    }
+
+    /**
+     * Returns the last known good value, or the empty value, without calling the service.
+     */
+    public T getLastKnownGood(int productId) {
+        Entry<T> entry = enabled ? entries.getIfPresent(productId) : null;
+        return stale(productId, entry == null ? emptyValue : entry.value(), null).value();
+    }
+
+    public void invalidate(int productId) {
+        entries.invalidate(productId);
+    }
+
+    /**
+     * Starts a refresh, unless one is already running, and returns it. The refresh runs to completion even if
+     * nobody waits for it anymore.
+     */
+    private Mono<T> refresh(int productId, IntFunction<Mono<T>> fetcher) {
+        Mono<T> running = refreshes.get(productId);
+        if (running != null) {
+            return running;
+        }
+
+        AtomicReference<Mono<T>> self = new AtomicReference<>();
+        Mono<T> refresh = Mono.defer(() -> fetcher.apply(productId))
+                .timeout(refreshTimeout)
+                .doOnNext(value -> store(productId, value))
+                .doOnError(_ -> markFailing(productId))
+                .doFinally(_ -> refreshes.remove(productId, self.get()))
+                .cache();
+        self.set(refresh);
+
+        running = refreshes.putIfAbsent(productId, refresh);
+        if (running != null) {
+            return running;
+        }
+
+        LOG.debug("Refresh {} for productId: {}", name, productId);
+        refresh.subscribe(_ -> {
+        }, _ -> {
+        });
+        return refresh;
+    }
+
+    private void store(int productId, T value) {
+        if (enabled) {
+            entries.put(productId, Entry.healthy(value));
+        }
+    }
+
+    private void markFailing(int productId) {
+        long retryAtNanos = System.nanoTime() + retryIntervalNanos;
+        // Avoid zero, it marks a healthy entry
+        entries.asMap().computeIfPresent(productId,
+                (_, entry) -> new Entry<>(entry.value(), retryAtNanos == 0 ? 1 : retryAtNanos));
+    }
+
+    private Result<T> stale(int productId, T value, Throwable error) {
+        if (error != null) {
+            LOG.warn("Serve {} for productId: {} stale, got: {}", name, productId, error.toString());
+        } else {
+            LOG.debug("Serve {} for productId: {} stale", name, productId);
+        }
+        staleResults.increment();
+        return new Result<>(value, true);
+    }
+}
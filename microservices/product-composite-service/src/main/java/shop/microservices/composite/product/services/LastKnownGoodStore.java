@@ -0,0 +1,64 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import shop.api.core.rating.RatingSummary;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.review.Review;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The last known good recommendations and reviews per productId, with their entity tags, and their ratings, see
+ * {@link LastKnownGoodCache}.
+ */
+@Component
+public class LastKnownGoodStore {
+
+    private final LastKnownGoodCache<Tagged<List<Recommendation>>> recommendations;
+    private final LastKnownGoodCache<Tagged<List<Review>>> reviews;
+    private final LastKnownGoodCache<RatingSummary> recommendationRatings;
+    private final LastKnownGoodCache<RatingSummary> reviewRatings;
+
+    @Autowired
+    public LastKnownGoodStore(
+            MeterRegistry meterRegistry,
+            @Value("${app.lastKnownGood.enabled:true}") boolean enabled,
+            @Value("${app.lastKnownGood.maximumSize:10000}") long maximumSize,
+            @Value("${app.lastKnownGood.softTimeoutMillis:200}") long softTimeoutMillis,
+            @Value("${app.lastKnownGood.refreshTimeoutMillis:5000}") long refreshTimeoutMillis,
+            @Value("${app.lastKnownGood.retryIntervalMillis:1000}") long retryIntervalMillis
+    ) {
+        Duration softTimeout = Duration.ofMillis(softTimeoutMillis);
+        Duration refreshTimeout = Duration.ofMillis(refreshTimeoutMillis);
+        Duration retryInterval = Duration.ofMillis(retryIntervalMillis);
+
+        this.recommendations = new LastKnownGoodCache<>(ProductAggregateParts.RECOMMENDATIONS, Tagged.untagged(List.of()), meterRegistry,
+                enabled, maximumSize, softTimeout, refreshTimeout, retryInterval);
+        this.reviews = new LastKnownGoodCache<>(ProductAggregateParts.REVIEWS, Tagged.untagged(List.of()), meterRegistry,
+                enabled, maximumSize, softTimeout, refreshTimeout, retryInterval);
+        this.recommendationRatings = new LastKnownGoodCache<>("recommendation-ratings", RatingSummary.empty(), meterRegistry,
+                enabled, maximumSize, softTimeout, refreshTimeout, retryInterval);
+        this.reviewRatings = new LastKnownGoodCache<>("review-ratings", RatingSummary.empty(), meterRegistry,
+                enabled, maximumSize, softTimeout, refreshTimeout, retryInterval);
+    }
+
+    public LastKnownGoodCache<Tagged<List<Recommendation>>> recommendations() {
+        return recommendations;
+    }
+
+    public LastKnownGoodCache<Tagged<List<Review>>> reviews() {
+        return reviews;
+    }
+
+    public LastKnownGoodCache<RatingSummary> recommendationRatings() {
+        return recommendationRatings;
+    }
+
+    public LastKnownGoodCache<RatingSummary> reviewRatings() {
+        return reviewRatings;
+    }
+}
@@ -0,0 +1,104 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.SelectedInstanceCallback;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+import shop.microservices.composite.product.services.ServiceInstanceStats.Load;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks instances with the power of two choices: of two random instances, the one with the lower cost is picked.
+ * <p>
+ * The cost of an instance is its latency times its in-flight requests plus one, see {@link ServiceInstanceStats}.
+ * Comparing two random instances, instead of picking the cheapest of all, keeps the instances of several composites
+ * from all piling onto the same instance, and still keeps requests away from slow or overloaded instances without
+ * waiting for the discovery service to evict them. An instance without latency samples yet is assumed to be as
+ * fast as the one it is compared to.
+ * <p>
+ * The picks are counted by composite.loadbalancer.choices, tagged with the service and instance.
+ */
+public class LatencyAwareLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareLoadBalancer.class);
+
+    private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+    private final String serviceId;
+    private final ServiceInstanceStats stats;
+    private final MeterRegistry meterRegistry;
+
+    public LatencyAwareLoadBalancer(
+            ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider,
+            String serviceId,
+            ServiceInstanceStats stats,
+            MeterRegistry meterRegistry
+    ) {
+        this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+        this.serviceId = serviceId;
+        this.stats = stats;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider
+                .getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next()
+                .map(instances -> {
+                    if (instances.isEmpty()) {
+                        LOG.warn("No servers available for service: {}", serviceId);
+                        return new EmptyResponse();
+                    }
+
+                    ServiceInstance instance = choose(instances);
+                    if (supplier instanceof SelectedInstanceCallback callback) {
+                        callback.selectedServiceInstance(instance);
+                    }
+                    Counter.builder("composite.loadbalancer.choices")
+                            .tag("service", serviceId)
+                            .tag("instance", ServiceInstanceStats.key(instance))
+                            .description("The number of requests sent to the instance by the load balancer")
+                            .register(meterRegistry)
+                            .increment();
+                    return new DefaultResponse(instance);
+                });
+    }
+
+    ServiceInstance choose(List<ServiceInstance> instances) {
+        if (instances.size() == 1) {
+            return instances.getFirst();
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(instances.size());
+        int second = random.nextInt(instances.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        Load firstLoad = stats.load(instances.get(first));
+        Load secondLoad = stats.load(instances.get(second));
+        return cost(firstLoad, secondLoad) <= cost(secondLoad, firstLoad)
+                ? instances.get(first)
+                : instances.get(second);
+    }
+
+    private static double cost(Load load, Load other) {
+        double latency = load.sampled() ? load.latencyNanos() : other.latencyNanos();
+        // Without any latency, e.g. on start up, the in-flight requests decide
+        return Math.max(latency, 1) * (load.inFlight() + 1);
+    }
+}
@@ -0,0 +1,109 @@
+package shop.microservices.composite.product.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
+import shop.api.core.product.Product;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.review.Review;
+import shop.api.event.Event;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+@Configuration
+public class MessageProcessorConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfig.class);
+
+    private static final String READ_MODEL_ENABLED = "'${app.readModel.mode:disabled}' != 'disabled'";
+
+    private final ProductAggregateCache productAggregateCache;
+    private final ProductAggregateRequestCoalescer requestCoalescer;
+    private final LastKnownGoodStore lastKnownGoodStore;
+    private final ProductReadModel productReadModel;
+    private final Duration repeatInvalidationAfter;
+
+    @Autowired
+    public MessageProcessorConfig(
+            ProductAggregateCache productAggregateCache,
+            ProductAggregateRequestCoalescer requestCoalescer,
+            LastKnownGoodStore lastKnownGoodStore,
+            ProductReadModel productReadModel,
+            @Value("${app.invalidation.repeatAfterMillis:2000}") long repeatInvalidationAfterMillis
+    ) {
+        this.productAggregateCache = productAggregateCache;
+        this.requestCoalescer = requestCoalescer;
+        this.lastKnownGoodStore = lastKnownGoodStore;
+        this.productReadModel = productReadModel;
+        this.repeatInvalidationAfter = Duration.ofMillis(repeatInvalidationAfterMillis);
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Product>> productEventProcessor() {
+        return event -> invalidate(event, () -> invalidateProductAggregate(event));
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Recommendation>> recommendationEventProcessor() {
+        return event -> invalidate(event, () -> {
+            lastKnownGoodStore.recommendations().invalidate(event.getKey());
+            lastKnownGoodStore.recommendationRatings().invalidate(event.getKey());
+            invalidateProductAggregate(event);
+        });
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Review>> reviewEventProcessor() {
+        return event -> invalidate(event, () -> {
+            lastKnownGoodStore.reviews().invalidate(event.getKey());
+            lastKnownGoodStore.reviewRatings().invalidate(event.getKey());
+            invalidateProductAggregate(event);
+        });
+    }
+
+    // The read model projection consumes the same destinations through bindings of its own, see ProductReadModel.
+    // Without the beans the functions are not bound, i.e. no queues are declared while the read model is disabled.
+
+    @Bean
+    @ConditionalOnExpression(READ_MODEL_ENABLED)
+    public Consumer<Event<Integer, Product>> productReadModelProcessor() {
+        return productReadModel::onProductEvent;
+    }
+
+    @Bean
+    @ConditionalOnExpression(READ_MODEL_ENABLED)
+    public Consumer<Event<Integer, Recommendation>> recommendationReadModelProcessor() {
+        return productReadModel::onRecommendationEvent;
+    }
+
+    @Bean
+    @ConditionalOnExpression(READ_MODEL_ENABLED)
+    public Consumer<Event<Integer, Review>> reviewReadModelProcessor() {
+        return productReadModel::onReviewEvent;
+    }
+
+    /**
+     * The events are the commands to the core services, they arrive here before or while the core services apply
+     * them. A read in between gets and caches the data from before the change, so the caches are invalidated again
+     * once the core services are expected to have applied the change.
+     */
+    private void invalidate(Event<Integer, ?> event, Runnable invalidation) {
+        LOG.debug("Process {} message for productId: {}", event.getEventType(), event.getKey());
+        invalidation.run();
+        if (!repeatInvalidationAfter.isZero()) {
+            Mono.delay(repeatInvalidationAfter).subscribe(_ -> invalidation.run());
+        }
+    }
+
+    private void invalidateProductAggregate(Event<Integer, ?> event) {
+        // The load in flight first, a request that joined it after the invalidation would cache its result
+        requestCoalescer.invalidate(event.getKey());
+        productAggregateCache.invalidate(event.getKey());
+    }
+}
@@ -0,0 +1,175 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ejects instances of the core services that fail consecutively from the load balancer, see
+ * {@link OutlierEjectingServiceInstanceListSupplier}, until the discovery service catches up with them.
+ * <p>
+ * 5xx responses, errors, e.g. refused connections, and requests cancelled after app.outlierDetection.slowCallMillis,
+ * e.g. by the deadline, count as failures. Any other response resets the count. After
+ * app.outlierDetection.consecutiveFailures failures in a row an instance is ejected for the base ejection time,
+ * doubled for every ejection since it was last healthy, up to the max ejection time. Once the time is up the instance
+ * is readmitted, it is healthy again after a successful request.
+ * <p>
+ * If all instances of a service are ejected, all are used, a guess at a healthy instance beats no instance at all.
+ */
+@Component
+public class OutlierDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutlierDetector.class);
+
+    private final boolean enabled;
+    private final int consecutiveFailures;
+    private final long slowCallNanos;
+    private final Duration baseEjectionTime;
+    private final Duration maxEjectionTime;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, InstanceState> instances = new ConcurrentHashMap<>();
+
+    @Autowired
+    public OutlierDetector(
+            MeterRegistry meterRegistry,
+            @Value("${app.outlierDetection.enabled:true}") boolean enabled,
+            @Value("${app.outlierDetection.consecutiveFailures:5}") int consecutiveFailures,
+            @Value("${app.outlierDetection.slowCallMillis:2000}") long slowCallMillis,
+            @Value("${app.outlierDetection.baseEjectionMillis:10000}") long baseEjectionMillis,
+            @Value("${app.outlierDetection.maxEjectionMillis:300000}") long maxEjectionMillis
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.consecutiveFailures = consecutiveFailures;
+        this.slowCallNanos = Duration.ofMillis(slowCallMillis).toNanos();
+        this.baseEjectionTime = Duration.ofMillis(baseEjectionMillis);
+        this.maxEjectionTime = Duration.ofMillis(maxEjectionMillis);
+    }
+
+    /**
+     * Records the outcome of the requests, it has to run after the load balancer filter, like
+     * {@link ServiceInstanceStats#filter()}.
+     */
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> Mono.defer(() -> {
+            String instance = ServiceInstanceStats.key(request.url());
+            long start = System.nanoTime();
+            AtomicBoolean answered = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnNext(response -> {
+                        answered.set(true);
+                        record(instance, !response.statusCode().is5xxServerError());
+                    })
+                    .doOnError(_ -> record(instance, false))
+                    .doOnCancel(() -> {
+                        if (!answered.get() && System.nanoTime() - start >= slowCallNanos) {
+                            record(instance, false);
+                        }
+                    });
+        });
+    }
+
+    public void recordSuccess(ServiceInstance instance) {
+        record(ServiceInstanceStats.key(instance), true);
+    }
+
+    public void recordFailure(ServiceInstance instance) {
+        record(ServiceInstanceStats.key(instance), false);
+    }
+
+    public boolean isEjected(ServiceInstance instance) {
+        InstanceState state = instances.get(ServiceInstanceStats.key(instance));
+        return enabled && state != null && state.isEjected();
+    }
+
+    /**
+     * Returns the instances that are not ejected, or all instances if all of them are ejected.
+     */
+    public List<ServiceInstance> available(List<ServiceInstance> instances) {
+        List<ServiceInstance> available = instances.stream()
+                .filter(instance -> !isEjected(instance))
+                .toList();
+        return available.isEmpty() ? instances : available;
+    }
+
+    private void record(String instance, boolean success) {
+        if (!enabled) {
+            return;
+        }
+
+        InstanceState state = instances.computeIfAbsent(instance, _ -> new InstanceState());
+        if (success) {
+            state.onSuccess();
+            return;
+        }
+
+        Duration ejectionTime = state.onFailure();
+        if (ejectionTime != null) {
+            LOG.warn("Eject instance {} for {} ms after {} consecutive failures",
+                    instance, ejectionTime.toMillis(), consecutiveFailures);
+            Counter.builder("composite.outlier.ejections")
+                    .tag("instance", instance)
+                    .description("The number of times the instance was ejected from the load balancer")
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private final class InstanceState {
+
+        private int failures;
+        private int ejections;
+        private long ejectedUntilNanos;
+        private boolean ejected;
+
+        synchronized void onSuccess() {
+            failures = 0;
+            if (!isEjected()) {
+                ejections = 0;
+            }
+        }
+
+        /**
+         * Returns the ejection time if the instance is ejected by this failure.
+         */
+        synchronized Duration onFailure() {
+            if (isEjected()) {
+                return null;
+            }
+            if (++failures < consecutiveFailures) {
+                return null;
+            }
+
+            failures = 0;
+            Duration ejectionTime = baseEjectionTime.multipliedBy(1L << Math.min(ejections, 20));
+            if (ejectionTime.compareTo(maxEjectionTime) > 0) {
+                ejectionTime = maxEjectionTime;
+            }
+            ejections++;
+            ejected = true;
+            ejectedUntilNanos = System.nanoTime() + ejectionTime.toNanos();
+            return ejectionTime;
+        }
+
+        synchronized boolean isEjected() {
+            if (ejected && System.nanoTime() - ejectedUntilNanos >= 0) {
+                // Readmitted, the next failures eject it for longer unless it succeeds first
+                ejected = false;
+            }
+            return ejected;
+        }
+    }
+}
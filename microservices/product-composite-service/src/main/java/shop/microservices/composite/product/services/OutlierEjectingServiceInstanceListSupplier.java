@@ -0,0 +1,26 @@
+package shop.microservices.composite.product.services;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * Leaves the instances ejected by the {@link OutlierDetector} out of the candidates of the load balancer.
+ */
+public class OutlierEjectingServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+
+    private final OutlierDetector outlierDetector;
+
+    public OutlierEjectingServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, OutlierDetector outlierDetector) {
+        super(delegate);
+        this.outlierDetector = outlierDetector;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return delegate.get().map(outlierDetector::available);
+    }
+}
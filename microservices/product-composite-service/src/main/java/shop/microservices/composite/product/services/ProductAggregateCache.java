@@ -0,0 +1,131 @@
+package shop.microservices.composite.product.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import shop.api.composite.product.ProductAggregate;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntFunction;
+
+/**
+ * In-process near cache for assembled product aggregates, together with their entity tags.
+ * <p>
+ * Entries are bounded by size and time to live, and are invalidated by the events published on the
+ * products, recommendations and reviews destinations, see {@link MessageProcessorConfig}.
+ */
+@Component
+public class ProductAggregateCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+    private static final String CACHE_NAME = "productAggregates";
+
+    private final boolean enabled;
+    private final Cache<Integer, Tagged<ProductAggregate>> cache;
+    private final Counter invalidations;
+
+    // The products with loads in flight, used to skip caching results of loads that raced with an invalidation of
+    // their product. Only kept while loading, so that it stays bounded by the concurrent loads.
+    private final ConcurrentMap<Integer, Loads> loads = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProductAggregateCache(
+            MeterRegistry meterRegistry,
+            @Value("${app.productAggregateCache.enabled:true}") boolean enabled,
+            @Value("${app.productAggregateCache.maximumSize:10000}") long maximumSize,
+            @Value("${app.productAggregateCache.timeToLiveSeconds:60}") long timeToLiveSeconds
+    ) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(timeToLiveSeconds))
+                .recordStats()
+                .build();
+        this.invalidations = Counter.builder("cache.invalidations")
+                .tag("cache", CACHE_NAME)
+                .description("The number of entries invalidated by product, recommendation and review events")
+                .register(meterRegistry);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public Mono<Tagged<ProductAggregate>> get(int productId, IntFunction<Mono<Tagged<ProductAggregate>>> loader) {
+        if (!enabled) {
+            return loader.apply(productId);
+        }
+
+        return Mono.defer(() -> {
+            Tagged<ProductAggregate> cached = cache.getIfPresent(productId);
+            if (cached != null) {
+                LOG.debug("Found product aggregate for productId: {} in the cache", productId);
+                return Mono.just(cached);
+            }
+
+            Mono<Tagged<ProductAggregate>> load = loader.apply(productId);
+            long generation = loads
+                    .compute(productId, (_, current) -> current == null ? new Loads(0, 1) : current.started())
+                    .generation();
+            return load
+                    .doOnNext(aggregate -> {
+                        // Aggregates with stale parts are not cached, so that the next request tries to get fresh ones
+                        if (aggregate.value().staleParts() == null) {
+                            putIfNotInvalidated(productId, generation, aggregate);
+                        }
+                    })
+                    .doFinally(_ -> loads.computeIfPresent(productId, (_, current) -> current.finished()));
+        });
+    }
+
+    /**
+     * Returns the cached aggregate without loading it on a miss.
+     */
+    public Mono<Tagged<ProductAggregate>> getIfPresent(int productId) {
+        return enabled ? Mono.fromSupplier(() -> cache.getIfPresent(productId)) : Mono.empty();
+    }
+
+    public void invalidate(int productId) {
+        LOG.debug("Invalidate cached product aggregate for productId: {}", productId);
+        loads.computeIfPresent(productId, (_, current) -> current.invalidated());
+        cache.invalidate(productId);
+        invalidations.increment();
+    }
+
+    private void putIfNotInvalidated(int productId, long generation, Tagged<ProductAggregate> aggregate) {
+        // Put while holding the entry, so that an invalidation is either seen here or removes the put afterwards
+        loads.computeIfPresent(productId, (_, current) -> {
+            if (current.generation() == generation) {
+                cache.put(productId, aggregate);
+            }
+            return current;
+        });
+    }
+
+    /**
+     * The loads in flight for a product, and the number of times it was invalidated while they ran.
+     */
+    private record Loads(long generation, int inFlight) {
+
+        Loads started() {
+            return new Loads(generation, inFlight + 1);
+        }
+
+        Loads finished() {
+            return inFlight == 1 ? null : new Loads(generation, inFlight - 1);
+        }
+
+        Loads invalidated() {
+            return new Loads(generation + 1, inFlight);
+        }
+    }
+}
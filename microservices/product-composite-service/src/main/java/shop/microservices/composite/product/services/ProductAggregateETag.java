@@ -0,0 +1,93 @@
+package shop.microservices.composite.product.services;
+
+import shop.util.http.EntityTags;
+
+/**
+ * The weak entity tag of a product aggregate, made of the tags of its product, recommendations and reviews as
+ * returned by the core services, e.g. W/"&lt;product&gt;.&lt;recommendations&gt;.&lt;reviews&gt;". A part that is
+ * not included is "-".
+ * <p>
+ * The ratings have no part of their own, they are covered by the tags of the reviews they are summarized from, and
+ * of the top recommendations, whose tag covers the ratings of all recommendations. Aggregates without the
+ * recommendations or reviews of their ratings have no tag, see {@link ProductAggregateParts#hasUntaggedRatings()}.
+ * <p>
+ * The tags of the core services are joined instead of hashed into one, so that a conditional request for an
+ * aggregate can be forwarded to each core service with the tag of its own part.
+ */
+record ProductAggregateETag(String product, String recommendations, String reviews) {
+
+    private static final String EXCLUDED = "-";
+
+    /**
+     * Returns the tag of an aggregate, or null if a core service did not return a tag for an included part.
+     */
+    static String of(ProductAggregateParts parts, String productTag, String recommendationsTag, String reviewsTag) {
+        if (parts.hasUntaggedRatings()) {
+            return null;
+        }
+        String product = EntityTags.value(productTag);
+        String recommendations = parts.recommendations() ? EntityTags.value(recommendationsTag) : EXCLUDED;
+        String reviews = parts.reviews() ? EntityTags.value(reviewsTag) : EXCLUDED;
+        if (product == null || recommendations == null || reviews == null) {
+            return null;
+        }
+        return new ProductAggregateETag(product, recommendations, reviews).toString();
+    }
+
+    /**
+     * Returns the tag of a complete aggregate narrowed down to the given parts, or null if it has no tag.
+     */
+    static String withParts(String eTag, ProductAggregateParts parts) {
+        ProductAggregateETag tag = parse(eTag, ProductAggregateParts.ALL);
+        if (tag == null || parts.hasUntaggedRatings()) {
+            return null;
+        }
+        return new ProductAggregateETag(
+                tag.product(),
+                parts.recommendations() ? tag.recommendations() : EXCLUDED,
+                parts.reviews() ? tag.reviews() : EXCLUDED).toString();
+    }
+
+    /**
+     * Parses the If-None-Match header of a request for the given parts. Returns null if it is not a single tag
+     * of an aggregate with exactly these parts, e.g. a list of tags or "*", or if the parts have no tag.
+     */
+    static ProductAggregateETag parse(String ifNoneMatch, ProductAggregateParts parts) {
+        if (parts.hasUntaggedRatings()) {
+            return null;
+        }
+
+        String value = EntityTags.value(ifNoneMatch == null ? null : ifNoneMatch.trim());
+        if (value == null) {
+            return null;
+        }
+
+        String[] values = value.split("\\.", -1);
+        if (values.length != 3 || values[0].isEmpty() || values[0].equals(EXCLUDED)
+                || !isPart(values[1], parts.recommendations()) || !isPart(values[2], parts.reviews())) {
+            return null;
+        }
+        return new ProductAggregateETag(values[0], values[1], values[2]);
+    }
+
+    private static boolean isPart(String value, boolean included) {
+        return !value.isEmpty() && value.equals(EXCLUDED) != included;
+    }
+
+    String productTag() {
+        return EntityTags.weak(product);
+    }
+
+    String recommendationsTag() {
+        return EntityTags.weak(recommendations);
+    }
+
+    String reviewsTag() {
+        return EntityTags.weak(reviews);
+    }
+
+    @Override
+    public String toString() {
+        return EntityTags.weak(product + "." + recommendations + "." + reviews);
+    }
+}
@@ -0,0 +1,46 @@
+package shop.microservices.composite.product.services;
+
+import shop.api.exceptions.InvalidInputException;
+
+import java.util.Set;
+
+/**
+ * The optional parts of a product aggregate that a caller asked for with the include parameter.
+ * <p>
+ * The product itself is always included, recommendations, reviews and ratings only when asked for, or when the
+ * include parameter is left out altogether.
+ */
+record ProductAggregateParts(boolean recommendations, boolean reviews, boolean ratings) {
+
+    static final String RECOMMENDATIONS = "recommendations";
+    static final String REVIEWS = "reviews";
+    static final String RATINGS = "ratings";
+
+    static final ProductAggregateParts ALL = new ProductAggregateParts(true, true, true);
+
+    static ProductAggregateParts from(Set<String> include) {
+        if (include == null) {
+            return ALL;
+        }
+
+        for (String part : include) {
+            if (!RECOMMENDATIONS.equals(part) && !REVIEWS.equals(part) && !RATINGS.equals(part)) {
+                throw new InvalidInputException("Invalid include: " + part + ", must be " + RECOMMENDATIONS + ", " + REVIEWS
+                        + " or " + RATINGS);
+            }
+        }
+        return new ProductAggregateParts(include.contains(RECOMMENDATIONS), include.contains(REVIEWS), include.contains(RATINGS));
+    }
+
+    boolean isAll() {
+        return recommendations && reviews && ratings;
+    }
+
+    /**
+     * The ratings are covered by the tags of the recommendations and reviews if they are included, see
+     * {@link ProductAggregateETag}. Otherwise they are looked up in the core services, without a tag.
+     */
+    boolean hasUntaggedRatings() {
+        return ratings && !(recommendations && reviews);
+    }
+}
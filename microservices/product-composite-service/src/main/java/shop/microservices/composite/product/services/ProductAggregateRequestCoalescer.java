@@ -0,0 +1,102 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import shop.api.composite.product.ProductAggregate;
+import shop.util.http.Deadline;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Single-flight coalescing of product aggregate loads.
+ * <p>
+ * Concurrent requests for a productId that arrive while a load for the same productId is in flight
+ * subscribe to the in-flight load instead of starting their own. Nothing is kept once the load terminates, so a
+ * request gets a result that was fetched at most one load earlier than it arrived. A load in flight is evicted when
+ * its productId is invalidated, see {@link #invalidate(int)}, so that the requests arriving after a change start a
+ * load of their own instead of joining one that may have read the data from before it.
+ * <p>
+ * The shared load does not run under the {@link Deadline} of the request that started it, one caller with a short
+ * deadline would fail all the others. It gets the service's default timeout instead, and every caller enforces its
+ * own deadline on top, see {@link Deadline#enforce(Mono)}.
+ */
+@Component
+public class ProductAggregateRequestCoalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateRequestCoalescer.class);
+
+    private final boolean enabled;
+    private final Duration loadTimeout;
+    private final Map<Integer, Mono<Tagged<ProductAggregate>>> inFlightRequests = new ConcurrentHashMap<>();
+    private final Counter coalescedRequests;
+
+    @Autowired
+    public ProductAggregateRequestCoalescer(
+            MeterRegistry meterRegistry,
+            @Value("${app.requestCoalescing.enabled:true}") boolean enabled,
+            @Value("${app.deadline.defaultTimeoutMillis:0}") long loadTimeoutMillis
+    ) {
+        this.enabled = enabled;
+        this.loadTimeout = Duration.ofMillis(loadTimeoutMillis);
+        this.coalescedRequests = Counter.builder("composite.requests.coalesced")
+                .description("The number of product aggregate requests served by an already in-flight load")
+                .register(meterRegistry);
+
+        Gauge.builder("composite.requests.inflight", inFlightRequests, Map::size)
+                .description("The number of product aggregate loads currently in flight")
+                .register(meterRegistry);
+    }
+
+    public Mono<Tagged<ProductAggregate>> coalesce(int productId, IntFunction<Mono<Tagged<ProductAggregate>>> loader) {
+        if (!enabled) {
+            return Mono.defer(() -> loader.apply(productId));
+        }
+
+        return Mono.defer(() -> {
+            Mono<Tagged<ProductAggregate>> inFlight = inFlightRequests.get(productId);
+            if (inFlight == null) {
+                Mono<Tagged<ProductAggregate>> request = createRequest(productId, loader);
+                inFlight = inFlightRequests.putIfAbsent(productId, request);
+                if (inFlight == null) {
+                    return request;
+                }
+            }
+
+            LOG.debug("Join in-flight request for productId: {}", productId);
+            coalescedRequests.increment();
+            return inFlight;
+        });
+    }
+
+    /**
+     * Evicts the load in flight for the productId, the requests that joined it still get its result.
+     */
+    public void invalidate(int productId) {
+        if (inFlightRequests.remove(productId) != null) {
+            LOG.debug("Evict in-flight request for productId: {}", productId);
+        }
+    }
+
+    private Mono<Tagged<ProductAggregate>> createRequest(int productId, IntFunction<Mono<Tagged<ProductAggregate>>> loader) {
+        AtomicReference<Mono<Tagged<ProductAggregate>>> self = new AtomicReference<>();
+        Mono<Tagged<ProductAggregate>> request = Mono.defer(() -> loader.apply(productId))
+                .doFinally(_ -> inFlightRequests.remove(productId, self.get()))
+                .contextWrite(context -> loadTimeout.isZero()
+                        ? context.delete(Deadline.class)
+                        : context.put(Deadline.class, Deadline.after(loadTimeout)))
+                .share();
+        self.set(request);
+        return request;
+    }
+}
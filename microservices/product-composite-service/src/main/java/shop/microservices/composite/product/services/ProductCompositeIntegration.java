@@ -1,36 +1,57 @@
 package shop.microservices.composite.product.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 import shop.api.core.product.Product;
+import shop.api.core.product.ProductPage;
 import shop.api.core.product.ProductService;
+import shop.api.core.rating.RatingSummary;
 import shop.api.core.recommendation.Recommendation;
 import shop.api.core.recommendation.RecommendationService;
 import shop.api.core.review.Review;
 import shop.api.core.review.ReviewService;
 import shop.api.event.Event;
+import shop.api.exceptions.DeadlineExceededException;
 import shop.api.exceptions.InvalidInputException;
 import shop.api.exceptions.NotFoundException;
+import shop.util.http.Deadline;
 import shop.util.http.HttpErrorInfo;
 
-import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static java.util.logging.Level.FINE;
-import static reactor.core.publisher.Flux.empty;
+import static shop.microservices.composite.product.services.ConsistentHashLoadBalancer.ROUTING_KEY_ATTRIBUTE;
 import static shop.api.event.Event.Type.CREATE;
 import static shop.api.event.Event.Type.DELETE;
 
@@ -44,22 +65,51 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     private static final String RECOMMENDATION_SERVICE_URL = "http://recommendation";
     private static final String REVIEW_SERVICE_URL = "http://review";
 
+    private static final String PRODUCT_SERVICE_ID = "product";
+    private static final String RECOMMENDATION_SERVICE_ID = "recommendation";
+    private static final String REVIEW_SERVICE_ID = "review";
+
     private final Scheduler publishEventScheduler;
-    private final WebClient webClient;
-    private final ObjectMapper mapper;
+    private final WebClient productWebClient;
+    private final WebClient recommendationWebClient;
+    private final WebClient reviewWebClient;
     private final StreamBridge streamBridge;
+    private final HedgingProductClient hedgingProductClient;
+    private final InternalWireFormat wireFormat;
+    private final ReactiveDiscoveryClient discoveryClient;
+    private final ServiceHttpConnectors connectors;
+    private final OutlierDetector outlierDetector;
+    private final Duration healthTimeout;
+    private final Map<String, WebClient> healthWebClients = new ConcurrentHashMap<>();
 
     @Autowired
     public ProductCompositeIntegration(
             @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
             WebClient.Builder webClientBuilder,
-            ObjectMapper mapper,
-            StreamBridge streamBridge
+            StreamBridge streamBridge,
+            HedgingProductClient hedgingProductClient,
+            ServiceHttpConnectors connectors,
+            InternalWireFormat wireFormat,
+            ServiceInstanceStats serviceInstanceStats,
+            OutlierDetector outlierDetector,
+            ReactiveDiscoveryClient discoveryClient,
+            @Value("${app.outlierDetection.healthTimeoutMillis:2000}") long healthTimeoutMillis
     ) {
-        this.webClient = webClientBuilder.build();
+        // The filters are added after the load balancer filter, so that they see the chosen instance
+        WebClient.Builder builder = webClientBuilder.clone()
+                .filter(serviceInstanceStats.filter())
+                .filter(outlierDetector.filter());
+        this.productWebClient = builder.clone().clientConnector(connectors.forService(PRODUCT_SERVICE_ID)).build();
+        this.recommendationWebClient = builder.clone().clientConnector(connectors.forService(RECOMMENDATION_SERVICE_ID)).build();
+        this.reviewWebClient = builder.clone().clientConnector(connectors.forService(REVIEW_SERVICE_ID)).build();
+        this.discoveryClient = discoveryClient;
+        this.connectors = connectors;
+        this.outlierDetector = outlierDetector;
+        this.healthTimeout = Duration.ofMillis(healthTimeoutMillis);
         this.publishEventScheduler = publishEventScheduler;
-        this.mapper = mapper;
         this.streamBridge = streamBridge;
+        this.hedgingProductClient = hedgingProductClient;
+        this.wireFormat = wireFormat;
     }
 
     @Override
@@ -71,14 +121,29 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     }
 
     @Override
-    public Mono<Product> getProduct(int productId) {
+    public Mono<ResponseEntity<Product>> getProduct(int productId) {
+        return getProduct(productId, null);
+    }
+
+    /**
+     * Conditional variant of getProduct, answered with 304 Not Modified and no body if the product still has the
+     * entity tag given as ifNoneMatch. The tag is left out if it is null.
+     */
+    public Mono<ResponseEntity<Product>> getProduct(int productId, String ifNoneMatch) {
         String url = PRODUCT_SERVICE_URL + "/product/" + productId;
         LOG.debug("Will call the getProduct API on URL: {}", url);
 
-        return webClient.get()
+        Mono<ResponseEntity<Product>> product = hedgingProductClient.isEnabled()
+                ? hedgingProductClient.getProduct(productId, ifNoneMatch)
+                : productWebClient.get()
                 .uri(url)
+                .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                .accept(wireFormat.forValues())
+                .headers(headers -> setIfNoneMatch(headers, ifNoneMatch))
                 .retrieve()
-                .bodyToMono(Product.class)
+                .toEntity(Product.class);
+
+        return Deadline.enforce(product)
                 .log(LOG.getName(), FINE)
                 .onErrorMap(WebClientResponseException.class, this::handleException);
     }
@@ -87,10 +152,34 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     public Flux<Product> getAllProducts() {
         String url = PRODUCT_SERVICE_URL + "/product";
 
-        return webClient.get()
-                .uri(url)
-                .retrieve()
-                .bodyToFlux(Product.class)
+        // Stream the products as newline delimited JSON, so that demand propagates back to the product-service.
+        // The request's deadline applies to each product, not to the whole stream.
+        return Deadline.enforceIdle(productWebClient.get()
+                        .uri(url)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .retrieve()
+                        .bodyToFlux(Product.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<ProductPage> getProductPage(int limit, String pageToken, Integer minWeight, Integer maxWeight,
+                                            String namePrefix, String sort) {
+        URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL + "/product")
+                .queryParam("limit", limit)
+                .queryParamIfPresent("pageToken", Optional.ofNullable(pageToken))
+                .queryParamIfPresent("minWeight", Optional.ofNullable(minWeight))
+                .queryParamIfPresent("maxWeight", Optional.ofNullable(maxWeight))
+                .queryParamIfPresent("namePrefix", Optional.ofNullable(namePrefix))
+                .queryParam("sort", sort)
+                .encode()
+                .build()
+                .toUri();
+
+        LOG.debug("Will call the getProductPage API on URL: {}", url);
+
+        return Deadline.enforce(productWebClient.get().uri(url).accept(wireFormat.forValues()).retrieve().bodyToMono(ProductPage.class))
                 .log(LOG.getName(), FINE)
                 .onErrorMap(WebClientResponseException.class, this::handleException);
     }
@@ -110,18 +199,121 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     }
 
     @Override
-    public Flux<Recommendation> getRecommendations(int productId) {
+    public Mono<ResponseEntity<List<Recommendation>>> getRecommendations(int productId) {
+        return getRecommendations(productId, null);
+    }
+
+    /**
+     * Conditional variant of getRecommendations, see getProduct.
+     */
+    public Mono<ResponseEntity<List<Recommendation>>> getRecommendations(int productId, String ifNoneMatch) {
         String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productId=" + productId;
 
         LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
-        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-        return webClient.get()
-                .uri(url)
-                .retrieve()
-                .bodyToFlux(Recommendation.class)
+        // Errors are passed on, the composite service falls back to the last known good recommendations
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(wireFormat.forStreams())
+                        .headers(headers -> setIfNoneMatch(headers, ifNoneMatch))
+                        .retrieve()
+                        .toEntityList(Recommendation.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<Recommendation>>> getTopRecommendations(int productId, int top, String sort) {
+        return getTopRecommendations(productId, top, sort, null);
+    }
+
+    /**
+     * Conditional variant of getTopRecommendations, see getProduct.
+     */
+    public Mono<ResponseEntity<List<Recommendation>>> getTopRecommendations(int productId, int top, String sort, String ifNoneMatch) {
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation?productId=" + productId + "&top=" + top + "&sort=" + sort;
+
+        LOG.debug("Will call the getTopRecommendations API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good recommendations
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(wireFormat.forStreams())
+                        .headers(headers -> setIfNoneMatch(headers, ifNoneMatch))
+                        .retrieve()
+                        .toEntityList(Recommendation.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Recommendation>>> getRecommendationsByProductIds(Set<Integer> productIds) {
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation/bulk?productIds=" + joinProductIds(productIds);
+
+        LOG.debug("Will call the getRecommendationsByProductIds API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good recommendations
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(new ParameterizedTypeReference<Map<Integer, List<Recommendation>>>() {
+                        }))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Recommendation>>> getTopRecommendationsByProductIds(Set<Integer> productIds, int top, String sort) {
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation/bulk?productIds=" + joinProductIds(productIds) + "&top=" + top + "&sort=" + sort;
+
+        LOG.debug("Will call the getTopRecommendationsByProductIds API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good recommendations
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(new ParameterizedTypeReference<Map<Integer, List<Recommendation>>>() {
+                        }))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<RatingSummary> getRecommendationRatings(int productId) {
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation/rating?productId=" + productId;
+
+        LOG.debug("Will call the getRecommendationRatings API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good ratings
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(RatingSummary.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> getRecommendationRatingsByProductIds(Set<Integer> productIds) {
+        String url = RECOMMENDATION_SERVICE_URL + "/recommendation/rating/bulk?productIds=" + joinProductIds(productIds);
+
+        LOG.debug("Will call the getRecommendationRatingsByProductIds API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good ratings
+        return Deadline.enforce(recommendationWebClient.get()
+                        .uri(url)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(new ParameterizedTypeReference<Map<Integer, RatingSummary>>() {
+                        }))
                 .log(LOG.getName(), FINE)
-                .onErrorResume(_ -> empty());
+                .onErrorMap(WebClientResponseException.class, this::handleException);
     }
 
     @Override
@@ -139,18 +331,96 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     }
 
     @Override
-    public Flux<Review> getReviews(int productId) {
+    public Mono<ResponseEntity<List<Review>>> getReviews(int productId) {
+        return getReviews(productId, null);
+    }
+
+    /**
+     * Conditional variant of getReviews, see getProduct.
+     */
+    public Mono<ResponseEntity<List<Review>>> getReviews(int productId, String ifNoneMatch) {
         String url = REVIEW_SERVICE_URL + "/review?productId=" + productId;
 
         LOG.debug("Will call the getReviews API on URL: {}", url);
 
-        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-        return webClient.get()
-                .uri(url)
-                .retrieve()
-                .bodyToFlux(Review.class)
+        // Errors are passed on, the composite service falls back to the last known good reviews
+        return Deadline.enforce(reviewWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(wireFormat.forStreams())
+                        .headers(headers -> setIfNoneMatch(headers, ifNoneMatch))
+                        .retrieve()
+                        .toEntityList(Review.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    /**
+     * The reviews of a product as the raw JSON array returned by the review service.
+     */
+    public Flux<DataBuffer> getReviewsAsJson(int productId) {
+        String url = REVIEW_SERVICE_URL + "/review?productId=" + productId;
+
+        LOG.debug("Will call the getReviews API as JSON on URL: {}", url);
+
+        return Deadline.enforce(reviewWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .retrieve()
+                        .bodyToFlux(DataBuffer.class))
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Review>>> getReviewsByProductIds(Set<Integer> productIds) {
+        String url = REVIEW_SERVICE_URL + "/review/bulk?productIds=" + joinProductIds(productIds);
+
+        LOG.debug("Will call the getReviewsByProductIds API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good reviews
+        return Deadline.enforce(reviewWebClient.get()
+                        .uri(url)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(new ParameterizedTypeReference<Map<Integer, List<Review>>>() {
+                        }))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<RatingSummary> getReviewRatings(int productId) {
+        String url = REVIEW_SERVICE_URL + "/review/rating?productId=" + productId;
+
+        LOG.debug("Will call the getReviewRatings API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good ratings
+        return Deadline.enforce(reviewWebClient.get()
+                        .uri(url)
+                        .attribute(ROUTING_KEY_ATTRIBUTE, productId)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(RatingSummary.class))
+                .log(LOG.getName(), FINE)
+                .onErrorMap(WebClientResponseException.class, this::handleException);
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> getReviewRatingsByProductIds(Set<Integer> productIds) {
+        String url = REVIEW_SERVICE_URL + "/review/rating/bulk?productIds=" + joinProductIds(productIds);
+
+        LOG.debug("Will call the getReviewRatingsByProductIds API on URL: {}", url);
+
+        // Errors are passed on, the composite service falls back to the last known good ratings
+        return Deadline.enforce(reviewWebClient.get()
+                        .uri(url)
+                        .accept(wireFormat.forValues())
+                        .retrieve()
+                        .bodyToMono(new ParameterizedTypeReference<Map<Integer, RatingSummary>>() {
+                        }))
                 .log(LOG.getName(), FINE)
-                .onErrorResume(_ -> empty());
+                .onErrorMap(WebClientResponseException.class, this::handleException);
     }
 
     @Override
@@ -160,26 +430,70 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     }
 
     public Mono<Health> getProductHealth() {
-        return getHealth(PRODUCT_SERVICE_URL);
+        return getHealth(PRODUCT_SERVICE_ID);
     }
 
     public Mono<Health> getRecommendationHealth() {
-        return getHealth(RECOMMENDATION_SERVICE_URL);
+        return getHealth(RECOMMENDATION_SERVICE_ID);
     }
 
     public Mono<Health> getReviewHealth() {
-        return getHealth(REVIEW_SERVICE_URL);
+        return getHealth(REVIEW_SERVICE_ID);
+    }
+
+    /**
+     * Probes the health of every instance of the service, not just the one the load balancer would pick. The
+     * probes are recorded by the outlier detector. The service is up if any of its instances is.
+     */
+    private Mono<Health> getHealth(String serviceId) {
+        return discoveryClient.getInstances(serviceId)
+                .flatMap(instance -> getHealth(serviceId, instance)
+                        .map(health -> Map.entry(ServiceInstanceStats.key(instance), health)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, TreeMap::new)
+                .map(instances -> {
+                    boolean up = instances.values().stream().anyMatch(health -> Status.UP.equals(health.getStatus()));
+                    return (up ? Health.up() : Health.down())
+                            .withDetail("instances", instances)
+                            .build();
+                })
+                .onErrorResume(ex -> Mono.just(Health.down(ex).build()));
     }
 
-    private Mono<Health> getHealth(String url) {
-        url += "/actuator/health";
+    private Mono<Health> getHealth(String serviceId, ServiceInstance instance) {
+        String url = instance.getUri() + "/actuator/health";
         LOG.debug("Will call the Health API on URL: {}", url);
-        return webClient.get().uri(url).retrieve().bodyToMono(String.class)
-                .map(_ -> new Health.Builder().up().build())
-                .onErrorResume(ex -> Mono.just(new Health.Builder().down(ex).build()))
+        return healthWebClients.computeIfAbsent(serviceId, this::createHealthWebClient).get()
+                .uri(url)
+                .retrieve()
+                .toBodilessEntity()
+                .timeout(healthTimeout)
+                .doOnNext(_ -> outlierDetector.recordSuccess(instance))
+                .doOnError(_ -> outlierDetector.recordFailure(instance))
+                .map(_ -> Health.up())
+                .onErrorResume(ex -> Mono.just(Health.down(ex)))
+                .map(health -> health.withDetail("ejected", outlierDetector.isEjected(instance)).build())
                 .log(LOG.getName(), FINE);
     }
 
+    /**
+     * Not load balanced, the instances are probed explicitly. Shares the connection pool of the service.
+     */
+    private WebClient createHealthWebClient(String serviceId) {
+        return WebClient.builder().clientConnector(connectors.forService(serviceId)).build();
+    }
+
+    static void setIfNoneMatch(HttpHeaders headers, String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            headers.setIfNoneMatch(ifNoneMatch);
+        }
+    }
+
+    private static String joinProductIds(Set<Integer> productIds) {
+        return productIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+    }
+
     @SuppressWarnings("rawtypes")
     private void sendMessage(String bindingName, Event event) {
         LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
@@ -200,6 +514,8 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
                 return new NotFoundException(getErrorMessage(responseException));
             case UNPROCESSABLE_ENTITY:
                 return new InvalidInputException(getErrorMessage(responseException));
+            case GATEWAY_TIMEOUT:
+                return new DeadlineExceededException(getErrorMessage(responseException));
             case null:
             default:
                 LOG.warn("Got an unexpected HTTP error: {}, will rethrow it", responseException.getStatusCode());
@@ -209,9 +525,11 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     }
 
     private String getErrorMessage(WebClientResponseException ex) {
+        // Decoded with the codecs of the WebClient, the error may be encoded in a binary format
         try {
-            return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
-        } catch (IOException ignored) {
+            HttpErrorInfo errorInfo = ex.getResponseBodyAs(HttpErrorInfo.class);
+            return errorInfo != null ? errorInfo.getMessage() : ex.getMessage();
+        } catch (RuntimeException ignored) {
             return ex.getMessage();
         }
     }
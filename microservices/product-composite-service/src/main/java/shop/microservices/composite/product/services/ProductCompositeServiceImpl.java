@@ -1,20 +1,39 @@
 package shop.microservices.composite.product.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import shop.api.composite.product.*;
 import shop.api.core.product.Product;
+import shop.api.core.rating.RatingSummary;
 import shop.api.core.recommendation.Recommendation;
 import shop.api.core.review.Review;
+import shop.util.http.Deadline;
 import shop.util.http.ServiceUtil;
 
+import shop.microservices.composite.product.services.LastKnownGoodCache.Result;
+
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import static java.util.logging.Level.FINE;
@@ -24,16 +43,44 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeServiceImpl.class);
 
+    // The fields of a Review that are not part of a ReviewSummary
+    private static final JsonFieldFilter REVIEW_SUMMARY_FILTER = new JsonFieldFilter(Set.of("productId", "date", "serviceAddress"));
+
+    private static final DataBufferFactory BUFFER_FACTORY = DefaultDataBufferFactory.sharedInstance;
+
+    private static final String BY_RATING = "rating";
+
     private final ServiceUtil serviceUtil;
     private final ProductCompositeIntegration integration;
+    private final ProductAggregateCache productAggregateCache;
+    private final ProductAggregateRequestCoalescer requestCoalescer;
+    private final LastKnownGoodStore lastKnownGoodStore;
+    private final ProductReadModel productReadModel;
+    private final ObjectMapper mapper;
+    private final int bulkChunkSize;
+    private final int recommendationsTop;
 
     @Autowired
     public ProductCompositeServiceImpl(
             ServiceUtil serviceUtil,
-            ProductCompositeIntegration integration
+            ProductCompositeIntegration integration,
+            ProductAggregateCache productAggregateCache,
+            ProductAggregateRequestCoalescer requestCoalescer,
+            LastKnownGoodStore lastKnownGoodStore,
+            ProductReadModel productReadModel,
+            ObjectMapper mapper,
+            @Value("${app.bulkChunkSize:100}") int bulkChunkSize,
+            @Value("${app.recommendations.top:10}") int recommendationsTop
     ) {
         this.serviceUtil = serviceUtil;
         this.integration = integration;
+        this.productAggregateCache = productAggregateCache;
+        this.requestCoalescer = requestCoalescer;
+        this.lastKnownGoodStore = lastKnownGoodStore;
+        this.productReadModel = productReadModel;
+        this.mapper = mapper;
+        this.bulkChunkSize = bulkChunkSize;
+        this.recommendationsTop = recommendationsTop;
     }
 
     private static void logProductCreateError(String msg) {
@@ -78,43 +125,298 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     }
 
     @Override
-    public Mono<ProductAggregate> getProduct(int productId) {
+    public Mono<ResponseEntity<ProductAggregate>> getProduct(int productId, Set<String> include, String ifNoneMatch) {
         LOG.info("Will get composite product info for product.id={}", productId);
+        ProductAggregateParts parts = ProductAggregateParts.from(include);
+
+        // Responses with a tag that matches the If-None-Match header are turned into 304 Not Modified by Spring
+        ProductAggregateETag requested = ProductAggregateETag.parse(ifNoneMatch, parts);
+        if (requested != null) {
+            return Deadline.enforce(getProductIfModified(productId, parts, requested));
+        }
+
+        return Deadline.enforce(getProductAggregate(productId, parts).map(ProductCompositeServiceImpl::toResponse));
+    }
+
+    private Mono<Tagged<ProductAggregate>> getProductAggregate(int productId, ProductAggregateParts parts) {
+        if (productReadModel.isServing()) {
+            // One local lookup, products that are not projected yet are assembled from the core services. The events
+            // carry no versions, so the read model's aggregates have no tag.
+            return productReadModel.get(productId)
+                    .map(aggregate -> withParts(Tagged.untagged(aggregate), parts))
+                    .switchIfEmpty(Mono.defer(() -> getAssembledProduct(productId, parts)));
+        }
+
+        return getAssembledProduct(productId, parts);
+    }
+
+    /**
+     * Unless the aggregate is in the cache, asks the core services if their parts changed since the tag the caller
+     * has, and only assembles the aggregate if one of them did.
+     */
+    private Mono<ResponseEntity<ProductAggregate>> getProductIfModified(int productId, ProductAggregateParts parts,
+                                                                        ProductAggregateETag requested) {
+        return productAggregateCache.getIfPresent(productId)
+                .map(aggregate -> toResponse(withParts(aggregate, parts)))
+                .switchIfEmpty(Mono.defer(() -> Mono.zip(
+                                isNotModified(integration.getProduct(productId, requested.productTag())),
+                                parts.recommendations()
+                                        ? isNotModified(integration.getTopRecommendations(
+                                        productId, recommendationsTop, BY_RATING, requested.recommendationsTag()))
+                                        : Mono.just(true),
+                                parts.reviews()
+                                        ? isNotModified(integration.getReviews(productId, requested.reviewsTag()))
+                                        : Mono.just(true))
+                        .flatMap(notModified -> notModified.getT1() && notModified.getT2() && notModified.getT3()
+                                ? Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(requested.toString()).<ProductAggregate>build())
+                                : getProductAggregate(productId, parts).map(ProductCompositeServiceImpl::toResponse))));
+    }
+
+    /**
+     * Errors are left to the unconditional request that follows, e.g. to fall back to the last known good values.
+     */
+    private static Mono<Boolean> isNotModified(Mono<? extends ResponseEntity<?>> response) {
+        return response
+                .map(entity -> entity.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED))
+                .onErrorReturn(false);
+    }
+
+    private static ResponseEntity<ProductAggregate> toResponse(Tagged<ProductAggregate> aggregate) {
+        return aggregate.eTag() == null
+                ? ResponseEntity.ok(aggregate.value())
+                : ResponseEntity.ok().eTag(aggregate.eTag()).body(aggregate.value());
+    }
+
+    private Mono<Tagged<ProductAggregate>> getAssembledProduct(int productId, ProductAggregateParts parts) {
+        if (parts.isAll()) {
+            return productAggregateCache.get(productId,
+                    id -> requestCoalescer.coalesce(id, i -> assembleProductAggregate(i, parts)));
+        }
+
+        // Only complete aggregates are cached, partial ones are served from the cache but never put into it
+        return productAggregateCache.getIfPresent(productId)
+                .map(aggregate -> withParts(aggregate, parts))
+                .switchIfEmpty(Mono.defer(() -> assembleProductAggregate(productId, parts)));
+    }
+
+    private Mono<Tagged<ProductAggregate>> assembleProductAggregate(int productId, ProductAggregateParts parts) {
+        // Only the top rated recommendations, subscribed to again if their ratings are looked up after them
+        Mono<Result<Tagged<List<Recommendation>>>> topRecommendations = parts.recommendations()
+                ? lastKnownGoodStore.recommendations().get(productId,
+                id -> integration.getTopRecommendations(id, recommendationsTop, BY_RATING).map(Tagged::of)).cache()
+                : Mono.just(Result.fresh(Tagged.untagged(List.<Recommendation>of())));
+
         return Mono.zip(
                         values -> {
                             //noinspection unchecked
-                            return createProductAggregate(
-                                    (Product) values[0],
-                                    (List<Recommendation>) values[1],
-                                    (List<Review>) values[2],
+                            ResponseEntity<Product> product = (ResponseEntity<Product>) values[0];
+                            //noinspection unchecked
+                            Result<Tagged<List<Recommendation>>> recommendations =
+                                    parts.recommendations() ? (Result<Tagged<List<Recommendation>>>) values[1] : null;
+                            //noinspection unchecked
+                            Result<Tagged<List<Review>>> reviews =
+                                    parts.reviews() ? (Result<Tagged<List<Review>>>) values[2] : null;
+                            //noinspection unchecked
+                            Result<RatingSummary> recommendationRatings =
+                                    ((Optional<Result<RatingSummary>>) values[3]).orElse(null);
+                            //noinspection unchecked
+                            Result<RatingSummary> reviewRatings =
+                                    lookUpReviewRatings(parts) ? (Result<RatingSummary>) values[4] : null;
+
+                            ProductAggregate aggregate = createProductAggregate(
+                                    product.getBody(),
+                                    parts,
+                                    untagged(recommendations),
+                                    untagged(reviews),
+                                    recommendationRatings,
+                                    reviewRatings,
                                     serviceUtil.getServiceAddress());
+
+                            // The versions of parts served from the last known good values are not known
+                            if (aggregate.staleParts() != null) {
+                                return Tagged.untagged(aggregate);
+                            }
+                            return new Tagged<>(aggregate, ProductAggregateETag.of(
+                                    parts,
+                                    product.getHeaders().getETag(),
+                                    recommendations == null ? null : recommendations.value().eTag(),
+                                    reviews == null ? null : reviews.value().eTag()));
                         },
                         integration.getProduct(productId),
-                        integration.getRecommendations(productId).collectList(),
-                        integration.getReviews(productId).collectList())
+                        topRecommendations,
+                        parts.reviews()
+                                ? lastKnownGoodStore.reviews().get(productId,
+                                id -> integration.getReviews(id).map(Tagged::of))
+                                : Mono.just(Result.fresh(Tagged.untagged(List.of()))),
+                        lookUpRecommendationRatings(productId, parts, topRecommendations),
+                        lookUpReviewRatings(parts)
+                                ? lastKnownGoodStore.reviewRatings().get(productId, integration::getReviewRatings)
+                                : Mono.just(Result.fresh(RatingSummary.empty())))
                 .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
                 .log(LOG.getName(), FINE);
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * The ratings of the recommendations are looked up if the recommendations are not fetched, or if they may be cut
+     * off at the top. Then they are looked up after the recommendations, so that they are not older than the tag of
+     * the top recommendations, which covers the ratings of all recommendations.
+     */
+    private Mono<Optional<Result<RatingSummary>>> lookUpRecommendationRatings(
+            int productId, ProductAggregateParts parts, Mono<Result<Tagged<List<Recommendation>>>> recommendations) {
+        if (!parts.ratings()) {
+            return Mono.just(Optional.empty());
+        }
+
+        Mono<Optional<Result<RatingSummary>>> lookUp = lastKnownGoodStore.recommendationRatings()
+                .get(productId, integration::getRecommendationRatings)
+                .map(Optional::of);
+        return parts.recommendations()
+                ? recommendations.flatMap(result -> isCutOff(result.value().value()) ? lookUp : Mono.just(Optional.empty()))
+                : lookUp;
+    }
+
+    private boolean isCutOff(List<Recommendation> recommendations) {
+        return recommendations.size() >= recommendationsTop;
+    }
+
+    /**
+     * The ratings of the reviews are only looked up if the reviews they are summarized from are not fetched anyway.
+     */
+    private static boolean lookUpReviewRatings(ProductAggregateParts parts) {
+        return parts.ratings() && !parts.reviews();
+    }
+
+    private static <T> Result<T> untagged(Result<Tagged<T>> result) {
+        return result == null ? null : new Result<>(result.value().value(), result.stale());
+    }
+
+    private static Tagged<ProductAggregate> withParts(Tagged<ProductAggregate> tagged, ProductAggregateParts parts) {
+        ProductAggregate aggregate = tagged.value();
+        return new Tagged<>(new ProductAggregate(
+                aggregate.productId(),
+                aggregate.name(),
+                aggregate.weight(),
+                parts.recommendations() ? aggregate.recommendations() : null,
+                parts.reviews() ? aggregate.reviews() : null,
+                parts.ratings() ? aggregate.ratings() : null,
+                aggregate.serviceAddresses(),
+                aggregate.staleParts()),
+                ProductAggregateETag.withParts(tagged.eTag(), parts));
+    }
+
+    @Override
+    public Flux<ProductAggregate> getAllProducts(Set<String> include) {
+        ProductAggregateParts parts = ProductAggregateParts.from(include);
+
+        // Fetch recommendations and reviews for a whole chunk of products with one bulk call per core service,
+        // instead of two calls per product. Only one chunk is requested at a time to keep memory usage flat
+        // when the aggregates are streamed. The listing is not bound by the request's deadline as a whole, every chunk
+        // gets the request's budget for its bulk calls instead.
+        return Flux.deferContextual(context -> {
+            Optional<Duration> budget = Deadline.fromContext(context).map(Deadline::remaining);
+            return integration.getAllProducts()
+                    .buffer(bulkChunkSize)
+                    .concatMap(products -> budget
+                            .map(b -> Deadline.within(b, createProductAggregates(products, parts)))
+                            .orElseGet(() -> createProductAggregates(products, parts)), 1);
+        });
+    }
+
     @Override
-    public Flux<ProductAggregate> getAllProducts() {
-        return integration.getAllProducts().flatMap(p -> Mono.zip(
-                values ->
-                        createProductAggregate(
+    public Mono<ProductAggregatePage> getProductPage(int limit, String pageToken, Integer minWeight, Integer maxWeight,
+                                                     String namePrefix, String sort, Set<String> include) {
+        ProductAggregateParts parts = ProductAggregateParts.from(include);
+
+        // The page is already bounded by the limit, so the aggregates can be created with a single pair of bulk calls
+        return integration.getProductPage(limit, pageToken, minWeight, maxWeight, namePrefix, sort)
+                .flatMap(page -> createProductAggregates(page.products(), parts)
+                        .collectList()
+                        .map(products -> new ProductAggregatePage(products, page.nextPageToken())))
+                .doOnError(ex -> LOG.warn("getProductPage failed: {}", ex.toString()))
+                .log(LOG.getName(), FINE);
+    }
+
+    /**
+     * The bulk endpoints of the core services return no entity tags.
+     */
+    private static <T> Map<Integer, Tagged<T>> untagged(Map<Integer, T> values) {
+        Map<Integer, Tagged<T>> tagged = new HashMap<>();
+        values.forEach((productId, value) -> tagged.put(productId, Tagged.untagged(value)));
+        return tagged;
+    }
+
+    private Flux<ProductAggregate> createProductAggregates(List<Product> products, ProductAggregateParts parts) {
+        if (products.isEmpty()) {
+            return Flux.empty();
+        }
+
+        Set<Integer> productIds = new LinkedHashSet<>();
+        products.forEach(p -> productIds.add(p.productId()));
+
+        // Only the top rated recommendations, subscribed to again if their ratings are looked up after them
+        Mono<Map<Integer, Result<Tagged<List<Recommendation>>>>> topRecommendations = parts.recommendations()
+                ? lastKnownGoodStore.recommendations().getAll(productIds,
+                integration.getTopRecommendationsByProductIds(productIds, recommendationsTop, BY_RATING)
+                        .map(ProductCompositeServiceImpl::untagged)).cache()
+                : Mono.just(Map.of());
+
+        return Mono.zip(
+                        topRecommendations,
+                        parts.reviews()
+                                ? lastKnownGoodStore.reviews().getAll(productIds,
+                                integration.getReviewsByProductIds(productIds).map(ProductCompositeServiceImpl::untagged))
+                                : Mono.just(Map.<Integer, Result<Tagged<List<Review>>>>of()),
+                        lookUpRecommendationRatings(productIds, parts, topRecommendations),
+                        lookUpReviewRatings(parts)
+                                ? lastKnownGoodStore.reviewRatings().getAll(productIds,
+                                integration.getReviewRatingsByProductIds(productIds))
+                                : Mono.just(Map.<Integer, Result<RatingSummary>>of()))
+                .flatMapMany(tuple -> Flux.fromIterable(products)
+                        .map(p -> createProductAggregate(
                                 p,
-                                (List<Recommendation>) values[0],
-                                (List<Review>) values[1],
-                                serviceUtil.getServiceAddress()),
-                integration.getRecommendations(p.productId()).collectList(),
-                integration.getReviews(p.productId()).collectList()));
+                                parts,
+                                parts.recommendations() ? untagged(tuple.getT1().get(p.productId())) : null,
+                                parts.reviews() ? untagged(tuple.getT2().get(p.productId())) : null,
+                                tuple.getT3().get(p.productId()),
+                                tuple.getT4().get(p.productId()),
+                                serviceUtil.getServiceAddress())));
     }
 
+    /**
+     * The bulk variant of {@link #lookUpRecommendationRatings(int, ProductAggregateParts, Mono)}, for the products
+     * whose recommendations may be cut off at the top.
+     */
+    private Mono<Map<Integer, Result<RatingSummary>>> lookUpRecommendationRatings(
+            Set<Integer> productIds, ProductAggregateParts parts, Mono<Map<Integer, Result<Tagged<List<Recommendation>>>>> recommendations) {
+        if (!parts.ratings()) {
+            return Mono.just(Map.of());
+        }
+
+        Mono<Set<Integer>> lookUpIds = parts.recommendations()
+                ? recommendations.map(results -> productIds.stream()
+                .filter(productId -> isCutOff(results.get(productId).value().value()))
+                .collect(Collectors.toSet()))
+                : Mono.just(productIds);
+        return lookUpIds.flatMap(ids -> ids.isEmpty()
+                ? Mono.just(Map.of())
+                : lastKnownGoodStore.recommendationRatings().getAll(ids, integration.getRecommendationRatingsByProductIds(ids)));
+    }
+
+    /**
+     * Recommendations and reviews are null if they were not asked for, their ratings are null unless they were
+     * looked up.
+     */
     private ProductAggregate createProductAggregate(
             Product product,
-            List<Recommendation> recommendations,
-            List<Review> reviews,
+            ProductAggregateParts parts,
+            Result<List<Recommendation>> recommendationsResult,
+            Result<List<Review>> reviewsResult,
+            Result<RatingSummary> recommendationRatingsResult,
+            Result<RatingSummary> reviewRatingsResult,
             String serviceAddress) {
+        List<Recommendation> recommendations = recommendationsResult == null ? null : recommendationsResult.value();
+        List<Review> reviews = reviewsResult == null ? null : reviewsResult.value();
+
         // 1. Setup product info
         int productId = product.productId();
         String name = product.name();
@@ -136,7 +438,15 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
                         .map(r -> new ReviewSummary(r.reviewId(), r.author(), r.subject(), r.content(), r.rating()))
                         .collect(Collectors.toList());
 
-        // 4. Create info regarding the involved microservices addresses
+        // 4. Summarize the ratings, if asked for
+        ProductRatings ratings =
+                (!parts.ratings())
+                        ? null
+                        : new ProductRatings(
+                        ratings(recommendations, Recommendation::rate, recommendationRatingsResult),
+                        ratings(reviews, Review::rating, reviewRatingsResult));
+
+        // 5. Create info regarding the involved microservices addresses
         String productAddress = product.serviceAddress();
         String reviewAddress = (reviews != null && !reviews.isEmpty())
                 ? reviews.getFirst().serviceAddress()
@@ -148,7 +458,31 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
         ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
 
-        return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+        // 6. Mark the parts that are served from the last known good values
+        List<String> staleParts = new ArrayList<>();
+        if (recommendationsResult != null && recommendationsResult.stale()) {
+            staleParts.add(ProductAggregateParts.RECOMMENDATIONS);
+        }
+        if (reviewsResult != null && reviewsResult.stale()) {
+            staleParts.add(ProductAggregateParts.REVIEWS);
+        }
+        // Ratings summarized from stale recommendations or reviews are covered by their part
+        if ((recommendationRatingsResult != null && recommendationRatingsResult.stale())
+                || (reviewRatingsResult != null && reviewRatingsResult.stale())) {
+            staleParts.add(ProductAggregateParts.RATINGS);
+        }
+
+        return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, ratings,
+                serviceAddresses, staleParts.isEmpty() ? null : staleParts);
+    }
+
+    /**
+     * The looked up ratings, else the ratings summarized from the fetched recommendations or reviews.
+     */
+    private static <T> RatingSummary ratings(List<T> fetched, ToIntFunction<T> rating, Result<RatingSummary> lookedUp) {
+        return lookedUp != null
+                ? lookedUp.value()
+                : RatingSummary.of(fetched.stream().mapToInt(rating));
     }
 
     @Override
@@ -170,8 +504,23 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     }
 
     @Override
-    public Flux<ReviewSummary> getReviews(int productId) {
-        return integration.getReviews(productId)
-                .map(r -> new ReviewSummary(r.reviewId(), r.author(), r.subject(), r.content(), r.rating()));
+    public Flux<DataBuffer> getReviews(int productId) {
+        return Flux.defer(() -> {
+            AtomicBoolean passedThrough = new AtomicBoolean();
+            return REVIEW_SUMMARY_FILTER.filter(integration.getReviewsAsJson(productId), BUFFER_FACTORY)
+                    .doOnNext(_ -> passedThrough.set(true))
+                    // Once a part of the response is passed through it can not be replaced anymore
+                    .onErrorResume(ex -> passedThrough.get() ? Flux.error(ex) : getLastKnownGoodReviews(productId, ex));
+        });
+    }
+
+    private Mono<DataBuffer> getLastKnownGoodReviews(int productId, Throwable error) {
+        LOG.warn("getReviews failed: {}, will use the last known good reviews", error.toString());
+        return Mono.fromCallable(() -> {
+            List<ReviewSummary> reviews = lastKnownGoodStore.reviews().getLastKnownGood(productId).value().stream()
+                    .map(r -> new ReviewSummary(r.reviewId(), r.author(), r.subject(), r.content(), r.rating()))
+                    .toList();
+            return BUFFER_FACTORY.wrap(mapper.writeValueAsBytes(reviews));
+        });
     }
 }
@@ -0,0 +1,431 @@
+package shop.microservices.composite.product.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import shop.api.composite.product.ProductAggregate;
+import shop.api.composite.product.ProductRatings;
+import shop.api.composite.product.RecommendationSummary;
+import shop.api.composite.product.ReviewSummary;
+import shop.api.composite.product.ServiceAddresses;
+import shop.api.core.product.Product;
+import shop.api.core.rating.RatingSummary;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.review.Review;
+import shop.api.event.Event;
+import shop.util.http.ServiceUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Read model of product aggregates, projected from the events on the products, recommendations and reviews
+ * destinations into a local H2 MVStore file, see {@link MessageProcessorConfig}.
+ * <p>
+ * Configured with app.readModel.mode:
+ * <ul>
+ *     <li>disabled: no store is opened and the events are ignored</li>
+ *     <li>project: the store is kept up to date, but not read</li>
+ *     <li>serve: {@link ProductCompositeServiceImpl#getProduct} is served from the store, products that are not in
+ *     it yet are assembled from the core services</li>
+ * </ul>
+ * Every event is appended to the event log of its destination before it is applied to the document of its
+ * productId, so the documents can be rebuilt by replaying the logs. This happens on startup when the projection
+ * version below changed, or when app.readModel.rebuildOnStartup is set. Only the order of the events of one
+ * productId and destination matters, so the logs are keyed by productId and a sequence number within it. A DELETE
+ * event empties the part of its destination, so the log entries of its productId are dropped instead of appended
+ * to. The logs only grow with the live products.
+ * <p>
+ * The events are the commands sent to the core services, which may still reject them. Creates of an id that is
+ * already there are skipped, as the core services keep the first, and so are creates with a productId or rating
+ * they reject. Creates rejected for other invalid input, e.g. a blank author, are projected all the same, so the
+ * read model may hold recommendations and reviews the core services don't have, until their product is deleted.
+ * <p>
+ * The read model is eventually consistent. Each instance consumes the events through durable queues of its own,
+ * named by app.readModel.instanceId, so the events published while it is down are delivered once it is back. The
+ * events published before its queues were first declared are missed, start it in project mode ahead of serving.
+ * Served aggregates only carry the address of the composite service.
+ */
+@Component
+public class ProductReadModel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductReadModel.class);
+
+    // Bump when the documents built from the events change, to rebuild them on the next startup
+    private static final int PROJECTION_VERSION = 1;
+
+    private static final TypeReference<Event<Integer, Product>> PRODUCT_EVENT = new TypeReference<>() {
+    };
+    private static final TypeReference<Event<Integer, Recommendation>> RECOMMENDATION_EVENT = new TypeReference<>() {
+    };
+    private static final TypeReference<Event<Integer, Review>> REVIEW_EVENT = new TypeReference<>() {
+    };
+
+    // The order of the top recommendations of the recommendation service
+    private static final Comparator<RecommendationSummary> BY_RATING = Comparator
+            .comparingInt(RecommendationSummary::rate).reversed()
+            .thenComparingInt(RecommendationSummary::recommendationId);
+
+    private enum Mode {
+        DISABLED, PROJECT, SERVE
+    }
+
+    /**
+     * Applies an event to the document of its productId, returns null if the core service rejects the event.
+     */
+    private interface Projection<T> extends BiFunction<Document, Event<Integer, T>, Document> {
+    }
+
+    /**
+     * The stored form of an aggregate. The product is null until its event arrived, the lists are empty if there
+     * are no recommendations or reviews.
+     */
+    private record Document(
+            Product product,
+            List<RecommendationSummary> recommendations,
+            List<ReviewSummary> reviews
+    ) {
+        static Document empty() {
+            return new Document(null, List.of(), List.of());
+        }
+
+        boolean isEmpty() {
+            return product == null && recommendations.isEmpty() && reviews.isEmpty();
+        }
+    }
+
+    private final ObjectMapper mapper;
+    private final ServiceUtil serviceUtil;
+    private final Mode mode;
+    private final MVStore store;
+    private final MVMap<String, Integer> meta;
+    private final MVMap<Integer, byte[]> documents;
+    private final MVMap<Long, byte[]> productEvents;
+    private final MVMap<Long, byte[]> recommendationEvents;
+    private final MVMap<Long, byte[]> reviewEvents;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter skipped;
+    private final int recommendationsTop;
+
+    @Autowired
+    public ProductReadModel(
+            ObjectMapper mapper,
+            ServiceUtil serviceUtil,
+            MeterRegistry meterRegistry,
+            @Value("${app.readModel.mode:disabled}") String mode,
+            @Value("${app.readModel.file:./data/product-read-model.mv.db}") String file,
+            @Value("${app.readModel.rebuildOnStartup:false}") boolean rebuildOnStartup,
+            @Value("${app.recommendations.top:10}") int recommendationsTop
+    ) {
+        this.mapper = mapper;
+        this.serviceUtil = serviceUtil;
+        this.recommendationsTop = recommendationsTop;
+        this.mode = switch (mode) {
+            case "disabled" -> Mode.DISABLED;
+            case "project" -> Mode.PROJECT;
+            case "serve" -> Mode.SERVE;
+            default -> throw new IllegalArgumentException("Invalid app.readModel.mode: " + mode + ", must be disabled, project or serve");
+        };
+        this.hits = Counter.builder("composite.readmodel.reads")
+                .tag("result", "hit")
+                .description("The number of product aggregates served from the read model")
+                .register(meterRegistry);
+        this.misses = Counter.builder("composite.readmodel.reads")
+                .tag("result", "miss")
+                .description("The number of product aggregates not found in the read model, and assembled instead")
+                .register(meterRegistry);
+        this.skipped = Counter.builder("composite.readmodel.events.skipped")
+                .description("The number of events not projected, as the core services reject them")
+                .register(meterRegistry);
+
+        if (this.mode == Mode.DISABLED) {
+            this.store = null;
+            this.meta = null;
+            this.documents = null;
+            this.productEvents = null;
+            this.recommendationEvents = null;
+            this.reviewEvents = null;
+            return;
+        }
+
+        this.store = new MVStore.Builder()
+                .fileName(createParentDirectories(Path.of(file)).toString())
+                .compress()
+                .open();
+        this.meta = store.openMap("meta");
+        this.documents = store.openMap("documents");
+        this.productEvents = store.openMap("events.products");
+        this.recommendationEvents = store.openMap("events.recommendations");
+        this.reviewEvents = store.openMap("events.reviews");
+
+        Integer version = meta.get("projectionVersion");
+        if (rebuildOnStartup || (version != null && version != PROJECTION_VERSION)) {
+            LOG.info("Rebuild the read model in {}, projection version {} -> {}", file, version, PROJECTION_VERSION);
+            rebuild();
+        } else {
+            meta.put("projectionVersion", PROJECTION_VERSION);
+            store.commit();
+        }
+        LOG.info("Opened the read model in {} with {} product aggregates, mode: {}", file, documents.size(), mode);
+    }
+
+    public boolean isServing() {
+        return mode == Mode.SERVE;
+    }
+
+    /**
+     * Returns the aggregate of a product, or empty if the product is not in the read model.
+     */
+    public Mono<ProductAggregate> get(int productId) {
+        if (mode == Mode.DISABLED) {
+            return Mono.empty();
+        }
+
+        // The lookup may have to read a page from disk, keep it off the event loop
+        return Mono.fromCallable(() -> {
+                    byte[] bytes = documents.get(productId);
+                    Document document = bytes == null ? null : decode(bytes, Document.class);
+                    if (document == null || document.product() == null) {
+                        misses.increment();
+                        return null;
+                    }
+                    hits.increment();
+                    return toProductAggregate(document);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public void onProductEvent(Event<Integer, Product> event) {
+        apply(productEvents, event, ProductReadModel::projectProductEvent);
+    }
+
+    public void onRecommendationEvent(Event<Integer, Recommendation> event) {
+        apply(recommendationEvents, event, ProductReadModel::projectRecommendationEvent);
+    }
+
+    public void onReviewEvent(Event<Integer, Review> event) {
+        apply(reviewEvents, event, ProductReadModel::projectReviewEvent);
+    }
+
+    /**
+     * Drops all documents and builds them again from the event logs.
+     */
+    public synchronized void rebuild() {
+        if (mode == Mode.DISABLED) {
+            return;
+        }
+
+        documents.clear();
+        int events = replay(productEvents, PRODUCT_EVENT, ProductReadModel::projectProductEvent)
+                + replay(recommendationEvents, RECOMMENDATION_EVENT, ProductReadModel::projectRecommendationEvent)
+                + replay(reviewEvents, REVIEW_EVENT, ProductReadModel::projectReviewEvent);
+        meta.put("projectionVersion", PROJECTION_VERSION);
+        store.commit();
+        LOG.info("Rebuilt {} product aggregates from {} events", documents.size(), events);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private synchronized <T> void apply(MVMap<Long, byte[]> log, Event<Integer, T> event, Projection<T> projection) {
+        if (mode == Mode.DISABLED) {
+            return;
+        }
+
+        int productId = event.getKey();
+        Document document = projection.apply(load(productId), event);
+        if (document == null) {
+            // Neither logged nor applied, as if the event never happened
+            LOG.debug("Skip {} event for productId: {}, rejected by the core service", event.getEventType(), productId);
+            skipped.increment();
+            return;
+        }
+
+        long first = (long) productId << 32;
+        long last = first | 0xFFFFFFFFL;
+
+        if (event.getEventType() == Event.Type.DELETE) {
+            // The part is empty after the delete, as if none of the earlier events of the productId happened
+            for (Iterator<Long> keys = log.keyIterator(first); keys.hasNext(); ) {
+                Long key = keys.next();
+                if (key > last) {
+                    break;
+                }
+                log.remove(key);
+            }
+        } else {
+            Long previous = log.floorKey(last);
+            log.put(previous == null || previous < first ? first : previous + 1, encode(event));
+        }
+
+        save(productId, document);
+        // Commit each event, the event is acknowledged to the broker once it is processed
+        store.commit();
+    }
+
+    private <T> int replay(MVMap<Long, byte[]> log, TypeReference<Event<Integer, T>> type, Projection<T> projection) {
+        int count = 0;
+        for (byte[] bytes : log.values()) {
+            Event<Integer, T> event = decode(bytes, type);
+            Document document = projection.apply(load(event.getKey()), event);
+            if (document != null) {
+                save(event.getKey(), document);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static Document projectProductEvent(Document document, Event<Integer, Product> event) {
+        if (event.getEventType() != Event.Type.CREATE) {
+            return new Document(null, document.recommendations(), document.reviews());
+        }
+
+        Product product = event.getData();
+        if (product.productId() < 1 || document.product() != null) {
+            return null;
+        }
+        return new Document(product, document.recommendations(), document.reviews());
+    }
+
+    private static Document projectRecommendationEvent(Document document, Event<Integer, Recommendation> event) {
+        if (event.getEventType() != Event.Type.CREATE) {
+            return new Document(document.product(), List.of(), document.reviews());
+        }
+
+        Recommendation r = event.getData();
+        if (r.productId() < 1 || !isValidRating(r.rate())
+                || contains(document.recommendations(), r.recommendationId(), RecommendationSummary::recommendationId)) {
+            return null;
+        }
+        return new Document(
+                document.product(),
+                append(document.recommendations(), new RecommendationSummary(r.recommendationId(), r.author(), r.rate(), r.content())),
+                document.reviews());
+    }
+
+    private static Document projectReviewEvent(Document document, Event<Integer, Review> event) {
+        if (event.getEventType() != Event.Type.CREATE) {
+            return new Document(document.product(), document.recommendations(), List.of());
+        }
+
+        Review r = event.getData();
+        if (r.productId() < 1 || !isValidRating(r.rating())
+                || contains(document.reviews(), r.reviewId(), ReviewSummary::reviewId)) {
+            return null;
+        }
+        return new Document(
+                document.product(),
+                document.recommendations(),
+                append(document.reviews(), new ReviewSummary(r.reviewId(), r.author(), r.subject(), r.content(), r.rating())));
+    }
+
+    private Document load(int productId) {
+        byte[] bytes = documents.get(productId);
+        return bytes == null ? Document.empty() : decode(bytes, Document.class);
+    }
+
+    private void save(int productId, Document document) {
+        if (document.isEmpty()) {
+            documents.remove(productId);
+        } else {
+            documents.put(productId, encode(document));
+        }
+    }
+
+    private static boolean isValidRating(int rating) {
+        return rating >= RatingSummary.MIN_RATING && rating <= RatingSummary.MAX_RATING;
+    }
+
+    private static <T> boolean contains(List<T> list, int id, ToIntFunction<T> idOf) {
+        return list.stream().anyMatch(e -> idOf.applyAsInt(e) == id);
+    }
+
+    private static <T> List<T> append(List<T> list, T element) {
+        List<T> result = new ArrayList<>(list.size() + 1);
+        result.addAll(list);
+        result.add(element);
+        return result;
+    }
+
+    /**
+     * Only the top rated recommendations, like the assembled aggregates, their ratings are summarized from all.
+     */
+    private ProductAggregate toProductAggregate(Document document) {
+        Product product = document.product();
+        return new ProductAggregate(
+                product.productId(),
+                product.name(),
+                product.weight(),
+                document.recommendations().stream()
+                        .sorted(BY_RATING)
+                        .limit(recommendationsTop)
+                        .toList(),
+                document.reviews(),
+                new ProductRatings(
+                        RatingSummary.of(document.recommendations().stream().mapToInt(RecommendationSummary::rate)),
+                        RatingSummary.of(document.reviews().stream().mapToInt(ReviewSummary::rating))),
+                new ServiceAddresses(serviceUtil.getServiceAddress(), "", "", ""),
+                null);
+    }
+
+    private byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T decode(byte[] bytes, TypeReference<T> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path createParentDirectories(Path file) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
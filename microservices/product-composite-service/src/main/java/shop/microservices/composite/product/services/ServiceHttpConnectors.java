@@ -0,0 +1,95 @@
+package shop.microservices.composite.product.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.Http2AllocationStrategy;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP connectors with a connection pool of their own per downstream service.
+ * <p>
+ * The pools are configured with the app.http properties, which can be overridden per service with
+ * app.http.services.&lt;serviceId&gt;, e.g. app.http.services.review.maxConnections. With h2c enabled the requests
+ * to a service are multiplexed over a few HTTP/2 connections with prior knowledge, so the service must accept
+ * h2c, see server.http2.enabled.
+ * <p>
+ * The pools publish the reactor.netty.connection.provider gauges, tagged with the service id as pool name.
+ */
+@Component
+public class ServiceHttpConnectors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceHttpConnectors.class);
+
+    private final Environment environment;
+    private final Map<String, ConnectionProvider> connectionProviders = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ServiceHttpConnectors(Environment environment) {
+        this.environment = environment;
+    }
+
+    public ClientHttpConnector forService(String serviceId) {
+        ConnectionProvider connectionProvider = connectionProviders.computeIfAbsent(serviceId, this::createConnectionProvider);
+
+        HttpClient httpClient = HttpClient.create(connectionProvider);
+        if (isH2c(serviceId)) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C);
+        }
+        return new ReactorClientHttpConnector(httpClient);
+    }
+
+    @PreDestroy
+    public void dispose() {
+        connectionProviders.values().forEach(ConnectionProvider::dispose);
+    }
+
+    private ConnectionProvider createConnectionProvider(String serviceId) {
+        int maxConnections = property(serviceId, "maxConnections", Integer.class, 100);
+        int pendingAcquireMaxCount = property(serviceId, "pendingAcquireMaxCount", Integer.class, 500);
+        long pendingAcquireTimeoutMillis = property(serviceId, "pendingAcquireTimeoutMillis", Long.class, 2000L);
+        long maxIdleTimeMillis = property(serviceId, "maxIdleTimeMillis", Long.class, 30000L);
+        long maxLifeTimeMillis = property(serviceId, "maxLifeTimeMillis", Long.class, 300000L);
+        long evictInBackgroundMillis = property(serviceId, "evictInBackgroundMillis", Long.class, 30000L);
+
+        LOG.info("Create connection pool for {}, maxConnections: {}, pendingAcquireMaxCount: {}, h2c: {}",
+                serviceId, maxConnections, pendingAcquireMaxCount, isH2c(serviceId));
+
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(serviceId)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMillis))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMillis))
+                .evictInBackground(Duration.ofMillis(evictInBackgroundMillis))
+                .metrics(true);
+
+        if (isH2c(serviceId)) {
+            builder.allocationStrategy(Http2AllocationStrategy.builder()
+                    .maxConnections(property(serviceId, "h2MaxConnections", Integer.class, 4))
+                    .maxConcurrentStreams(property(serviceId, "h2MaxConcurrentStreams", Long.class, 100L))
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private boolean isH2c(String serviceId) {
+        return property(serviceId, "h2c", Boolean.class, false);
+    }
+
+    private <T> T property(String serviceId, String name, Class<T> type, T defaultValue) {
+        T value = environment.getProperty("app.http.services." + serviceId + "." + name, type);
+        return value != null ? value : environment.getProperty("app.http." + name, type, defaultValue);
+    }
+}
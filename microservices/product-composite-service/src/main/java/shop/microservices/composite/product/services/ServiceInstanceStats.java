@@ -0,0 +1,126 @@
+package shop.microservices.composite.product.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency and in-flight requests per instance of the core services, as seen by the calls of this composite.
+ * <p>
+ * The latency is a peak EWMA: a response slower than the average replaces it right away, faster responses pull
+ * it down with a weight that grows with the time since the previous response. The latency also decays towards
+ * zero while an instance gets no requests, so that an instance that was avoided for being slow is tried again.
+ * A failed, i.e. 5xx, or cancelled request only ever raises the latency, a fast failure must not make an instance
+ * look fast.
+ * <p>
+ * The stats are collected by {@link #filter()}, it has to run after the load balancer filter, i.e. be added to
+ * a clone of the load balanced WebClient.Builder, to see the URL of the chosen instance.
+ */
+@Component
+public class ServiceInstanceStats {
+
+    public record Load(double latencyNanos, int inFlight, boolean sampled) {
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final double decayNanos;
+    private final Map<String, InstanceStats> instances = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ServiceInstanceStats(
+            MeterRegistry meterRegistry,
+            @Value("${app.loadBalancer.decayMillis:10000}") long decayMillis
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+    }
+
+    public ExchangeFilterFunction filter() {
+        return (request, next) -> Mono.defer(() -> {
+            InstanceStats stats = stats(key(request.url()));
+            stats.inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            AtomicBoolean answered = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnNext(response -> {
+                        answered.set(true);
+                        stats.observe(System.nanoTime() - start, response.statusCode().is5xxServerError());
+                    })
+                    .doFinally(_ -> {
+                        stats.inFlight.decrementAndGet();
+                        if (!answered.get()) {
+                            stats.observe(System.nanoTime() - start, true);
+                        }
+                    });
+        });
+    }
+
+    public Load load(ServiceInstance instance) {
+        InstanceStats stats = instances.get(key(instance));
+        return stats == null ? new Load(0, 0, false) : stats.load();
+    }
+
+    private InstanceStats stats(String key) {
+        return instances.computeIfAbsent(key, k -> {
+            InstanceStats stats = new InstanceStats();
+            Gauge.builder("composite.loadbalancer.latency", stats, s -> s.load().latencyNanos() / 1e9)
+                    .tag("instance", k)
+                    .baseUnit("seconds")
+                    .description("The peak EWMA of the response times of the instance, used to pick instances")
+                    .register(meterRegistry);
+            Gauge.builder("composite.loadbalancer.inflight", stats.inFlight, AtomicInteger::get)
+                    .tag("instance", k)
+                    .description("The number of requests to the instance that are not answered yet")
+                    .register(meterRegistry);
+            return stats;
+        });
+    }
+
+    static String key(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    static String key(URI url) {
+        return url.getHost() + ":" + url.getPort();
+    }
+
+    private final class InstanceStats {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double ewmaNanos;
+        private long stampNanos;
+        private boolean sampled;
+
+        synchronized void observe(long rttNanos, boolean failed) {
+            long now = System.nanoTime();
+            double weight = weight(now);
+            double latency = ewmaNanos * weight;
+            if (failed && rttNanos <= latency) {
+                return;
+            }
+            ewmaNanos = rttNanos > latency ? rttNanos : latency + rttNanos * (1 - weight);
+            stampNanos = now;
+            sampled = true;
+        }
+
+        synchronized Load load() {
+            return new Load(sampled ? ewmaNanos * weight(System.nanoTime()) : 0, inFlight.get(), sampled);
+        }
+
+        private double weight(long now) {
+            return Math.exp(-(now - stampNanos) / decayNanos);
+        }
+    }
+}
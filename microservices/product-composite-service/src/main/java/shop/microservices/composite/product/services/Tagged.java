@@ -0,0 +1,17 @@
+package shop.microservices.composite.product.services;
+
+import org.springframework.http.ResponseEntity;
+
+/**
+ * A value together with the entity tag a core service returned it with, or null if it has none.
+ */
+public record Tagged<T>(T value, String eTag) {
+
+    static <T> Tagged<T> of(ResponseEntity<T> response) {
+        return new Tagged<>(response.getBody(), response.getHeaders().getETag());
+    }
+
+    static <T> Tagged<T> untagged(T value) {
+        return new Tagged<>(value, null);
+    }
+}
@@ -0,0 +1,92 @@
+package shop.microservices.composite.product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedHealthIndicatorTests {
+
+    private final AtomicInteger probes = new AtomicInteger();
+
+    private CachedHealthIndicator indicator;
+
+    @AfterEach
+    void stop() {
+        if (indicator != null) {
+            indicator.stop();
+        }
+    }
+
+    @Test
+    void unknownBeforeFirstProbe() {
+        indicator = createIndicator(this::probeUp, Duration.ofSeconds(10));
+
+        assertEquals(Status.UNKNOWN, indicator.health().block().getStatus());
+        assertEquals(0, probes.get());
+    }
+
+    @Test
+    void serveLastProbe() {
+        indicator = createIndicator(() -> probeUp().delayElement(Duration.ofMillis(50)), Duration.ofSeconds(10));
+        indicator.refresh().block();
+
+        for (int i = 0; i < 10; i++) {
+            Health health = indicator.health().block();
+            assertEquals(Status.UP, health.getStatus());
+            assertEquals("value", health.getDetails().get("detail"));
+            assertTrue((Long) health.getDetails().get("probeLatencyMillis") >= 50);
+            assertNotNull(health.getDetails().get("probeAgeMillis"));
+        }
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    void downOnFailingProbe() {
+        indicator = createIndicator(() -> Mono.error(new IllegalStateException("Connection refused")), Duration.ofSeconds(10));
+        indicator.refresh().block();
+
+        assertEquals(Status.DOWN, indicator.health().block().getStatus());
+    }
+
+    @Test
+    void downOnStaleProbe() throws InterruptedException {
+        indicator = createIndicator(this::probeUp, Duration.ofMillis(50));
+        indicator.refresh().block();
+
+        Thread.sleep(100);
+
+        Health health = indicator.health().block();
+        assertEquals(Status.DOWN, health.getStatus());
+        assertEquals("value", health.getDetails().get("detail"));
+    }
+
+    @Test
+    void refreshInBackground() throws InterruptedException {
+        indicator = new CachedHealthIndicator("test", this::probeUp, Duration.ofMillis(20), Duration.ofSeconds(10));
+        indicator.start();
+
+        Thread.sleep(200);
+
+        assertEquals(Status.UP, indicator.health().block().getStatus());
+        assertTrue(probes.get() > 1);
+    }
+
+    private CachedHealthIndicator createIndicator(Supplier<Mono<Health>> probe, Duration maxAge) {
+        return new CachedHealthIndicator("test", probe, Duration.ofHours(1), maxAge);
+    }
+
+    private Mono<Health> probeUp() {
+        return Mono.fromSupplier(() -> {
+            probes.incrementAndGet();
+            return Health.up().withDetail("detail", "value").build();
+        });
+    }
+}
@@ -0,0 +1,133 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.LinkedMultiValueMap;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import shop.microservices.composite.product.services.ConsistentHashLoadBalancer;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpMethod.GET;
+
+class ConsistentHashLoadBalancerTests {
+
+    private static final int KEYS = 10000;
+    private static final ServiceInstance FALLBACK = instance(0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicReference<List<ServiceInstance>> instances = new AtomicReference<>(instances(4));
+    private final ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer(
+            new StaticListableBeanFactory(Map.of("supplier", supplier())).getBeanProvider(ServiceInstanceListSupplier.class),
+            "product",
+            _ -> Mono.just(new DefaultResponse(FALLBACK)), 100, meterRegistry);
+
+    @Test
+    void routeKeyToSameInstance() {
+        Map<Integer, ServiceInstance> routes = routeAll();
+
+        assertEquals(routes, routeAll());
+    }
+
+    @Test
+    void spreadKeysOverInstances() {
+        Map<ServiceInstance, Long> keysPerInstance = routeAll().values().stream()
+                .collect(Collectors.groupingBy(instance -> instance, Collectors.counting()));
+
+        assertEquals(4, keysPerInstance.size());
+        keysPerInstance.values().forEach(keys -> assertTrue(keys > KEYS * 0.15 && keys < KEYS * 0.35, "Keys: " + keys));
+    }
+
+    @Test
+    void moveOnlyKeysOfRemovedInstance() {
+        Map<Integer, ServiceInstance> before = routeAll();
+        ServiceInstance removed = instances.get().get(1);
+        instances.set(instances.get().stream().filter(instance -> instance != removed).toList());
+
+        Map<Integer, ServiceInstance> after = routeAll();
+
+        before.forEach((key, instance) -> {
+            if (instance == removed) {
+                assertNotEquals(removed, after.get(key));
+            } else {
+                assertEquals(instance, after.get(key), "Key: " + key);
+            }
+        });
+    }
+
+    @Test
+    void moveOnlyKeysToAddedInstance() {
+        Map<Integer, ServiceInstance> before = routeAll();
+        ServiceInstance added = instance(5);
+        List<ServiceInstance> more = new ArrayList<>(instances.get());
+        more.add(added);
+        instances.set(more);
+
+        Map<Integer, ServiceInstance> after = routeAll();
+
+        long moved = before.keySet().stream().filter(key -> !before.get(key).equals(after.get(key))).count();
+        before.forEach((key, instance) -> assertTrue(after.get(key).equals(instance) || after.get(key).equals(added)));
+        assertTrue(moved > KEYS * 0.1 && moved < KEYS * 0.3, "Moved: " + moved);
+    }
+
+    @Test
+    void fallbackWithoutRoutingKey() {
+        ServiceInstance instance = Mono.from(loadBalancer.choose(new DefaultRequest<>())).block().getServer();
+
+        assertEquals(FALLBACK, instance);
+    }
+
+    private Map<Integer, ServiceInstance> routeAll() {
+        Map<Integer, ServiceInstance> routes = new HashMap<>();
+        for (int key = 0; key < KEYS; key++) {
+            routes.put(key, route(key));
+        }
+        return routes;
+    }
+
+    private ServiceInstance route(int key) {
+        RequestData requestData = new RequestData(GET, URI.create("http://product/product/" + key), new HttpHeaders(),
+                new LinkedMultiValueMap<>(), Map.of(ConsistentHashLoadBalancer.ROUTING_KEY_ATTRIBUTE, key));
+        return Mono.from(loadBalancer.choose(new DefaultRequest<>(new RequestDataContext(requestData)))).block().getServer();
+    }
+
+    private ServiceInstanceListSupplier supplier() {
+        return new ServiceInstanceListSupplier() {
+            @Override
+            public String getServiceId() {
+                return "product";
+            }
+
+            @Override
+            public Flux<List<ServiceInstance>> get() {
+                return Flux.defer(() -> Flux.just(instances.get()));
+            }
+        };
+    }
+
+    private static List<ServiceInstance> instances(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(ConsistentHashLoadBalancerTests::instance).toList();
+    }
+
+    private static ServiceInstance instance(int i) {
+        return new DefaultServiceInstance("product-" + i, "product", "10.0.0." + i, 8080, false);
+    }
+}
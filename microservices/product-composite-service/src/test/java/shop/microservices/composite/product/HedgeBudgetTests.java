@@ -0,0 +1,47 @@
+package shop.microservices.composite.product;
+
+import org.junit.jupiter.api.Test;
+import shop.microservices.composite.product.services.HedgeBudget;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class HedgeBudgetTests {
+
+    @Test
+    void hedgesAreCappedByBudget() {
+        HedgeBudget budget = new HedgeBudget(5, 10);
+
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            budget.onRequest();
+            if (budget.tryAcquire()) {
+                hedges++;
+            }
+        }
+
+        assertEquals(50, hedges);
+    }
+
+    @Test
+    void noHedgesWithoutRequests() {
+        HedgeBudget budget = new HedgeBudget(5, 10);
+
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    void balanceIsCapped() {
+        HedgeBudget budget = new HedgeBudget(5, 2);
+
+        for (int i = 0; i < 1000; i++) {
+            budget.onRequest();
+        }
+
+        int hedges = 0;
+        while (budget.tryAcquire()) {
+            hedges++;
+        }
+        assertEquals(2, hedges);
+    }
+}
@@ -0,0 +1,201 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.reactive.ReactiveLoadBalancer;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import shop.api.core.product.Product;
+import shop.microservices.composite.product.services.HedgingProductClient;
+import shop.microservices.composite.product.services.InternalWireFormat;
+import shop.microservices.composite.product.services.OutlierDetector;
+import shop.microservices.composite.product.services.ServiceHttpConnectors;
+import shop.microservices.composite.product.services.ServiceInstanceStats;
+import shop.util.http.BinaryCodecs;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HedgingProductClientTests {
+
+    // No latencies are recorded before the first lookup, so the first hedge is sent after the max delay
+    private static final long MAX_DELAY_MILLIS = 100;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final Instance primary = new Instance("primary");
+    private final Instance other = new Instance("other");
+
+    @BeforeEach
+    void startInstances() {
+        primary.start();
+        other.start();
+    }
+
+    @AfterEach
+    void stopInstances() {
+        primary.stop();
+        other.stop();
+    }
+
+    @Test
+    void slowPrimaryIsHedged() {
+        primary.respond(Duration.ofSeconds(2), 200);
+        other.respond(Duration.ZERO, 200);
+
+        long start = System.nanoTime();
+        Product product = createClient(100).getProduct(1, null).block().getBody();
+
+        assertEquals("other", product.serviceAddress());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+        assertEquals(1, meterRegistry.get("composite.hedges.sent").counter().count());
+        assertEquals(1, meterRegistry.get("composite.hedges.won").counter().count());
+
+        // The cancelled primary request is recorded as well, or the hedge delay would only see the fast answers
+        assertEquals(1, meterRegistry.get("composite.hedging.latency").timer().count());
+    }
+
+    @Test
+    void hedgeIsNotCountedAsWonWhenPrimaryAnswersFirst() {
+        // The hedge is sent, but the primary answers before it
+        primary.respond(Duration.ofMillis(2 * MAX_DELAY_MILLIS), 200);
+        other.respond(Duration.ofMillis(5 * MAX_DELAY_MILLIS), 200);
+
+        // Without a budget to hedge, warms up the first request which is slower than the primary's delay
+        createClient(0).getProduct(1, null).block();
+
+        Product product = createClient(100).getProduct(1, null).block().getBody();
+
+        assertEquals("primary", product.serviceAddress());
+        assertEquals(1, meterRegistry.get("composite.hedges.sent").counter().count());
+        assertEquals(0, meterRegistry.get("composite.hedges.won").counter().count());
+    }
+
+    @Test
+    void noHedgeWithoutBudget() {
+        primary.respond(Duration.ofMillis(3 * MAX_DELAY_MILLIS), 200);
+        other.respond(Duration.ZERO, 200);
+
+        Product product = createClient(0).getProduct(1, null).block().getBody();
+
+        assertEquals("primary", product.serviceAddress());
+        assertEquals(0, other.requests.get());
+        assertEquals(0, meterRegistry.get("composite.hedges.sent").counter().count());
+    }
+
+    @Test
+    void failingPrimaryDoesNotWinOverHedge() {
+        // The hedge is sent before the primary request fails, and answers after it
+        primary.respond(Duration.ofMillis(2 * MAX_DELAY_MILLIS), 500);
+        other.respond(Duration.ofMillis(3 * MAX_DELAY_MILLIS), 200);
+
+        Product product = createClient(100).getProduct(1, null).block().getBody();
+
+        assertEquals("other", product.serviceAddress());
+        assertEquals(1, meterRegistry.get("composite.hedges.won").counter().count());
+    }
+
+    @Test
+    void failingHedgeDoesNotWinOverPrimary() {
+        primary.respond(Duration.ofMillis(3 * MAX_DELAY_MILLIS), 200);
+        other.respond(Duration.ZERO, 500);
+
+        Product product = createClient(100).getProduct(1, null).block().getBody();
+
+        assertEquals("primary", product.serviceAddress());
+    }
+
+    @Test
+    void failingPrimaryWithoutHedge() {
+        primary.respond(Duration.ZERO, 404);
+        other.respond(Duration.ZERO, 200);
+
+        // Fails with the primary's error right away, instead of waiting for the hedge delay and sending the hedge
+        HedgingProductClient client = createClient(100);
+        assertThrows(WebClientResponseException.NotFound.class, () -> client.getProduct(1, null).block());
+
+        assertEquals(0, other.requests.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private HedgingProductClient createClient(double budgetPercent) {
+        ReactiveLoadBalancer.Factory<ServiceInstance> loadBalancerFactory = mock(ReactiveLoadBalancer.Factory.class);
+        when(loadBalancerFactory.getInstance("product")).thenReturn(_ -> Mono.just(new DefaultResponse(primary.instance())));
+
+        ReactiveDiscoveryClient discoveryClient = mock(ReactiveDiscoveryClient.class);
+        when(discoveryClient.getInstances("product")).thenReturn(Flux.just(primary.instance(), other.instance()));
+
+        return new HedgingProductClient(
+                loadBalancerFactory,
+                discoveryClient,
+                meterRegistry,
+                new ServiceHttpConnectors(new MockEnvironment()),
+                BinaryCodecs.codecCustomizer(Jackson2ObjectMapperBuilder.json().build()),
+                new InternalWireFormat("json"),
+                new ServiceInstanceStats(meterRegistry, 10000),
+                new OutlierDetector(meterRegistry, false, 5, 2000, 10000, 300000),
+                true, 0.95, 5, MAX_DELAY_MILLIS, budgetPercent, 10);
+    }
+
+    /**
+     * A product service instance answering after a delay with a status, the product's serviceAddress is its name.
+     */
+    private static class Instance {
+
+        private final String name;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile Duration delay = Duration.ZERO;
+        private volatile int status = 200;
+        private DisposableServer server;
+
+        Instance(String name) {
+            this.name = name;
+        }
+
+        void respond(Duration delay, int status) {
+            this.delay = delay;
+            this.status = status;
+        }
+
+        void start() {
+            byte[] body = ("{\"productId\":1,\"name\":\"name\",\"weight\":1,\"serviceAddress\":\"" + name + "\"}").getBytes(UTF_8);
+            server = HttpServer.create()
+                    .port(0)
+                    .route(routes -> routes.get("/product/1", (_, response) -> {
+                        requests.incrementAndGet();
+                        return Mono.delay(delay).then(response
+                                .status(status)
+                                .header("Content-Type", "application/json")
+                                .sendByteArray(Mono.just(body))
+                                .then());
+                    }))
+                    .bindNow();
+        }
+
+        void stop() {
+            server.disposeNow();
+        }
+
+        ServiceInstance instance() {
+            return new DefaultServiceInstance(name, "product", "localhost", server.port(), false);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package shop.microservices.composite.product;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.server.HttpServer;
+import shop.microservices.composite.product.services.ServiceHttpConnectors;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares HTTP/1.1 and h2c connection pools of {@link ServiceHttpConnectors} against a local server in the same JVM.
+ * <p>
+ * Run with: ./gradlew :microservices:product-composite-service:test -Pbenchmark --tests '*HttpProtocolBenchmark'
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HttpProtocolBenchmark {
+
+    private static final int REQUESTS = 20_000;
+    private static final int CONCURRENCY = 256;
+    private static final Duration SERVICE_LATENCY = Duration.ofMillis(2);
+    private static final byte[] BODY = "{\"productId\":1,\"name\":\"name\",\"weight\":1}".getBytes(UTF_8);
+
+    private DisposableServer server;
+
+    @BeforeEach
+    void startServer() {
+        server = HttpServer.create()
+                .port(0)
+                .protocol(HttpProtocol.HTTP11, HttpProtocol.H2C)
+                .route(routes -> routes.get("/product/1", (_, response) -> response
+                        .header("Content-Type", "application/json")
+                        .sendByteArray(Mono.just(BODY).delayElement(SERVICE_LATENCY))))
+                .bindNow();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.disposeNow();
+    }
+
+    @Test
+    void compareProtocols() {
+        run("http11", false);
+        run("h2c", true);
+    }
+
+    private void run(String name, boolean h2c) {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("app.http.h2c", String.valueOf(h2c))
+                .withProperty("app.http.pendingAcquireMaxCount", String.valueOf(REQUESTS));
+        ServiceHttpConnectors connectors = new ServiceHttpConnectors(environment);
+        WebClient webClient = WebClient.builder()
+                .baseUrl("http://localhost:" + server.port())
+                .clientConnector(connectors.forService(name))
+                .build();
+
+        try {
+            // Warm up the pool and the JIT
+            execute(webClient, REQUESTS / 4);
+
+            long start = System.nanoTime();
+            long[] latencies = execute(webClient, REQUESTS);
+            long elapsedNanos = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            System.out.printf("%-6s %8.0f req/s, p50 %6.2f ms, p99 %6.2f ms%n",
+                    name,
+                    REQUESTS / (elapsedNanos / 1e9),
+                    latencies[latencies.length / 2] / 1e6,
+                    latencies[(int) (latencies.length * 0.99)] / 1e6);
+        } finally {
+            connectors.dispose();
+        }
+    }
+
+    private long[] execute(WebClient webClient, int requests) {
+        long[] latencies = Flux.range(0, requests)
+                .flatMap(_ -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return webClient.get().uri("/product/1").retrieve().bodyToMono(String.class)
+                            .map(_ -> System.nanoTime() - start);
+                }), CONCURRENCY)
+                .collectList()
+                .map(list -> list.stream().mapToLong(Long::longValue).toArray())
+                .block();
+
+        assertEquals(requests, latencies.length);
+        return latencies;
+    }
+}
@@ -0,0 +1,85 @@
+package shop.microservices.composite.product;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import shop.microservices.composite.product.services.JsonFieldFilter;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonFieldFilterTests {
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = DefaultDataBufferFactory.sharedInstance;
+
+    private final JsonFieldFilter filter = new JsonFieldFilter(Set.of("productId", "date", "serviceAddress"));
+
+    @Test
+    void dropFields() {
+        String input = """
+                [{"productId":1,"reviewId":1,"author":"a","rating":4,"date":"2025-01-01","serviceAddress":"x"},
+                 {"productId":1,"reviewId":2,"author":"b","rating":5,"date":"2025-01-02","serviceAddress":"x"}]""";
+
+        assertEquals(
+                "[{\"reviewId\":1,\"author\":\"a\",\"rating\":4},{\"reviewId\":2,\"author\":\"b\",\"rating\":5}]",
+                filter(input));
+    }
+
+    @Test
+    void dropStructuredValues() {
+        String input = """
+                [{"reviewId":1,"serviceAddress":{"host":"x","ports":[1,2]},"content":"c","date":[2025,1,1]}]""";
+
+        assertEquals("[{\"reviewId\":1,\"content\":\"c\"}]", filter(input));
+    }
+
+    @Test
+    void keepFieldsOfNestedObjects() {
+        String input = """
+                [{"reviewId":1,"details":{"productId":1,"date":"2025-01-01"}}]""";
+
+        assertEquals("[{\"reviewId\":1,\"details\":{\"productId\":1,\"date\":\"2025-01-01\"}}]", filter(input));
+    }
+
+    @Test
+    void emptyArray() {
+        assertEquals("[]", filter("[]"));
+    }
+
+    @Test
+    void inputSplitAtEveryPosition() {
+        String input = """
+                [{"productId":1,"reviewId":1,"subject":"Ünïcödé","content":"a \\"quoted\\" text","date":"2025-01-01"}]""";
+        String expected = "[{\"reviewId\":1,\"subject\":\"Ünïcödé\",\"content\":\"a \\\"quoted\\\" text\"}]";
+        byte[] bytes = input.getBytes(UTF_8);
+
+        for (int i = 1; i < bytes.length; i++) {
+            Flux<DataBuffer> buffers = Flux.just(
+                    BUFFER_FACTORY.wrap(Arrays.copyOfRange(bytes, 0, i)),
+                    BUFFER_FACTORY.wrap(Arrays.copyOfRange(bytes, i, bytes.length)));
+
+            assertEquals(expected, join(filter.filter(buffers, BUFFER_FACTORY)), "Split at " + i);
+        }
+    }
+
+    @Test
+    void invalidJson() {
+        assertThrows(RuntimeException.class, () -> filter("[{\"reviewId\":1,]"));
+    }
+
+    private String filter(String input) {
+        return join(filter.filter(Flux.just(BUFFER_FACTORY.wrap(input.getBytes(UTF_8))), BUFFER_FACTORY));
+    }
+
+    private static String join(Flux<DataBuffer> buffers) {
+        return DataBufferUtils.join(buffers)
+                .map(buffer -> buffer.toString(UTF_8))
+                .block();
+    }
+}
@@ -0,0 +1,109 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import shop.microservices.composite.product.services.LastKnownGoodCache;
+import shop.microservices.composite.product.services.LastKnownGoodCache.Result;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LastKnownGoodCacheTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @Test
+    void emptyWithoutKnownGoodValue() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ofSeconds(10));
+
+        Result<List<String>> result = cache.get(1, this::fail).block();
+
+        assertEquals(List.of(), result.value());
+        assertTrue(result.stale());
+    }
+
+    @Test
+    void staleOnError() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ofSeconds(10));
+
+        assertFalse(cache.get(1, this::fetch).block().stale());
+        Result<List<String>> result = cache.get(1, this::fail).block();
+
+        assertEquals(List.of("value 1"), result.value());
+        assertTrue(result.stale());
+        assertEquals(1, meterRegistry.get("composite.fallback.stale").counter().count());
+    }
+
+    @Test
+    void staleOnSlowResponse() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ofSeconds(10));
+
+        cache.get(1, this::fetch).block();
+        Result<List<String>> result = cache.get(1, productId -> fetch(productId).delayElement(Duration.ofSeconds(1))).block();
+
+        assertEquals(List.of("value 1"), result.value());
+        assertTrue(result.stale());
+    }
+
+    @Test
+    void failingServiceIsNotRetriedBeforeRetryInterval() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ofSeconds(10));
+
+        cache.get(1, this::fetch).block();
+        cache.get(1, this::fail).block();
+        cache.get(1, this::fail).block();
+        cache.get(1, this::fail).block();
+
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    void failingServiceIsRetriedAfterRetryInterval() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ZERO);
+
+        cache.get(1, this::fetch).block();
+        cache.get(1, this::fail).block();
+
+        // The retry runs in the background, the stale value is served until it completes
+        assertTrue(cache.get(1, this::fetch).block().stale());
+        assertFalse(cache.get(1, this::fetch).block().stale());
+    }
+
+    @Test
+    void bulkStaleOnError() {
+        LastKnownGoodCache<List<String>> cache = createCache(Duration.ofSeconds(10));
+
+        cache.getAll(Set.of(1, 2), Mono.just(Map.of(1, List.of("value 1")))).block();
+        Map<Integer, Result<List<String>>> results = cache.getAll(Set.of(1, 2), Mono.error(new RuntimeException())).block();
+
+        assertEquals(new Result<>(List.of("value 1"), true), results.get(1));
+        assertEquals(new Result<>(List.of(), true), results.get(2));
+    }
+
+    private LastKnownGoodCache<List<String>> createCache(Duration retryInterval) {
+        return new LastKnownGoodCache<>("values", List.of(), meterRegistry, true, 10,
+                Duration.ofMillis(100), Duration.ofSeconds(5), retryInterval);
+    }
+
+    private Mono<List<String>> fetch(int productId) {
+        return Mono.fromCallable(() -> {
+            fetches.incrementAndGet();
+            return List.of("value " + productId);
+        });
+    }
+
+    private Mono<List<String>> fail(int productId) {
+        return Mono.fromCallable(() -> {
+            fetches.incrementAndGet();
+            throw new RuntimeException("Failed to fetch productId: " + productId);
+        });
+    }
+}
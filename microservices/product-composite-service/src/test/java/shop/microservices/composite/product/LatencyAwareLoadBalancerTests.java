@@ -0,0 +1,134 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.support.ServiceInstanceListSuppliers;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import shop.microservices.composite.product.services.LatencyAwareLoadBalancer;
+import shop.microservices.composite.product.services.ServiceInstanceStats;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpMethod.GET;
+
+class LatencyAwareLoadBalancerTests {
+
+    private static final ServiceInstance FAST = new DefaultServiceInstance("fast", "product", "fast", 8080, false);
+    private static final ServiceInstance SLOW = new DefaultServiceInstance("slow", "product", "slow", 8080, false);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ServiceInstanceStats stats = new ServiceInstanceStats(meterRegistry, 10000);
+
+    @Test
+    void avoidSlowInstance() {
+        call(SLOW, HttpStatus.OK, Duration.ofMillis(100));
+        call(FAST, HttpStatus.OK, Duration.ZERO);
+
+        LatencyAwareLoadBalancer loadBalancer = createLoadBalancer(FAST, SLOW);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(FAST, choose(loadBalancer));
+        }
+
+        assertEquals(20, meterRegistry.get("composite.loadbalancer.choices").tag("instance", "fast:8080").counter().count());
+        assertTrue(meterRegistry.get("composite.loadbalancer.latency").tag("instance", "slow:8080").gauge().value() >= 0.1);
+    }
+
+    @Test
+    void avoidInstanceWithRequestsInFlight() {
+        Disposable pending = callPending(SLOW);
+
+        LatencyAwareLoadBalancer loadBalancer = createLoadBalancer(FAST, SLOW);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(FAST, choose(loadBalancer));
+        }
+        assertEquals(1, stats.load(SLOW).inFlight());
+
+        pending.dispose();
+        assertEquals(0, stats.load(SLOW).inFlight());
+    }
+
+    @Test
+    void fastFailureDoesNotMakeInstanceLookFast() {
+        call(SLOW, HttpStatus.OK, Duration.ofMillis(100));
+        double latency = stats.load(SLOW).latencyNanos();
+
+        call(SLOW, HttpStatus.SERVICE_UNAVAILABLE, Duration.ZERO);
+
+        assertTrue(stats.load(SLOW).latencyNanos() > latency * 0.9);
+    }
+
+    @Test
+    void cancelledRequestRaisesLatency() {
+        call(SLOW, HttpStatus.OK, Duration.ZERO);
+
+        Disposable pending = callPending(SLOW);
+        sleep(100);
+        pending.dispose();
+
+        assertTrue(stats.load(SLOW).latencyNanos() >= Duration.ofMillis(100).toNanos() * 0.9);
+    }
+
+    @Test
+    void latencyDecaysWithoutRequests() {
+        ServiceInstanceStats stats = new ServiceInstanceStats(meterRegistry, 20);
+        call(stats, SLOW, HttpStatus.OK, Duration.ofMillis(100));
+
+        sleep(200);
+
+        assertTrue(stats.load(SLOW).latencyNanos() < Duration.ofMillis(1).toNanos());
+    }
+
+    @Test
+    void noInstances() {
+        Response<ServiceInstance> response = Mono.from(createLoadBalancer().choose(new DefaultRequest<>())).block();
+
+        assertFalse(response.hasServer());
+    }
+
+    private LatencyAwareLoadBalancer createLoadBalancer(ServiceInstance... instances) {
+        return new LatencyAwareLoadBalancer(ServiceInstanceListSuppliers.toProvider("product", instances),
+                "product", stats, meterRegistry);
+    }
+
+    private static ServiceInstance choose(LatencyAwareLoadBalancer loadBalancer) {
+        return Mono.from(loadBalancer.choose(new DefaultRequest<>())).block().getServer();
+    }
+
+    private void call(ServiceInstance instance, HttpStatus status, Duration delay) {
+        call(stats, instance, status, delay);
+    }
+
+    private static void call(ServiceInstanceStats stats, ServiceInstance instance, HttpStatus status, Duration delay) {
+        stats.filter()
+                .filter(request(instance), _ -> Mono.just(ClientResponse.create(status).build()).delayElement(delay))
+                .block();
+    }
+
+    private Disposable callPending(ServiceInstance instance) {
+        return stats.filter()
+                .filter(request(instance), _ -> Mono.never())
+                .subscribe();
+    }
+
+    private static ClientRequest request(ServiceInstance instance) {
+        return ClientRequest.create(GET, URI.create(instance.getUri() + "/product/1")).build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Mono;
+import shop.api.composite.product.ProductAggregate;
+import shop.api.core.product.Product;
+import shop.api.event.Event;
+import shop.microservices.composite.product.services.LastKnownGoodStore;
+import shop.microservices.composite.product.services.MessageProcessorConfig;
+import shop.microservices.composite.product.services.ProductAggregateCache;
+import shop.microservices.composite.product.services.ProductAggregateRequestCoalescer;
+import shop.microservices.composite.product.services.ProductReadModel;
+import shop.microservices.composite.product.services.Tagged;
+import shop.util.http.ServiceUtil;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static shop.api.event.Event.Type.CREATE;
+
+class MessageProcessorConfigTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+
+    // The name of the product in the core service
+    private final AtomicReference<String> name = new AtomicReference<>("old");
+
+    @TempDir
+    private Path directory;
+
+    private ProductReadModel readModel;
+
+    @AfterEach
+    void close() {
+        readModel.close();
+    }
+
+    @Test
+    void invalidateAgainAfterTheCoreServiceWrite() throws InterruptedException {
+        MessageProcessorConfig config = createConfig(100);
+        assertEquals("old", get());
+
+        config.productEventProcessor().accept(new Event<>(CREATE, 1, new Product(1, "new", 1, null)));
+
+        // Read before the core service applied the change, and cached
+        assertEquals("old", get());
+        name.set("new");
+        assertEquals("old", get());
+
+        Thread.sleep(300);
+        assertEquals("new", get());
+    }
+
+    @Test
+    void invalidateOnceWithoutRepeat() throws InterruptedException {
+        MessageProcessorConfig config = createConfig(0);
+
+        config.productEventProcessor().accept(new Event<>(CREATE, 1, new Product(1, "new", 1, null)));
+        assertEquals("old", get());
+        name.set("new");
+
+        Thread.sleep(300);
+        assertEquals("old", get());
+    }
+
+    private String get() {
+        return cache.get(1, productId -> Mono.just(new Tagged<>(new ProductAggregate(productId, name.get(), 1, null, null, null), null)))
+                .block().value().name();
+    }
+
+    private MessageProcessorConfig createConfig(long repeatInvalidationAfterMillis) {
+        readModel = new ProductReadModel(Jackson2ObjectMapperBuilder.json().build(), new ServiceUtil("7000"), meterRegistry,
+                "disabled", directory.resolve("read-model.mv.db").toString(), false, 10);
+        LastKnownGoodStore lastKnownGoodStore = new LastKnownGoodStore(meterRegistry, true, 10, 200, 5000, 1000);
+        return new MessageProcessorConfig(cache, new ProductAggregateRequestCoalescer(meterRegistry, true, 0), lastKnownGoodStore,
+                readModel, repeatInvalidationAfterMillis);
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.stream.binder.test.OutputDestination;
 import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.cloud.stream.binding.BindingService;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.messaging.Message;
@@ -28,6 +29,8 @@ import static java.util.Collections.singletonList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.ACCEPTED;
 import static reactor.core.publisher.Mono.just;
@@ -52,6 +55,9 @@ class MessagingTests {
     @Autowired
     private OutputDestination target;
 
+    @Autowired
+    private BindingService bindingService;
+
     @BeforeEach
     void setUp() {
         purgeMessages("products");
@@ -59,6 +65,16 @@ class MessagingTests {
         purgeMessages("reviews");
     }
 
+    @Test
+    void readModelNotBoundWhileDisabled() {
+        List<String> bindings = List.of(bindingService.getConsumerBindingNames());
+
+        assertTrue(bindings.contains("productEventProcessor-in-0"));
+        assertFalse(bindings.contains("productReadModelProcessor-in-0"));
+        assertFalse(bindings.contains("recommendationReadModelProcessor-in-0"));
+        assertFalse(bindings.contains("reviewReadModelProcessor-in-0"));
+    }
+
     @Test
     void createCompositeProduct1() {
         ProductAggregate composite = new ProductAggregate(1, "name", 1, null, null, null);
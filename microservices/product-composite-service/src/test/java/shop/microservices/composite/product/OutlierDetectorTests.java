@@ -0,0 +1,156 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import shop.microservices.composite.product.services.OutlierDetector;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.http.HttpMethod.GET;
+
+class OutlierDetectorTests {
+
+    private static final ServiceInstance HEALTHY = new DefaultServiceInstance("healthy", "review", "healthy", 8080, false);
+    private static final ServiceInstance SICK = new DefaultServiceInstance("sick", "review", "sick", 8080, false);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void ejectAfterConsecutiveFailures() {
+        OutlierDetector detector = createDetector(60000);
+
+        for (int i = 0; i < 2; i++) {
+            call(detector, SICK, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        assertFalse(detector.isEjected(SICK));
+
+        callFailing(detector, SICK);
+
+        assertTrue(detector.isEjected(SICK));
+        assertEquals(List.of(HEALTHY), detector.available(List.of(HEALTHY, SICK)));
+        assertEquals(1, meterRegistry.get("composite.outlier.ejections").tag("instance", "sick:8080").counter().count());
+    }
+
+    @Test
+    void successResetsFailures() {
+        OutlierDetector detector = createDetector(60000);
+
+        call(detector, SICK, HttpStatus.INTERNAL_SERVER_ERROR);
+        call(detector, SICK, HttpStatus.INTERNAL_SERVER_ERROR);
+        call(detector, SICK, HttpStatus.NOT_FOUND);
+        call(detector, SICK, HttpStatus.INTERNAL_SERVER_ERROR);
+        call(detector, SICK, HttpStatus.INTERNAL_SERVER_ERROR);
+
+        assertFalse(detector.isEjected(SICK));
+    }
+
+    @Test
+    void readmitWithExponentialEjectionTime() {
+        OutlierDetector detector = createDetector(100);
+
+        eject(detector, SICK);
+        sleep(150);
+        assertFalse(detector.isEjected(SICK));
+
+        // Ejected for twice as long, the instance did not succeed in between
+        eject(detector, SICK);
+        sleep(150);
+        assertTrue(detector.isEjected(SICK));
+        sleep(100);
+        assertFalse(detector.isEjected(SICK));
+
+        // Back to the base ejection time after a success
+        call(detector, SICK, HttpStatus.OK);
+        eject(detector, SICK);
+        sleep(150);
+        assertFalse(detector.isEjected(SICK));
+    }
+
+    @Test
+    void useAllInstancesIfAllAreEjected() {
+        OutlierDetector detector = createDetector(60000);
+
+        eject(detector, HEALTHY);
+        eject(detector, SICK);
+
+        assertEquals(List.of(HEALTHY, SICK), detector.available(List.of(HEALTHY, SICK)));
+    }
+
+    @Test
+    void slowCancelledCallsAreFailures() {
+        OutlierDetector detector = createDetector(60000);
+
+        for (int i = 0; i < 3; i++) {
+            Disposable fastCancel = callPending(detector, SICK);
+            fastCancel.dispose();
+        }
+        assertFalse(detector.isEjected(SICK));
+
+        for (int i = 0; i < 3; i++) {
+            Disposable slowCancel = callPending(detector, SICK);
+            sleep(60);
+            slowCancel.dispose();
+        }
+        assertTrue(detector.isEjected(SICK));
+    }
+
+    @Test
+    void disabled() {
+        OutlierDetector detector = new OutlierDetector(meterRegistry, false, 3, 50, 60000, 60000);
+
+        eject(detector, SICK);
+
+        assertFalse(detector.isEjected(SICK));
+    }
+
+    private OutlierDetector createDetector(long baseEjectionMillis) {
+        return new OutlierDetector(meterRegistry, true, 3, 50, baseEjectionMillis, 60000);
+    }
+
+    private static void eject(OutlierDetector detector, ServiceInstance instance) {
+        for (int i = 0; i < 3; i++) {
+            detector.recordFailure(instance);
+        }
+    }
+
+    private static void call(OutlierDetector detector, ServiceInstance instance, HttpStatus status) {
+        detector.filter()
+                .filter(request(instance), _ -> Mono.just(ClientResponse.create(status).build()))
+                .block();
+    }
+
+    private static void callFailing(OutlierDetector detector, ServiceInstance instance) {
+        detector.filter()
+                .filter(request(instance), _ -> Mono.error(new IOException("Connection refused")))
+                .onErrorComplete()
+                .block();
+    }
+
+    private static Disposable callPending(OutlierDetector detector, ServiceInstance instance) {
+        return detector.filter()
+                .filter(request(instance), _ -> Mono.never())
+                .subscribe();
+    }
+
+    private static ClientRequest request(ServiceInstance instance) {
+        return ClientRequest.create(GET, URI.create(instance.getUri() + "/review?productId=1")).build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import shop.api.composite.product.ProductAggregate;
+import shop.microservices.composite.product.services.ProductAggregateCache;
+import shop.microservices.composite.product.services.Tagged;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProductAggregateCacheTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void hitAfterMiss() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+
+        assertEquals("name", cache.get(1, this::load).block().value().name());
+        assertEquals("name", cache.get(1, this::load).block().value().name());
+
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void invalidate() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+
+        cache.get(1, this::load).block();
+        cache.invalidate(1);
+        cache.get(1, this::load).block();
+
+        assertEquals(2, loads.get());
+        assertEquals(1, meterRegistry.get("cache.invalidations").counter().count());
+    }
+
+    @Test
+    void invalidateWhileLoading() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+
+        // An event arriving while the aggregate is loaded must not let the stale result into the cache
+        cache.get(1, productId -> load(productId).doOnNext(_ -> cache.invalidate(productId))).block();
+        cache.get(1, this::load).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void invalidateOtherProductWhileLoading() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+
+        // An event for another product does not keep this one out of the cache
+        cache.get(1, productId -> load(productId).doOnNext(_ -> cache.invalidate(2))).block();
+        cache.get(1, this::load).block();
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidateWhileConcurrentLoads() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+        Sinks.One<ProductAggregate> slowLoad = Sinks.one();
+
+        // The slow load started before the invalidation, the fast one after it
+        Mono<Tagged<ProductAggregate>> slow = cache.get(1, _ -> slowLoad.asMono().map(aggregate -> new Tagged<>(aggregate, null)))
+                .cache();
+        slow.subscribe();
+        cache.invalidate(1);
+        cache.get(1, this::load).block();
+        slowLoad.tryEmitValue(new ProductAggregate(1, "stale", 1, null, null, null));
+
+        assertEquals("stale", slow.block().value().name());
+        assertEquals("name", cache.get(1, this::load).block().value().name());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void disabled() {
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, false, 10, 60);
+
+        cache.get(1, this::load).block();
+        cache.get(1, this::load).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    private Mono<Tagged<ProductAggregate>> load(int productId) {
+        return Mono.fromCallable(() -> {
+            loads.incrementAndGet();
+            return new Tagged<>(new ProductAggregate(productId, "name", 1, null, null, null), null);
+        });
+    }
+}
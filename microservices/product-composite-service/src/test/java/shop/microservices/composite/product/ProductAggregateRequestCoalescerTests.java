@@ -0,0 +1,135 @@
+package shop.microservices.composite.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import shop.api.composite.product.ProductAggregate;
+import shop.api.exceptions.DeadlineExceededException;
+import shop.microservices.composite.product.services.ProductAggregateCache;
+import shop.microservices.composite.product.services.ProductAggregateRequestCoalescer;
+import shop.microservices.composite.product.services.Tagged;
+import shop.util.http.Deadline;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductAggregateRequestCoalescerTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void concurrentRequestsShareOneLoad() {
+        ProductAggregateRequestCoalescer coalescer = new ProductAggregateRequestCoalescer(meterRegistry, true, 0);
+        Sinks.One<ProductAggregate> response = Sinks.one();
+
+        CompletableFuture<Tagged<ProductAggregate>> first = coalescer.coalesce(1, productId -> load(response)).toFuture();
+        CompletableFuture<Tagged<ProductAggregate>> second = coalescer.coalesce(1, productId -> load(response)).toFuture();
+
+        response.tryEmitValue(new ProductAggregate(1, "name", 1, null, null, null));
+
+        assertEquals("name", first.join().value().name());
+        assertEquals("name", second.join().value().name());
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.get("composite.requests.coalesced").counter().count());
+        assertEquals(0, meterRegistry.get("composite.requests.inflight").gauge().value());
+    }
+
+    @Test
+    void requestsAfterCompletionStartNewLoad() {
+        ProductAggregateRequestCoalescer coalescer = new ProductAggregateRequestCoalescer(meterRegistry, true, 0);
+
+        coalescer.coalesce(1, productId -> load(productId)).block();
+        coalescer.coalesce(1, productId -> load(productId)).block();
+
+        assertEquals(2, loads.get());
+        assertEquals(0, meterRegistry.get("composite.requests.coalesced").counter().count());
+    }
+
+    @Test
+    void errorsAreShared() {
+        ProductAggregateRequestCoalescer coalescer = new ProductAggregateRequestCoalescer(meterRegistry, true, 0);
+        Sinks.One<ProductAggregate> response = Sinks.one();
+
+        CompletableFuture<Tagged<ProductAggregate>> first = coalescer.coalesce(1, productId -> load(response)).toFuture();
+        CompletableFuture<Tagged<ProductAggregate>> second = coalescer.coalesce(1, productId -> load(response)).toFuture();
+
+        response.tryEmitError(new IllegalStateException("failed"));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void requestsAfterInvalidationStartNewLoad() {
+        ProductAggregateRequestCoalescer coalescer = new ProductAggregateRequestCoalescer(meterRegistry, true, 0);
+        ProductAggregateCache cache = new ProductAggregateCache(meterRegistry, true, 10, 60);
+        Sinks.One<ProductAggregate> staleResponse = Sinks.one();
+        Sinks.One<ProductAggregate> freshResponse = Sinks.one();
+
+        // The first load started before the invalidation, the second request arrives after it
+        CompletableFuture<Tagged<ProductAggregate>> first = cache.get(1, id -> coalescer.coalesce(id, _ -> load(staleResponse))).toFuture();
+        coalescer.invalidate(1);
+        cache.invalidate(1);
+        CompletableFuture<Tagged<ProductAggregate>> second = cache.get(1, id -> coalescer.coalesce(id, _ -> load(freshResponse))).toFuture();
+
+        staleResponse.tryEmitValue(new ProductAggregate(1, "stale", 1, null, null, null));
+        freshResponse.tryEmitValue(new ProductAggregate(1, "fresh", 1, null, null, null));
+
+        assertEquals("stale", first.join().value().name());
+        assertEquals("fresh", second.join().value().name());
+        assertEquals("fresh", cache.getIfPresent(1).block().value().name());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void callersKeepTheirOwnDeadlines() {
+        ProductAggregateRequestCoalescer coalescer = new ProductAggregateRequestCoalescer(meterRegistry, true, 5000);
+        Sinks.One<ProductAggregate> response = Sinks.one();
+        AtomicReference<Duration> loadDeadline = new AtomicReference<>();
+
+        // The load is bound by the service's default timeout, not by the deadline of the caller that started it
+        Mono<Tagged<ProductAggregate>> load = Mono.deferContextual(context -> {
+            loadDeadline.set(Deadline.fromContext(context).map(Deadline::remaining).orElse(null));
+            return load(response);
+        });
+        CompletableFuture<Tagged<ProductAggregate>> impatient = Deadline.enforce(coalescer.coalesce(1, _ -> load))
+                .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ofMillis(50))))
+                .toFuture();
+        CompletableFuture<Tagged<ProductAggregate>> patient = Deadline.enforce(coalescer.coalesce(1, _ -> load))
+                .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ofSeconds(5))))
+                .toFuture();
+
+        CompletionException thrown = assertThrows(CompletionException.class, impatient::join);
+        assertInstanceOf(DeadlineExceededException.class, thrown.getCause());
+        assertFalse(patient.isDone());
+        assertTrue(loadDeadline.get().compareTo(Duration.ofSeconds(4)) > 0);
+
+        response.tryEmitValue(new ProductAggregate(1, "name", 1, null, null, null));
+
+        assertEquals("name", patient.join().value().name());
+        assertEquals(1, loads.get());
+    }
+
+    private Mono<Tagged<ProductAggregate>> load(Sinks.One<ProductAggregate> response) {
+        loads.incrementAndGet();
+        return response.asMono().map(aggregate -> new Tagged<>(aggregate, null));
+    }
+
+    private Mono<Tagged<ProductAggregate>> load(int productId) {
+        loads.incrementAndGet();
+        return Mono.just(new Tagged<>(new ProductAggregate(productId, "name", 1, null, null, null), null));
+    }
+}
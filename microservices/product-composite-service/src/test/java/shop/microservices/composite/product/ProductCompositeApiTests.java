@@ -5,32 +5,64 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import shop.api.composite.product.ProductAggregate;
 import shop.api.core.product.Product;
+import shop.api.core.product.ProductPage;
+import shop.api.core.rating.RatingSummary;
 import shop.api.core.recommendation.Recommendation;
 import shop.api.core.review.Review;
 import shop.api.exceptions.InvalidInputException;
 import shop.api.exceptions.NotFoundException;
 import shop.microservices.composite.product.services.ProductCompositeIntegration;
+import shop.util.http.Deadline;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 
 @AutoConfigureMockMvc
-@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"eureka.client.enabled=false"})
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {"eureka.client.enabled=false", "app.recommendations.top=2"})
 class ProductCompositeApiTests {
 
     private static final int PRODUCT_ID_OK = 1;
     private static final int PRODUCT_ID_NOT_FOUND = 2;
     private static final int PRODUCT_ID_INVALID = 3;
+    private static final int PRODUCT_ID_SLOW = 4;
+    private static final int PRODUCT_ID_REVIEWS_ONLY = 8;
+    private static final int PRODUCT_ID_RECOMMENDATIONS_FAILING = 9;
+    private static final int PRODUCT_ID_NOT_MODIFIED = 10;
+    private static final int PRODUCT_ID_RATINGS_ONLY = 11;
+    private static final int PRODUCT_ID_TOP_RECOMMENDATIONS = 12;
+
+    private static final int TOP = 2;
 
     @Autowired
     private WebTestClient client;
@@ -41,32 +73,83 @@ class ProductCompositeApiTests {
     @BeforeEach
     void setUp() {
         when(compositeIntegration.getProduct(PRODUCT_ID_OK))
-                .thenReturn(Mono.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
-        when(compositeIntegration.getRecommendations(PRODUCT_ID_OK))
-                .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
+                .thenReturn(Mono.just(tagged(new Product(PRODUCT_ID_OK, "name", 1, "mock-address"), "W/\"p1\"")));
+        when(compositeIntegration.getTopRecommendations(PRODUCT_ID_OK, TOP, "rating"))
+                .thenReturn(Mono.just(tagged(List.of(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")), "W/\"r1\"")));
         when(compositeIntegration.getReviews(PRODUCT_ID_OK))
-                .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", 4, LocalDate.now(), "mock address")));
+                .thenReturn(Mono.just(tagged(List.of(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", 4, LocalDate.now(), "mock address")), "W/\"v1\"")));
+        when(compositeIntegration.getReviewsAsJson(PRODUCT_ID_OK))
+                .thenReturn(Flux.just(
+                        "[{\"productId\":1,\"reviewId\":1,\"author\":\"author\",\"subject\":\"subj",
+                        "ect\",\"content\":\"content\",\"rating\":4,\"date\":\"2025-01-01\",\"serviceAddress\":\"mock address\"}]"
+                ).map(ProductCompositeApiTests::toDataBuffer));
         when(compositeIntegration.getProduct(PRODUCT_ID_INVALID))
                 .thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
         when(compositeIntegration.getProduct(PRODUCT_ID_NOT_FOUND))
                 .thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
+        when(compositeIntegration.getProduct(PRODUCT_ID_SLOW)).thenReturn(Mono.never());
+        when(compositeIntegration.getTopRecommendations(PRODUCT_ID_SLOW, TOP, "rating")).thenReturn(Mono.just(ResponseEntity.ok(List.of())));
+        when(compositeIntegration.getReviews(PRODUCT_ID_SLOW)).thenReturn(Mono.just(ResponseEntity.ok(List.of())));
+
+        when(compositeIntegration.getProduct(PRODUCT_ID_REVIEWS_ONLY))
+                .thenReturn(Mono.just(tagged(new Product(PRODUCT_ID_REVIEWS_ONLY, "name", 1, "mock-address"), "W/\"p8\"")));
+        when(compositeIntegration.getReviews(PRODUCT_ID_REVIEWS_ONLY))
+                .thenReturn(Mono.just(tagged(List.of(new Review(PRODUCT_ID_REVIEWS_ONLY, 1, "author", "subject", "content", 2, LocalDate.now(), "mock address")), "W/\"v8\"")));
+
+        when(compositeIntegration.getProduct(PRODUCT_ID_RECOMMENDATIONS_FAILING))
+                .thenReturn(Mono.just(tagged(new Product(PRODUCT_ID_RECOMMENDATIONS_FAILING, "name", 1, "mock-address"), "W/\"p9\"")));
+        when(compositeIntegration.getTopRecommendations(PRODUCT_ID_RECOMMENDATIONS_FAILING, TOP, "rating"))
+                .thenReturn(Mono.error(new RuntimeException("recommendation-service is down")));
+        when(compositeIntegration.getReviews(PRODUCT_ID_RECOMMENDATIONS_FAILING)).thenReturn(Mono.just(tagged(List.of(), "W/\"v9\"")));
+
+        when(compositeIntegration.getProduct(PRODUCT_ID_NOT_MODIFIED, "W/\"p10\""))
+                .thenReturn(Mono.just(ResponseEntity.status(NOT_MODIFIED).build()));
+        when(compositeIntegration.getTopRecommendations(PRODUCT_ID_NOT_MODIFIED, TOP, "rating", "W/\"r10\""))
+                .thenReturn(Mono.just(ResponseEntity.status(NOT_MODIFIED).build()));
+        when(compositeIntegration.getReviews(PRODUCT_ID_NOT_MODIFIED, "W/\"v10\""))
+                .thenReturn(Mono.just(ResponseEntity.status(NOT_MODIFIED).build()));
+
+        when(compositeIntegration.getProduct(PRODUCT_ID_RATINGS_ONLY))
+                .thenReturn(Mono.just(tagged(new Product(PRODUCT_ID_RATINGS_ONLY, "name", 1, "mock-address"), "W/\"p11\"")));
+        when(compositeIntegration.getRecommendationRatings(PRODUCT_ID_RATINGS_ONLY))
+                .thenReturn(Mono.just(RatingSummary.of(0, 0, 0, 1, 1)));
+        when(compositeIntegration.getReviewRatings(PRODUCT_ID_RATINGS_ONLY))
+                .thenReturn(Mono.just(RatingSummary.of(2, 0, 0, 10, 1188)));
+
+        when(compositeIntegration.getProduct(PRODUCT_ID_TOP_RECOMMENDATIONS))
+                .thenReturn(Mono.just(tagged(new Product(PRODUCT_ID_TOP_RECOMMENDATIONS, "name", 1, "mock-address"), "W/\"p12\"")));
+        when(compositeIntegration.getTopRecommendations(PRODUCT_ID_TOP_RECOMMENDATIONS, TOP, "rating"))
+                .thenReturn(Mono.just(tagged(List.of(
+                        new Recommendation(PRODUCT_ID_TOP_RECOMMENDATIONS, 2, "author", 5, "content", "mock address"),
+                        new Recommendation(PRODUCT_ID_TOP_RECOMMENDATIONS, 1, "author", 4, "content", "mock address")), "W/\"r12\"")));
+        when(compositeIntegration.getRecommendationRatings(PRODUCT_ID_TOP_RECOMMENDATIONS))
+                .thenReturn(Mono.just(RatingSummary.of(3, 0, 0, 1, 1)));
+        when(compositeIntegration.getReviews(PRODUCT_ID_TOP_RECOMMENDATIONS)).thenReturn(Mono.just(tagged(List.of(), "W/\"v12\"")));
 
         when(compositeIntegration.getAllProducts())
                 .thenReturn(Flux.just(
                         new Product(5, "water", 1, "mock-address"),
                         new Product(6, "bread", 2, "mock-address"),
                         new Product(7, "sugar", 3, "mock-address")));
-        when(compositeIntegration.getRecommendations(5))
-                .thenReturn(Flux.just(
-                        new Recommendation(5, 5, "author", 5, "content", "mock address")
-                ));
-        when(compositeIntegration.getRecommendations(6)).thenReturn(Flux.just());
-        when(compositeIntegration.getRecommendations(7)).thenReturn(Flux.just());
-        when(compositeIntegration.getReviews(5)).thenReturn(Flux.just(
-                new Review(5, 5, "author", "subject", "content", 5, LocalDate.now(), "mock address")
-        ));
-        when(compositeIntegration.getReviews(6)).thenReturn(Flux.just());
-        when(compositeIntegration.getReviews(7)).thenReturn(Flux.just());
+        when(compositeIntegration.getTopRecommendationsByProductIds(Set.of(5, 6, 7), TOP, "rating"))
+                .thenReturn(Mono.just(Map.of(5, List.of(
+                        new Recommendation(5, 5, "author", 5, "content", "mock address")))));
+        when(compositeIntegration.getReviewsByProductIds(Set.of(5, 6, 7)))
+                .thenReturn(Mono.just(Map.of(5, List.of(
+                        new Review(5, 5, "author", "subject", "content", 5, LocalDate.now(), "mock address")))));
+        when(compositeIntegration.getRecommendationRatingsByProductIds(Set.of(5, 6, 7)))
+                .thenReturn(Mono.just(Map.of(5, RatingSummary.of(0, 0, 0, 0, 1))));
+        when(compositeIntegration.getReviewRatingsByProductIds(Set.of(5, 6, 7)))
+                .thenReturn(Mono.just(Map.of(5, RatingSummary.of(0, 0, 1, 0, 1))));
+        when(compositeIntegration.getProductPage(2, null, null, null, null, "productId"))
+                .thenReturn(Mono.just(new ProductPage(List.of(
+                        new Product(5, "water", 1, "mock-address"),
+                        new Product(6, "bread", 2, "mock-address")), "next")));
+        when(compositeIntegration.getTopRecommendationsByProductIds(Set.of(5, 6), TOP, "rating"))
+                .thenReturn(Mono.just(Map.of()));
+        when(compositeIntegration.getReviewsByProductIds(Set.of(5, 6)))
+                .thenReturn(Mono.just(Map.of(6, List.of(
+                        new Review(6, 6, "author", "subject", "content", 3, LocalDate.now(), "mock address")))));
     }
 
     @Test
@@ -74,7 +157,31 @@ class ProductCompositeApiTests {
         getAndVerifyProduct(PRODUCT_ID_OK, OK)
                 .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
                 .jsonPath("$.recommendations.length()").isEqualTo(1)
-                .jsonPath("$.reviews.length()").isEqualTo(1);
+                .jsonPath("$.reviews.length()").isEqualTo(1)
+                .jsonPath("$.ratings.recommendations.count").isEqualTo(1)
+                .jsonPath("$.ratings.recommendations.histogram[0]").isEqualTo(1)
+                .jsonPath("$.ratings.reviews.count").isEqualTo(1)
+                .jsonPath("$.ratings.reviews.sum").isEqualTo(4)
+                .jsonPath("$.ratings.reviews.histogram[3]").isEqualTo(1);
+
+        // All recommendations are within the top, their ratings are summarized from them
+        verify(compositeIntegration, never()).getRecommendationRatings(PRODUCT_ID_OK);
+    }
+
+    @Test
+    void getProductWithTopRecommendations() {
+        // The recommendations are cut off at the top, their ratings are looked up, covered by the tag of the top
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_TOP_RECOMMENDATIONS)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().valueEquals(ETAG, "W/\"p12.r12.v12\"")
+                .expectBody()
+                .jsonPath("$.recommendations.length()").isEqualTo(2)
+                .jsonPath("$.recommendations[0].rate").isEqualTo(5)
+                .jsonPath("$.ratings.recommendations.count").isEqualTo(5)
+                .jsonPath("$.ratings.recommendations.sum").isEqualTo(12);
     }
 
     @Test
@@ -89,6 +196,18 @@ class ProductCompositeApiTests {
                 .jsonPath("$.message").isEqualTo("NOT FOUND: " + PRODUCT_ID_NOT_FOUND);
     }
 
+    @Test
+    void getProductDeadlineExceeded() {
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_SLOW)
+                .header(Deadline.TIMEOUT_HEADER, "100")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(GATEWAY_TIMEOUT)
+                .expectBody()
+                .jsonPath("$.path").isEqualTo("/product-composite/" + PRODUCT_ID_SLOW);
+    }
+
     @Test
     void getReviewsByProductId() {
         client.get()
@@ -99,7 +218,150 @@ class ProductCompositeApiTests {
                 .expectHeader().contentType(APPLICATION_JSON)
                 .expectBody()
                 .jsonPath("$.length()").isEqualTo(1)
-                .jsonPath("$[0].rating").isEqualTo(4);
+                .jsonPath("$[0].subject").isEqualTo("subject")
+                .jsonPath("$[0].rating").isEqualTo(4)
+                .jsonPath("$[0].productId").doesNotExist()
+                .jsonPath("$[0].date").doesNotExist()
+                .jsonPath("$[0].serviceAddress").doesNotExist();
+    }
+
+    @Test
+    void getProductWithFailingRecommendations() {
+        getAndVerifyProduct(PRODUCT_ID_RECOMMENDATIONS_FAILING, OK)
+                .jsonPath("$.recommendations.length()").isEqualTo(0)
+                .jsonPath("$.reviews.length()").isEqualTo(0)
+                .jsonPath("$.staleParts.length()").isEqualTo(1)
+                .jsonPath("$.staleParts[0]").isEqualTo("recommendations");
+
+        // The versions of the last known good recommendations are not known
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_RECOMMENDATIONS_FAILING)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().doesNotExist(ETAG);
+    }
+
+    @Test
+    void getProductWithETag() {
+        String eTag = "W/\"p1.r1.v1\"";
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().valueEquals(ETAG, eTag);
+
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK)
+                .header(IF_NONE_MATCH, eTag)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(NOT_MODIFIED)
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void getProductNotModifiedByCoreServices() {
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_NOT_MODIFIED)
+                .header(IF_NONE_MATCH, "W/\"p10.r10.v10\"")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(NOT_MODIFIED)
+                .expectHeader().valueEquals(ETAG, "W/\"p10.r10.v10\"")
+                .expectBody().isEmpty();
+
+        verify(compositeIntegration, never()).getProduct(PRODUCT_ID_NOT_MODIFIED);
+    }
+
+    @Test
+    void getProductWithReviewsOnly() {
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_REVIEWS_ONLY + "?include=reviews")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().valueEquals(ETAG, "W/\"p8.-.v8\"")
+                .expectBody()
+                .jsonPath("$.productId").isEqualTo(PRODUCT_ID_REVIEWS_ONLY)
+                .jsonPath("$.eTag").doesNotExist()
+                .jsonPath("$.recommendations").doesNotExist()
+                .jsonPath("$.reviews.length()").isEqualTo(1);
+
+        verify(compositeIntegration, never()).getTopRecommendations(anyInt(), anyInt(), anyString());
+    }
+
+    @Test
+    void getProductWithRatingsOnly() {
+        // The ratings are looked up, they have no tag without the recommendations and reviews
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_RATINGS_ONLY + "?include=ratings")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().doesNotExist(ETAG)
+                .expectBody()
+                .jsonPath("$.recommendations").doesNotExist()
+                .jsonPath("$.reviews").doesNotExist()
+                .jsonPath("$.ratings.recommendations.count").isEqualTo(2)
+                .jsonPath("$.ratings.recommendations.sum").isEqualTo(9)
+                .jsonPath("$.ratings.reviews.count").isEqualTo(1200)
+                .jsonPath("$.ratings.reviews.sum").isEqualTo(5982)
+                .jsonPath("$.ratings.reviews.histogram[4]").isEqualTo(1188);
+
+        verify(compositeIntegration, never()).getTopRecommendations(eq(PRODUCT_ID_RATINGS_ONLY), anyInt(), anyString());
+        verify(compositeIntegration, never()).getReviews(PRODUCT_ID_RATINGS_ONLY);
+    }
+
+    @Test
+    void getProductInvalidInclude() {
+        client.get()
+                .uri("/product-composite/" + PRODUCT_ID_OK + "?include=questions")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Invalid include: questions, must be recommendations, reviews or ratings");
+    }
+
+    @Test
+    void getAllProductsWithoutParts() {
+        client.get()
+                .uri("/product-composite?include=")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].name").isEqualTo("water")
+                .jsonPath("$[0].recommendations").doesNotExist()
+                .jsonPath("$[0].reviews").doesNotExist();
+
+        verify(compositeIntegration, never()).getTopRecommendationsByProductIds(anySet(), anyInt(), anyString());
+        verify(compositeIntegration, never()).getReviewsByProductIds(anySet());
+        verify(compositeIntegration, never()).getRecommendationRatingsByProductIds(anySet());
+        verify(compositeIntegration, never()).getReviewRatingsByProductIds(anySet());
+    }
+
+    @Test
+    void getAllProductsWithRatingsOnly() {
+        client.get()
+                .uri("/product-composite?include=ratings")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].reviews").doesNotExist()
+                .jsonPath("$[0].ratings.recommendations.sum").isEqualTo(5)
+                .jsonPath("$[0].ratings.reviews.count").isEqualTo(2)
+                .jsonPath("$[1].ratings.reviews.count").isEqualTo(0)
+                .jsonPath("$[1].ratings.reviews.histogram.length()").isEqualTo(5);
+
+        verify(compositeIntegration, never()).getTopRecommendationsByProductIds(anySet(), anyInt(), anyString());
+        verify(compositeIntegration, never()).getReviewsByProductIds(anySet());
     }
 
     @Test
@@ -116,7 +378,85 @@ class ProductCompositeApiTests {
                 .jsonPath("$[0].recommendations[0].author").isEqualTo("author")
                 .jsonPath("$[0].reviews[0].author").isEqualTo("author")
                 .jsonPath("$[1].name").isEqualTo("bread")
+                .jsonPath("$[1].recommendations.length()").isEqualTo(0)
+                .jsonPath("$[1].reviews.length()").isEqualTo(0)
                 .jsonPath("$[2].name").isEqualTo("sugar");
+
+        verify(compositeIntegration, never()).getRecommendationRatingsByProductIds(anySet());
+    }
+
+    @Test
+    void getAllProductsAsNdjson() {
+        List<ProductAggregate> products = client.get()
+                .uri("/product-composite")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_NDJSON)
+                .returnResult(ProductAggregate.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertNotNull(products);
+        assertEquals(3, products.size());
+        assertEquals("water", products.getFirst().name());
+        assertEquals(1, products.getFirst().reviews().size());
+    }
+
+    @Test
+    void getAllProductsStreamedPastDeadline() {
+        // The products keep coming within the deadline of the request, but the whole listing takes longer than it
+        when(compositeIntegration.getAllProducts())
+                .thenReturn(Deadline.enforceIdle(Flux.just(
+                                new Product(5, "water", 1, "mock-address"),
+                                new Product(6, "bread", 2, "mock-address"),
+                                new Product(7, "sugar", 3, "mock-address"))
+                        .delayElements(Duration.ofMillis(100))));
+        when(compositeIntegration.getReviewsByProductIds(Set.of(5, 6, 7)))
+                .thenReturn(Deadline.enforce(Mono.just(Map.of(5, List.of(
+                        new Review(5, 5, "author", "subject", "content", 5, LocalDate.now(), "mock address"))))));
+
+        List<ProductAggregate> products = client.get()
+                .uri("/product-composite")
+                .header(Deadline.TIMEOUT_HEADER, "200")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .returnResult(ProductAggregate.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertNotNull(products);
+        assertEquals(3, products.size());
+        assertEquals(1, products.getFirst().reviews().size());
+        // Fetched within the chunk's own deadline, not served from the last known good values
+        assertNull(products.getFirst().staleParts());
+    }
+
+    @Test
+    void getProductPage() {
+        client.get()
+                .uri("/product-composite?limit=2")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.products.length()").isEqualTo(2)
+                .jsonPath("$.products[0].name").isEqualTo("water")
+                .jsonPath("$.products[0].reviews.length()").isEqualTo(0)
+                .jsonPath("$.products[1].reviews[0].rating").isEqualTo(3)
+                .jsonPath("$.nextPageToken").isEqualTo("next");
+    }
+
+    private static <T> ResponseEntity<T> tagged(T body, String eTag) {
+        return ResponseEntity.ok().eTag(eTag).body(body);
+    }
+
+    private static DataBuffer toDataBuffer(String json) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(json.getBytes(UTF_8));
     }
 
     private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
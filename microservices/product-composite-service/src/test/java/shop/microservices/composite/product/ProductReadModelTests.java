@@ -0,0 +1,228 @@
+package shop.microservices.composite.product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import shop.api.composite.product.ProductAggregate;
+import shop.api.composite.product.RecommendationSummary;
+import shop.api.composite.product.ReviewSummary;
+import shop.api.core.product.Product;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.review.Review;
+import shop.api.event.Event;
+import shop.microservices.composite.product.services.ProductReadModel;
+import shop.util.http.ServiceUtil;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static shop.api.event.Event.Type.CREATE;
+import static shop.api.event.Event.Type.DELETE;
+
+class ProductReadModelTests {
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    private ProductReadModel readModel;
+
+    @AfterEach
+    void close() {
+        if (readModel != null) {
+            readModel.close();
+        }
+    }
+
+    @Test
+    void projectEvents() {
+        readModel = open("serve", false);
+
+        // The events of the destinations arrive in any order
+        readModel.onReviewEvent(new Event<>(CREATE, 1, review(1, 1)));
+        assertNull(readModel.get(1).block());
+
+        readModel.onProductEvent(new Event<>(CREATE, 1, new Product(1, "name", 1, null)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 1)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 2)));
+
+        ProductAggregate aggregate = readModel.get(1).block();
+        assertEquals("name", aggregate.name());
+        assertEquals(List.of(1, 2), aggregate.recommendations().stream().map(RecommendationSummary::recommendationId).toList());
+        assertEquals(List.of(1), aggregate.reviews().stream().map(ReviewSummary::reviewId).toList());
+        assertTrue(readModel.isServing());
+        assertEquals(1, meterRegistry.get("composite.readmodel.reads").tag("result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("composite.readmodel.reads").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void topRecommendations() {
+        readModel = open("serve", false, 2);
+        readModel.onProductEvent(new Event<>(CREATE, 1, new Product(1, "name", 1, null)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 1, 2)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 2, 5)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 3, 2)));
+
+        // The ratings are summarized from all recommendations, not only the top ones
+        ProductAggregate aggregate = readModel.get(1).block();
+        assertEquals(List.of(2, 1), aggregate.recommendations().stream().map(RecommendationSummary::recommendationId).toList());
+        assertEquals(3, aggregate.ratings().recommendations().count());
+        assertEquals(9, aggregate.ratings().recommendations().sum());
+    }
+
+    @Test
+    void deleteProduct() {
+        readModel = open("serve", false);
+        createProduct(1);
+
+        readModel.onProductEvent(new Event<>(DELETE, 1, null));
+        readModel.onRecommendationEvent(new Event<>(DELETE, 1, null));
+        readModel.onReviewEvent(new Event<>(DELETE, 1, null));
+
+        assertNull(readModel.get(1).block());
+    }
+
+    @Test
+    void recreateProduct() {
+        readModel = open("serve", false);
+        createProduct(1);
+
+        readModel.onReviewEvent(new Event<>(DELETE, 1, null));
+        readModel.onReviewEvent(new Event<>(CREATE, 1, review(1, 3)));
+
+        assertEquals(List.of(3), readModel.get(1).block().reviews().stream().map(ReviewSummary::reviewId).toList());
+    }
+
+    @Test
+    void reopen() {
+        readModel = open("serve", false);
+        createProduct(1);
+        readModel.close();
+
+        readModel = open("serve", false);
+
+        assertEquals("name", readModel.get(1).block().name());
+    }
+
+    @Test
+    void rebuildFromEvents() {
+        readModel = open("project", false);
+        createProduct(1);
+        createProduct(2);
+        readModel.onRecommendationEvent(new Event<>(DELETE, 2, null));
+        readModel.close();
+
+        readModel = open("serve", true);
+
+        ProductAggregate aggregate = readModel.get(2).block();
+        assertEquals("name", aggregate.name());
+        assertEquals(List.of(), aggregate.recommendations());
+        assertEquals(1, aggregate.reviews().size());
+        assertEquals(1, readModel.get(1).block().recommendations().size());
+    }
+
+    @Test
+    void duplicateCreatesKeepTheFirst() {
+        readModel = open("project", false);
+        createProduct(1);
+
+        // Rejected by the core services, which keep the first product, recommendation and review
+        readModel.onProductEvent(new Event<>(CREATE, 1, new Product(1, "other", 1, null)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 1, 5)));
+        readModel.onReviewEvent(new Event<>(CREATE, 1, review(1, 1)));
+
+        assertFirstProduct();
+        assertEquals(3, meterRegistry.get("composite.readmodel.events.skipped").counter().count());
+
+        // Not logged either
+        readModel.close();
+        readModel = open("serve", true);
+        assertFirstProduct();
+    }
+
+    @Test
+    void invalidCreatesAreSkipped() {
+        readModel = open("serve", false);
+        createProduct(1);
+
+        readModel.onProductEvent(new Event<>(CREATE, 0, new Product(0, "name", 1, null)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 2, 0)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, 1, recommendation(1, 3, 6)));
+        readModel.onReviewEvent(new Event<>(CREATE, 1, new Review(1, 2, "a", "s", "c", 6, LocalDate.now(), "sa")));
+
+        assertNull(readModel.get(0).block());
+        assertFirstProduct();
+        assertEquals(4, meterRegistry.get("composite.readmodel.events.skipped").counter().count());
+    }
+
+    @Test
+    void createsRejectedForOtherInputAreProjected() {
+        readModel = open("serve", false);
+        createProduct(1);
+
+        // A known limitation, the core service rejects the blank author but the read model does not know
+        readModel.onReviewEvent(new Event<>(CREATE, 1, new Review(1, 2, " ", "s", "c", 1, LocalDate.now(), "sa")));
+
+        assertEquals(List.of(1, 2), readModel.get(1).block().reviews().stream().map(ReviewSummary::reviewId).toList());
+    }
+
+    @Test
+    void disabled() {
+        readModel = open("disabled", false);
+        createProduct(1);
+
+        assertNull(readModel.get(1).block());
+        assertFalse(readModel.isServing());
+    }
+
+    @Test
+    void invalidMode() {
+        assertThrows(IllegalArgumentException.class, () -> open("off", false));
+    }
+
+    private void createProduct(int productId) {
+        readModel.onProductEvent(new Event<>(CREATE, productId, new Product(productId, "name", 1, null)));
+        readModel.onRecommendationEvent(new Event<>(CREATE, productId, recommendation(productId, 1)));
+        readModel.onReviewEvent(new Event<>(CREATE, productId, review(productId, 1)));
+    }
+
+    private void assertFirstProduct() {
+        ProductAggregate aggregate = readModel.get(1).block();
+        assertEquals("name", aggregate.name());
+        assertEquals(List.of(1), aggregate.recommendations().stream().map(RecommendationSummary::rate).toList());
+        assertEquals(List.of(1), aggregate.reviews().stream().map(ReviewSummary::reviewId).toList());
+        assertEquals(1, aggregate.ratings().recommendations().sum());
+    }
+
+    private ProductReadModel open(String mode, boolean rebuildOnStartup) {
+        return open(mode, rebuildOnStartup, 10);
+    }
+
+    private ProductReadModel open(String mode, boolean rebuildOnStartup, int recommendationsTop) {
+        return new ProductReadModel(mapper, new ServiceUtil("7001"), meterRegistry, mode,
+                directory.resolve("read-model.mv.db").toString(), rebuildOnStartup, recommendationsTop);
+    }
+
+    private static Recommendation recommendation(int productId, int recommendationId) {
+        return recommendation(productId, recommendationId, 1);
+    }
+
+    private static Recommendation recommendation(int productId, int recommendationId, int rate) {
+        return new Recommendation(productId, recommendationId, "a", rate, "c", "sa");
+    }
+
+    private static Review review(int productId, int reviewId) {
+        return new Review(productId, reviewId, "a", "s", "c", 1, LocalDate.now(), "sa");
+    }
+}
@@ -0,0 +1,82 @@
+package shop.microservices.composite.product;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.review.Review;
+import shop.util.http.BinaryCodecs;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the bytes on the wire and the serialization CPU time of JSON, Smile and CBOR for lists of reviews and
+ * recommendations, as sent by the core services to the composite service.
+ * <p>
+ * Run with: ./gradlew :microservices:product-composite-service:test -Pbenchmark --tests '*WireFormatBenchmark'
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class WireFormatBenchmark {
+
+    private static final int LIST_SIZE = 50;
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    private static final List<Review> REVIEWS = IntStream.rangeClosed(1, LIST_SIZE)
+            .mapToObj(i -> new Review(1, i, "Author " + i, "Subject " + i, "Content of review " + i, i % 5 + 1,
+                    LocalDate.of(2025, 1, 1).plusDays(i), "review-service-7d9f8c6b5-x2k4q/10.1.2.3:8080"))
+            .toList();
+
+    private static final List<Recommendation> RECOMMENDATIONS = IntStream.rangeClosed(1, LIST_SIZE)
+            .mapToObj(i -> new Recommendation(1, i, "Author " + i, i % 5 + 1, "Content of recommendation " + i,
+                    "recommendation-service-6c8d7b9f4-p7m2z/10.1.2.4:8080"))
+            .toList();
+
+    @Test
+    void compareWireFormats() throws IOException {
+        // Configured like the codecs of the services, see BinaryCodecs
+        ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+        compare("json", jsonMapper);
+        compare("smile", BinaryCodecs.smileMapper(jsonMapper));
+        compare("cbor", BinaryCodecs.cborMapper(jsonMapper));
+    }
+
+    private void compare(String format, ObjectMapper mapper) throws IOException {
+        run(format, "reviews", mapper, REVIEWS, new TypeReference<>() {
+        });
+        run(format, "recommendations", mapper, RECOMMENDATIONS, new TypeReference<>() {
+        });
+    }
+
+    private <T> void run(String format, String name, ObjectMapper mapper, List<T> values, TypeReference<List<T>> type)
+            throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(values);
+        assertEquals(values, mapper.readValue(bytes, type));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(values), type);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.writeValueAsBytes(values);
+        }
+        long serializeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.readValue(bytes, type);
+        }
+        long deserializeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        System.out.printf("%-5s %-15s %6d bytes, serialize %6.1f us, deserialize %6.1f us%n",
+                format, name, bytes.length, serializeNanos / 1e3, deserializeNanos / 1e3);
+    }
+}
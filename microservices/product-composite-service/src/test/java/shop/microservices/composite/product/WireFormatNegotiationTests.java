@@ -0,0 +1,156 @@
+package shop.microservices.composite.product;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+import shop.api.core.recommendation.Recommendation;
+import shop.api.core.recommendation.RecommendationService;
+import shop.util.http.BinaryCodecs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.http.HttpStatus.NOT_ACCEPTABLE;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static shop.util.http.BinaryCodecs.APPLICATION_CBOR;
+import static shop.util.http.BinaryCodecs.APPLICATION_SMILE;
+
+/**
+ * The media types of the core services' read endpoints, with the codecs of {@link BinaryCodecs}: JSON unless the
+ * client asks for Smile or CBOR in its Accept header.
+ */
+class WireFormatNegotiationTests {
+
+    private static final List<Recommendation> RECOMMENDATIONS = List.of(
+            new Recommendation(1, 1, "a", 4, "c", "adr"),
+            new Recommendation(1, 2, "b", 5, "c", "adr"));
+
+    private static final TypeReference<List<Recommendation>> RECOMMENDATION_LIST = new TypeReference<>() {
+    };
+
+    private static final TypeReference<Map<Integer, List<Recommendation>>> RECOMMENDATION_MAP = new TypeReference<>() {
+    };
+
+    private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final WebTestClient client = WebTestClient
+            .bindToController(new Recommendations())
+            .httpMessageCodecs(BinaryCodecs.codecCustomizer(jsonMapper)::customize)
+            .build();
+
+    @Test
+    void jsonStaysJson() throws IOException {
+        assertEquals(RECOMMENDATIONS, jsonMapper.readValue(get("/recommendation?productId=1", APPLICATION_JSON), RECOMMENDATION_LIST));
+        assertEquals(Map.of(1, RECOMMENDATIONS), jsonMapper.readValue(get("/recommendation/bulk?productIds=1", APPLICATION_JSON), RECOMMENDATION_MAP));
+    }
+
+    @Test
+    void jsonWithoutAccept() throws IOException {
+        byte[] body = client.get()
+                .uri("/recommendation/bulk?productIds=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_JSON)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        assertEquals(Map.of(1, RECOMMENDATIONS), jsonMapper.readValue(body, RECOMMENDATION_MAP));
+    }
+
+    @Test
+    void smileOnlyWhenAccepted() throws IOException {
+        ObjectMapper smileMapper = BinaryCodecs.smileMapper(jsonMapper);
+
+        assertEquals(RECOMMENDATIONS, smileMapper.readValue(get("/recommendation?productId=1", APPLICATION_SMILE), RECOMMENDATION_LIST));
+
+        // As the composite asks, with JSON as a fallback
+        byte[] body = client.get()
+                .uri("/recommendation?productId=1")
+                .accept(APPLICATION_SMILE, MediaType.parseMediaType("application/json;q=0.5"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_SMILE)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+        assertEquals(RECOMMENDATIONS, smileMapper.readValue(body, RECOMMENDATION_LIST));
+    }
+
+    @Test
+    void cborOnlyWhenAccepted() throws IOException {
+        ObjectMapper cborMapper = BinaryCodecs.cborMapper(jsonMapper);
+
+        assertEquals(Map.of(1, RECOMMENDATIONS), cborMapper.readValue(get("/recommendation/bulk?productIds=1", APPLICATION_CBOR), RECOMMENDATION_MAP));
+
+        // Not produced by the endpoint, and not silently answered as JSON either
+        client.get()
+                .uri("/recommendation?productId=1")
+                .accept(APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isEqualTo(NOT_ACCEPTABLE);
+    }
+
+    private byte[] get(String uri, MediaType mediaType) {
+        return client.get()
+                .uri(uri)
+                .accept(mediaType)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(mediaType)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+    }
+
+    @RestController
+    static class Recommendations implements RecommendationService {
+
+        @Override
+        public Mono<ResponseEntity<List<Recommendation>>> getRecommendations(int productId) {
+            return Mono.just(ResponseEntity.ok(RECOMMENDATIONS));
+        }
+
+        @Override
+        public Mono<Map<Integer, List<Recommendation>>> getRecommendationsByProductIds(Set<Integer> productIds) {
+            return Mono.just(Map.of(1, RECOMMENDATIONS));
+        }
+
+        @Override
+        public Mono<ResponseEntity<List<Recommendation>>> getTopRecommendations(int productId, int top, String sort) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Map<Integer, List<Recommendation>>> getTopRecommendationsByProductIds(Set<Integer> productIds, int top, String sort) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<RatingSummary> getRecommendationRatings(int productId) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Map<Integer, RatingSummary>> getRecommendationRatingsByProductIds(Set<Integer> productIds) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Recommendation> createRecommendation(Recommendation body) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public Mono<Void> deleteRecommendations(int productId) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+    }
+}
@@ -1,9 +1,37 @@
 package shop.microservices.core.product.persistence;
 
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductRepository extends R2dbcRepository<ProductEntity, Integer> {
 
     Mono<ProductEntity> findByProductId(int productId);
+
+    /**
+     * Keyset page ordered by productId, served by the unique index on product_id.
+     */
+    @Query("""
+            SELECT * FROM products
+            WHERE product_id > :afterProductId
+              AND weight BETWEEN :minWeight AND :maxWeight
+              AND name LIKE :namePattern
+            ORDER BY product_id
+            LIMIT :limit""")
+    Flux<ProductEntity> findPageOrderByProductId(
+            int afterProductId, int minWeight, int maxWeight, String namePattern, int limit);
+
+    /**
+     * Keyset page ordered by weight, served by the index on (weight, product_id).
+     */
+    @Query("""
+            SELECT * FROM products
+            WHERE (weight, product_id) > (:afterWeight, :afterProductId)
+              AND weight BETWEEN :minWeight AND :maxWeight
+              AND name LIKE :namePattern
+            ORDER BY weight, product_id
+            LIMIT :limit""")
+    Flux<ProductEntity> findPageOrderByWeight(
+            int afterWeight, int afterProductId, int minWeight, int maxWeight, String namePattern, int limit);
 }
@@ -0,0 +1,31 @@
+package shop.microservices.core.product.services;
+
+import shop.api.exceptions.InvalidInputException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The position after the last product of a page, handed to the client as an opaque token.
+ * <p>
+ * The sort order is part of the token so that a token can not be used to continue a listing in another order.
+ */
+record ProductPageToken(String sort, int weight, int productId) {
+
+    static ProductPageToken decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Expected 3 parts, got " + parts.length);
+            }
+            return new ProductPageToken(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidInputException("Invalid pageToken: " + token);
+        }
+    }
+
+    String encode() {
+        String value = sort + ":" + weight + ":" + productId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
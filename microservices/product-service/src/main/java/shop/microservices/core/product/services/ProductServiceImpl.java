@@ -2,21 +2,31 @@ package shop.microservices.core.product.services;
 
 import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import shop.api.core.product.Product;
+import shop.api.core.product.ProductPage;
 import shop.api.core.product.ProductService;
 import shop.api.exceptions.InvalidInputException;
 import shop.api.exceptions.NotFoundException;
 import shop.microservices.core.product.persistence.ProductEntity;
 import shop.microservices.core.product.persistence.ProductRepository;
+import shop.util.http.Deadline;
+import shop.util.http.EntityTags;
 import shop.util.http.ServiceUtil;
 
+import java.util.List;
+
 @RestController
 public class ProductServiceImpl implements ProductService {
 
+    private static final String SORT_BY_PRODUCT_ID = "productId";
+    private static final String SORT_BY_WEIGHT = "weight";
+
     private final ServiceUtil serviceUtil;
 
     private final ProductRepository repository;
@@ -25,15 +35,19 @@ public class ProductServiceImpl implements ProductService {
 
     private final Validator validator;
 
+    private final int maxPageLimit;
+
     @Autowired
     public ProductServiceImpl(ProductRepository repository,
                               ProductMapper mapper,
                               ServiceUtil serviceUtil,
-                              Validator validator) {
+                              Validator validator,
+                              @Value("${app.maxPageLimit:100}") int maxPageLimit) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
         this.validator = validator;
+        this.maxPageLimit = maxPageLimit;
     }
 
     @Override
@@ -59,24 +73,72 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
-    public Mono<Product> getProduct(int productId) {
+    public Mono<ResponseEntity<Product>> getProduct(int productId) {
         if (productId < 1) {
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        return repository.findByProductId(productId)
+        // Answered with 304 Not Modified and no body instead, if the tag matches the If-None-Match header
+        return Deadline.enforce(repository.findByProductId(productId))
                 .switchIfEmpty(Mono.error(new NotFoundException("No product found for productId: " + productId)))
-                .map(mapper::entityToApi)
-                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()));
+                .map(entity -> ResponseEntity.ok()
+                        .eTag(EntityTags.of(entity.getId(), entity.getVersion()))
+                        .body(mapper.entityToApi(entity).withServiceAddress(serviceUtil.getServiceAddress())));
     }
 
     @Override
     public Flux<Product> getAllProducts() {
-        return repository.findAll()
+        // Bound per product instead of as a whole, the products are streamed however many there are
+        return Deadline.enforceIdle(repository.findAll())
                 .map(mapper::entityToApi)
                 .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()));
     }
 
+    @Override
+    public Mono<ProductPage> getProductPage(int limit, String pageToken, Integer minWeight, Integer maxWeight,
+                                            String namePrefix, String sort) {
+        if (limit < 1 || limit > maxPageLimit) {
+            throw new InvalidInputException("Invalid limit: " + limit + ", must be between 1 and " + maxPageLimit);
+        }
+        if (!SORT_BY_PRODUCT_ID.equals(sort) && !SORT_BY_WEIGHT.equals(sort)) {
+            throw new InvalidInputException("Invalid sort: " + sort);
+        }
+
+        ProductPageToken after = pageToken == null ? new ProductPageToken(sort, 0, 0) : ProductPageToken.decode(pageToken);
+        if (!after.sort().equals(sort)) {
+            throw new InvalidInputException("Invalid pageToken for sort: " + sort);
+        }
+
+        int min = minWeight == null ? 0 : minWeight;
+        int max = maxWeight == null ? Integer.MAX_VALUE : maxWeight;
+        String namePattern = namePrefix == null ? "%" : escapeLike(namePrefix) + "%";
+
+        // Fetch one product more than requested to find out if there is a next page
+        Flux<ProductEntity> entities = SORT_BY_WEIGHT.equals(sort)
+                ? repository.findPageOrderByWeight(after.weight(), after.productId(), min, max, namePattern, limit + 1)
+                : repository.findPageOrderByProductId(after.productId(), min, max, namePattern, limit + 1);
+
+        return Deadline.enforce(entities)
+                .map(mapper::entityToApi)
+                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
+                .collectList()
+                .map(products -> toPage(products, limit, sort));
+    }
+
+    private ProductPage toPage(List<Product> products, int limit, String sort) {
+        if (products.size() <= limit) {
+            return new ProductPage(products, null);
+        }
+
+        List<Product> page = products.subList(0, limit);
+        Product last = page.getLast();
+        return new ProductPage(page, new ProductPageToken(sort, last.weight(), last.productId()).encode());
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     @Override
     public Mono<Void> deleteProduct(int productId) {
         if (productId < 1) {
@@ -17,4 +17,8 @@ CREATE INDEX products_product_id_idx ON products (product_id);
 
 -- Create a unique constraint on product_id to ensure uniqueness
 ALTER TABLE products
-    ADD CONSTRAINT products_product_id_unique UNIQUE (product_id);
\ No newline at end of file
+    ADD CONSTRAINT products_product_id_unique UNIQUE (product_id);
+
+-- Create indexes for the keyset pagination of products ordered by weight or filtered by name prefix
+CREATE INDEX products_weight_product_id_idx ON products (weight, product_id);
+CREATE INDEX products_name_prefix_idx ON products (name varchar_pattern_ops, product_id);
@@ -8,14 +8,18 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import shop.api.core.product.Product;
+import shop.api.core.product.ProductPage;
 import shop.api.event.Event;
 import shop.api.exceptions.InvalidInputException;
 import shop.microservices.core.product.persistence.ProductRepository;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static shop.api.event.Event.Type.CREATE;
@@ -56,6 +60,37 @@ class ProductServiceApiTests extends PostgresTestBase {
                 .jsonPath("$.productId").isEqualTo(productId);
     }
 
+    @Test
+    void getProductNotModified() {
+        int productId = 1;
+
+        sendCreateProductEvent(productId);
+
+        String eTag = getAndVerifyProduct(productId, OK)
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(eTag);
+
+        client.get()
+                .uri("/product/" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(ETAG, eTag)
+                .expectBody().isEmpty();
+
+        // A recreated product gets a new tag, although its version starts over
+        sendDeleteProductEvent(productId);
+        sendCreateProductEvent(productId);
+
+        client.get()
+                .uri("/product/" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
     @Test
     void duplicateError() {
         int productId = 1;
@@ -100,6 +135,43 @@ class ProductServiceApiTests extends PostgresTestBase {
                 .jsonPath("$.message").isEqualTo("Invalid productId: " + productIdInvalid);
     }
 
+    @Test
+    void getProductPages() {
+        for (int productId = 1; productId <= 5; productId++) {
+            sendCreateProductEvent(productId);
+        }
+
+        ProductPage firstPage = client.get()
+                .uri("/product?limit=2&minWeight=2")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ProductPage.class)
+                .returnResult().getResponseBody();
+
+        assertEquals(List.of(2, 3), firstPage.products().stream().map(Product::productId).toList());
+        String nextPageToken = firstPage.nextPageToken();
+        assertNotNull(nextPageToken);
+
+        getAndVerifyProductPage("/product?limit=2&minWeight=2&pageToken=" + nextPageToken, OK)
+                .jsonPath("$.products.length()").isEqualTo(2)
+                .jsonPath("$.products[0].productId").isEqualTo(4)
+                .jsonPath("$.products[1].productId").isEqualTo(5)
+                .jsonPath("$.nextPageToken").doesNotExist();
+    }
+
+    @Test
+    void getProductPageInvalidLimit() {
+        getAndVerifyProductPage("/product?limit=0", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid limit: 0, must be between 1 and 100");
+    }
+
+    @Test
+    void getProductPageInvalidToken() {
+        getAndVerifyProductPage("/product?limit=2&pageToken=invalid", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid pageToken: invalid");
+    }
+
     @Test
     void saveInvalidProduct() {
         Product product = new Product(1, "", 0, "SA");
@@ -122,6 +194,16 @@ class ProductServiceApiTests extends PostgresTestBase {
                 .expectBody();
     }
 
+    private WebTestClient.BodyContentSpec getAndVerifyProductPage(String uri, HttpStatus expectedStatus) {
+        return client.get()
+                .uri(uri)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(expectedStatus)
+                .expectHeader().contentType(APPLICATION_JSON)
+                .expectBody();
+    }
+
     private void sendCreateProductEvent(int productId) {
         Product product = new Product(productId, "Name " + productId, productId, "SA");
         Event<Integer, Product> event = new Event<>(CREATE, productId, product);
@@ -18,6 +18,7 @@ import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 import shop.microservices.core.recommendation.persistence.MongoDbValidationConfig;
 import shop.microservices.core.recommendation.persistence.RecommendationEntity;
+import shop.microservices.core.recommendation.persistence.RecommendationRepository;
 
 @SpringBootApplication
 @ComponentScan("shop")
@@ -28,6 +29,8 @@ public class RecommendationServiceApplication {
 
     private final ReactiveMongoOperations mongoTemplate;
 
+    private final RecommendationRepository repository;
+
     public static void main(String[] args) {
         ConfigurableApplicationContext ctx = SpringApplication.run(RecommendationServiceApplication.class, args);
 
@@ -36,8 +39,9 @@ public class RecommendationServiceApplication {
         LOG.info("Connected to MongoDb: {}:{}", mongoDbHost, mongoDbPort);
     }
 
-    public RecommendationServiceApplication(ReactiveMongoOperations reactiveMongoOperations) {
+    public RecommendationServiceApplication(ReactiveMongoOperations reactiveMongoOperations, RecommendationRepository repository) {
         this.mongoTemplate = reactiveMongoOperations;
+        this.repository = repository;
     }
 
     @EventListener(ContextRefreshedEvent.class)
@@ -49,4 +53,11 @@ public class RecommendationServiceApplication {
         resolver.resolveIndexFor(RecommendationEntity.class)
                 .forEach(e -> indexOps.createIndex(e).block());
     }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void backfillRatingsAfterStartup() {
+        // In the background, a full scan of the recommendations would hold up the startup
+        repository.backfillRatings()
+                .subscribe(null, e -> LOG.warn("Backfill of the recommendation ratings failed, retried at the next startup", e));
+    }
 }
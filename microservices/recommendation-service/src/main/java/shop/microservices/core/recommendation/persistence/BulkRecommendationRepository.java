@@ -0,0 +1,17 @@
+package shop.microservices.core.recommendation.persistence;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Set;
+
+public interface BulkRecommendationRepository {
+
+    /**
+     * Inserts the recommendations with one unordered bulk write, instead of one round trip per recommendation. A
+     * duplicate key fails only its own insert, the other recommendations are inserted.
+     *
+     * @return the indexes of the recommendations that were not inserted since their key is a duplicate
+     */
+    Mono<Set<Integer>> insertAll(List<RecommendationEntity> entities);
+}
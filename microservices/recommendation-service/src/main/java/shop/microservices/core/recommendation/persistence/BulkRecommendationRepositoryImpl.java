@@ -0,0 +1,44 @@
+package shop.microservices.core.recommendation.persistence;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.mongodb.ErrorCategory.DUPLICATE_KEY;
+import static com.mongodb.ErrorCategory.fromErrorCode;
+import static java.util.stream.Collectors.toSet;
+import static org.springframework.data.mongodb.core.BulkOperations.BulkMode.UNORDERED;
+
+class BulkRecommendationRepositoryImpl implements BulkRecommendationRepository {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    BulkRecommendationRepositoryImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<Set<Integer>> insertAll(List<RecommendationEntity> entities) {
+        // The bulk write leaves the version unset, save starts it at 0
+        entities.forEach(entity -> entity.setVersion(0));
+
+        return mongoTemplate.bulkOps(UNORDERED, RecommendationEntity.class)
+                .insert(entities)
+                .execute()
+                .map(_ -> Set.<Integer>of())
+                .onErrorResume(DuplicateKeyException.class, BulkRecommendationRepositoryImpl::duplicates);
+    }
+
+    private static Mono<Set<Integer>> duplicates(DuplicateKeyException e) {
+        if (e.getCause() instanceof MongoBulkWriteException bulkWriteException
+                && bulkWriteException.getWriteErrors().stream().allMatch(error -> fromErrorCode(error.getCode()) == DUPLICATE_KEY)) {
+            return Mono.just(bulkWriteException.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(toSet()));
+        }
+        return Mono.error(e);
+    }
+}
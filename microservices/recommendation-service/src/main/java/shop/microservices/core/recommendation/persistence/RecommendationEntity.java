@@ -11,6 +11,8 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "recommendations")
 @CompoundIndex(name = "prod-rec-id", unique = true, def = "{'productId': 1, 'recommendationId' : 1}")
+// Serves the top rated recommendations of a product, see TopRecommendationRepository
+@CompoundIndex(name = "prod-rating-rec-id", def = "{'productId': 1, 'rating': -1, 'recommendationId': 1}")
 public class RecommendationEntity {
 
     @Id
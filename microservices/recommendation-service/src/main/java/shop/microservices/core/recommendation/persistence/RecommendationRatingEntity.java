@@ -0,0 +1,73 @@
+package shop.microservices.core.recommendation.persistence;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * The number of recommendations per rating of a product, see {@link RecommendationRatingRepository}. The counts
+ * are only changed with $inc, a document is created by the first increment, so counts that were never incremented
+ * are missing and read as 0.
+ */
+@Document(collection = "recommendation_ratings")
+public class RecommendationRatingEntity {
+
+    @Id
+    private int productId;
+
+    private int stars1;
+    private int stars2;
+    private int stars3;
+    private int stars4;
+    private int stars5;
+
+    public RecommendationRatingEntity() {
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    public int getStars1() {
+        return stars1;
+    }
+
+    public void setStars1(int stars1) {
+        this.stars1 = stars1;
+    }
+
+    public int getStars2() {
+        return stars2;
+    }
+
+    public void setStars2(int stars2) {
+        this.stars2 = stars2;
+    }
+
+    public int getStars3() {
+        return stars3;
+    }
+
+    public void setStars3(int stars3) {
+        this.stars3 = stars3;
+    }
+
+    public int getStars4() {
+        return stars4;
+    }
+
+    public void setStars4(int stars4) {
+        this.stars4 = stars4;
+    }
+
+    public int getStars5() {
+        return stars5;
+    }
+
+    public void setStars5(int stars5) {
+        this.stars5 = stars5;
+    }
+}
@@ -0,0 +1,49 @@
+package shop.microservices.core.recommendation.persistence;
+
+import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The summaries of the ratings per product, in the recommendation_ratings collection.
+ * <p>
+ * The counts are incremented with $inc, atomically within their document, right after the recommendations are
+ * inserted, so that concurrent inserts for the same product can not lose an update. The two writes are not one
+ * transaction, multi-document transactions need a replica set and the MongoDB of this setup is a standalone
+ * server. A product's summary is deleted after its recommendations.
+ * <p>
+ * An increment is not idempotent. A create that fails on a duplicate key recounts the summary of its product
+ * instead, in case the duplicate is a redelivered event whose insert succeeded but whose increment did not.
+ */
+public interface RecommendationRatingRepository {
+
+    Mono<Void> addRatings(Collection<RecommendationEntity> entities);
+
+    Mono<Void> deleteRatings(int productId);
+
+    /**
+     * The summary of a product, empty if it has no recommendations.
+     */
+    Mono<RatingSummary> findRatingSummary(int productId);
+
+    /**
+     * The summaries by productId, products without recommendations are left out.
+     */
+    Mono<Map<Integer, RatingSummary>> findRatingSummariesByProductIdIn(Collection<Integer> productIds);
+
+    /**
+     * Replaces the summaries of the products with the counts of their recommendations, with one aggregation over
+     * the prod-rating-rec-id index. An increment for the same product that runs concurrently may be lost or
+     * counted twice.
+     */
+    Mono<Void> recountRatings(Collection<Integer> productIds);
+
+    /**
+     * Recounts the summaries of all products, once, for the recommendations created before their ratings were
+     * summarized. Recorded in the migrations collection when it is done, instances that start together may both
+     * run it.
+     */
+    Mono<Void> backfillRatings();
+}
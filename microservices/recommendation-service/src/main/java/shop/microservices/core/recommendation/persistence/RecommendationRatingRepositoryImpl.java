@@ -0,0 +1,129 @@
+package shop.microservices.core.recommendation.persistence;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.merge;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.ConditionalOperators.when;
+import static org.springframework.data.mongodb.core.aggregation.MergeOperation.WhenDocumentsDontMatch.insertNewDocument;
+import static org.springframework.data.mongodb.core.aggregation.MergeOperation.WhenDocumentsMatch.replaceDocument;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+class RecommendationRatingRepositoryImpl implements RecommendationRatingRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecommendationRatingRepositoryImpl.class);
+
+    private static final String MIGRATIONS = "migrations";
+    private static final String BACKFILL_MIGRATION = "recommendation_ratings-backfill";
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    RecommendationRatingRepositoryImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Mono<Void> addRatings(Collection<RecommendationEntity> entities) {
+        Map<Integer, List<RecommendationEntity>> byProductId = entities.stream()
+                .collect(groupingBy(RecommendationEntity::getProductId, TreeMap::new, toList()));
+
+        // One upsert per product, that increments the counts of all its new ratings
+        return Flux.fromIterable(byProductId.entrySet())
+                .concatMap(recommendations -> {
+                    RatingSummary ratings = RatingSummary.of(recommendations.getValue().stream()
+                            .mapToInt(RecommendationEntity::getRating));
+                    Update update = new Update();
+                    for (int rating = RatingSummary.MIN_RATING; rating <= RatingSummary.MAX_RATING; rating++) {
+                        if (ratings.countOf(rating) > 0) {
+                            update.inc("stars" + rating, ratings.countOf(rating));
+                        }
+                    }
+                    return mongoTemplate.upsert(
+                            query(where("_id").is(recommendations.getKey())), update, RecommendationRatingEntity.class);
+                })
+                .then();
+    }
+
+    @Override
+    public Mono<Void> deleteRatings(int productId) {
+        return mongoTemplate.remove(query(where("_id").is(productId)), RecommendationRatingEntity.class).then();
+    }
+
+    @Override
+    public Mono<RatingSummary> findRatingSummary(int productId) {
+        return mongoTemplate.findById(productId, RecommendationRatingEntity.class)
+                .map(RecommendationRatingRepositoryImpl::toRatingSummary)
+                .defaultIfEmpty(RatingSummary.empty());
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> findRatingSummariesByProductIdIn(Collection<Integer> productIds) {
+        return mongoTemplate.find(query(where("_id").in(productIds)), RecommendationRatingEntity.class)
+                .collectMap(RecommendationRatingEntity::getProductId, RecommendationRatingRepositoryImpl::toRatingSummary);
+    }
+
+    @Override
+    public Mono<Void> recountRatings(Collection<Integer> productIds) {
+        if (productIds.isEmpty()) {
+            return Mono.empty();
+        }
+        return recount(where("productId").in(productIds));
+    }
+
+    @Override
+    public Mono<Void> backfillRatings() {
+        Query backfilled = query(where("_id").is(BACKFILL_MIGRATION));
+
+        // An upsert, the instances that ran it concurrently all record it
+        return mongoTemplate.exists(backfilled, MIGRATIONS)
+                .filter(done -> !done)
+                .flatMap(_ -> recount(new Criteria())
+                        .then(mongoTemplate.upsert(backfilled, new Update().currentDate("completedAt"), MIGRATIONS))
+                        .doOnNext(_ -> LOG.info("Backfilled the recommendation ratings")))
+                .then();
+    }
+
+    private Mono<Void> recount(Criteria recommendations) {
+        // Covered by the prod-rating-rec-id index, the counts of each product replace its summary
+        GroupOperation counts = group("productId");
+        for (int rating = RatingSummary.MIN_RATING; rating <= RatingSummary.MAX_RATING; rating++) {
+            counts = counts.sum(when(where("rating").is(rating)).then(1).otherwise(0)).as("stars" + rating);
+        }
+        Aggregation aggregation = newAggregation(
+                match(recommendations),
+                project("productId", "rating").andExclude("_id"),
+                counts,
+                merge().intoCollection(mongoTemplate.getCollectionName(RecommendationRatingEntity.class))
+                        .whenMatched(replaceDocument())
+                        .whenNotMatched(insertNewDocument())
+                        .build());
+
+        return mongoTemplate.aggregate(aggregation, RecommendationEntity.class, Document.class).then();
+    }
+
+    private static RatingSummary toRatingSummary(RecommendationRatingEntity entity) {
+        return RatingSummary.of(entity.getStars1(), entity.getStars2(), entity.getStars3(), entity.getStars4(), entity.getStars5());
+    }
+}
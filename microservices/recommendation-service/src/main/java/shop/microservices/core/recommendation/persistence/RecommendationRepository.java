@@ -3,6 +3,11 @@ package shop.microservices.core.recommendation.persistence;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
 
-public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
+import java.util.Collection;
+
+public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String>,
+        BulkRecommendationRepository, RecommendationRatingRepository, TopRecommendationRepository {
     Flux<RecommendationEntity> findByProductId(int productId);
+
+    Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds);
 }
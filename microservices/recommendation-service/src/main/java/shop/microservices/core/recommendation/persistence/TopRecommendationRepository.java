@@ -0,0 +1,20 @@
+package shop.microservices.core.recommendation.persistence;
+
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+
+public interface TopRecommendationRepository {
+
+    /**
+     * The best rated recommendations of a product, highest rating first and by recommendationId within a rating.
+     * Served by the prod-rating-rec-id index, so only the returned recommendations are scanned, however many the
+     * product has.
+     */
+    Flux<RecommendationEntity> findTopByProductId(int productId, int top);
+
+    /**
+     * The best rated recommendations of each product, in the same order, with one aggregation for all products.
+     */
+    Flux<RecommendationEntity> findTopByProductIdIn(Collection<Integer> productIds, int top);
+}
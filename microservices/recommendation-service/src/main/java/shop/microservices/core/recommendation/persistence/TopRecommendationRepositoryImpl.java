@@ -0,0 +1,55 @@
+package shop.microservices.core.recommendation.persistence;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+
+import static org.springframework.data.domain.Sort.Direction.ASC;
+import static org.springframework.data.domain.Sort.Direction.DESC;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+class TopRecommendationRepositoryImpl implements TopRecommendationRepository {
+
+    // The order of the prod-rating-rec-id index
+    private static final Sort BY_RATING = Sort.by(DESC, "rating").and(Sort.by(ASC, "recommendationId"));
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    TopRecommendationRepositoryImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Flux<RecommendationEntity> findTopByProductId(int productId, int top) {
+        return mongoTemplate.find(
+                query(where("productId").is(productId)).with(BY_RATING).limit(top),
+                RecommendationEntity.class);
+    }
+
+    @Override
+    public Flux<RecommendationEntity> findTopByProductIdIn(Collection<Integer> productIds, int top) {
+        if (productIds.isEmpty()) {
+            return Flux.empty();
+        }
+
+        // One aggregation for all products, $topN keeps at most top recommendations per product while grouping, and
+        // $unwind keeps the recommendations of each product in their order
+        Aggregation aggregation = newAggregation(
+                match(where("productId").in(productIds)),
+                _ -> new Document("$group", new Document("_id", "$productId")
+                        .append("top", new Document("$topN", new Document("n", top)
+                                .append("sortBy", new Document("rating", -1).append("recommendationId", 1))
+                                .append("output", "$$ROOT")))),
+                _ -> new Document("$unwind", "$top"),
+                _ -> new Document("$replaceRoot", new Document("newRoot", "$top")));
+
+        return mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(RecommendationEntity.class), RecommendationEntity.class);
+    }
+}
@@ -9,9 +9,14 @@ import shop.api.core.recommendation.Recommendation;
 import shop.api.core.recommendation.RecommendationService;
 import shop.api.event.Event;
 import shop.api.exceptions.EventProcessingException;
+import shop.api.exceptions.InvalidInputException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
+import static shop.api.event.Event.Type.CREATE;
+
 @Configuration
 public class MessageProcessorConfig {
 
@@ -51,4 +56,58 @@ public class MessageProcessorConfig {
             LOG.info("Message processing done!");
         };
     }
+
+    /**
+     * The messageProcessor for batches of events, see the event-batches profile. Each run of consecutive CREATE
+     * events is created with one bulk write, the other events are processed one by one, in order.
+     * <p>
+     * Unlike the single events, duplicate and invalid recommendations are skipped and logged instead of failing
+     * the batch, and do not end up in the DLQ. Only the events that fail otherwise fail the whole batch, which is
+     * then redelivered and sent to the DLQ as a whole.
+     */
+    @Bean
+    public Consumer<List<Event<Integer, Recommendation>>> batchMessageProcessor() {
+        Consumer<Event<Integer, Recommendation>> messageProcessor = messageProcessor();
+        return events -> {
+            LOG.info("Process batch of {} messages...", events.size());
+
+            List<Recommendation> recommendations = new ArrayList<>();
+            for (Event<Integer, Recommendation> event : events) {
+                if (event.getEventType() == CREATE) {
+                    recommendations.add(event.getData());
+                } else {
+                    createRecommendations(recommendations);
+                    recommendations.clear();
+                    messageProcessor.accept(event);
+                }
+            }
+            createRecommendations(recommendations);
+
+            LOG.info("Batch processing done!");
+        };
+    }
+
+    private void createRecommendations(List<Recommendation> recommendations) {
+        if (recommendations.isEmpty()) {
+            return;
+        }
+
+        LOG.info("Create {} recommendations", recommendations.size());
+        try {
+            recommendationService.createRecommendations(recommendations).block();
+
+        } catch (InvalidInputException iie) {
+            // The bulk write is unordered, a duplicate fails only its own insert, but an invalid recommendation fails
+            // the whole batch before the write. The recommendations are created one by one to skip only the failing
+            // ones, those already inserted fail as duplicates. They would fail again if the batch was redelivered.
+            LOG.warn("Create recommendations one by one, the bulk write failed: {}", iie.getMessage());
+            recommendations.forEach(recommendation -> {
+                try {
+                    recommendationService.createRecommendation(recommendation).block();
+                } catch (InvalidInputException e) {
+                    LOG.warn("Skip recommendation with ID: {}/{}: {}", recommendation.productId(), recommendation.recommendationId(), e.getMessage());
+                }
+            });
+        }
+    }
 }
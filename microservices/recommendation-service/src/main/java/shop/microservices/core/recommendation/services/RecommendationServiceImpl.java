@@ -1,31 +1,55 @@
 package shop.microservices.core.recommendation.services;
 
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
 import shop.api.core.recommendation.Recommendation;
 import shop.api.core.recommendation.RecommendationService;
 import shop.api.exceptions.InvalidInputException;
 import shop.microservices.core.recommendation.persistence.RecommendationEntity;
 import shop.microservices.core.recommendation.persistence.RecommendationRepository;
+import shop.util.http.Deadline;
+import shop.util.http.EntityTags;
 import shop.util.http.ServiceUtil;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toSet;
+
 @RestController
 public class RecommendationServiceImpl implements RecommendationService {
 
+    private static final int MAX_TOP = 100;
+
+    private static final String SORT_BY_RATING = "rating";
+
     private final RecommendationRepository repository;
 
     private final RecommendationMapper mapper;
 
     private final ServiceUtil serviceUtil;
 
+    private final Validator validator;
+
     @Autowired
-    public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil) {
+    public RecommendationServiceImpl(
+            RecommendationRepository repository,
+            RecommendationMapper mapper,
+            ServiceUtil serviceUtil,
+            Validator validator
+    ) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
+        this.validator = validator;
     }
 
     @Override
@@ -34,26 +58,149 @@ public class RecommendationServiceImpl implements RecommendationService {
             throw new InvalidInputException("Invalid productId: " + body.productId());
         }
 
+        // Validated here like the bulk creates, the validating entity callback would throw a
+        // ConstraintViolationException instead
         RecommendationEntity entity = mapper.apiToEntity(body);
+        validate(entity);
 
         return repository.save(entity)
-                .onErrorMap(
+                .flatMap(newEntity -> repository.addRatings(List.of(newEntity)).thenReturn(newEntity))
+                .onErrorResume(
                         DuplicateKeyException.class,
-                        _ ->
+                        _ -> reconcileRatings(List.of(body)).then(Mono.error(
                                 new InvalidInputException(
-                                        "Duplicate key, Product Id: " + body.productId() + ", Recommendation Id:" + body.recommendationId()))
+                                        "Duplicate key, Product Id: " + body.productId() + ", Recommendation Id:" + body.recommendationId()))))
                 .map(mapper::entityToApi);
     }
 
     @Override
-    public Flux<Recommendation> getRecommendations(int productId) {
+    public Mono<List<Recommendation>> createRecommendations(List<Recommendation> body) {
+        body.forEach(recommendation -> {
+            if (recommendation.productId() < 1) {
+                throw new InvalidInputException("Invalid productId: " + recommendation.productId());
+            }
+        });
+        if (body.isEmpty()) {
+            return Mono.just(List.of());
+        }
+
+        // The whole batch is validated before anything is written, the validating entity callback would throw a
+        // ConstraintViolationException instead
+        List<RecommendationEntity> entities = mapper.apiListToEntityList(body);
+        entities.forEach(this::validate);
+
+        return repository.insertAll(entities)
+                .flatMap(duplicates -> {
+                    List<RecommendationEntity> inserted = IntStream.range(0, entities.size())
+                            .filter(i -> !duplicates.contains(i))
+                            .mapToObj(entities::get)
+                            .toList();
+
+                    // The bulk write is unordered, the ratings of the inserted recommendations are added even if
+                    // others are duplicates
+                    Mono<Void> addRatings = repository.addRatings(inserted);
+                    if (duplicates.isEmpty()) {
+                        return addRatings.thenReturn(mapper.entityListToApiList(inserted));
+                    }
+                    return addRatings.then(reconcileRatings(duplicates.stream().map(body::get).toList())).then(Mono.error(new InvalidInputException(
+                            "Duplicate key, Product Id/Recommendation Id: " + duplicates.stream()
+                                    .sorted()
+                                    .map(body::get)
+                                    .map(recommendation -> recommendation.productId() + "/" + recommendation.recommendationId())
+                                    .toList())));
+                });
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<Recommendation>>> getRecommendations(int productId) {
         if (productId < 1) {
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        return repository.findByProductId(productId)
+        // The tag covers all recommendations, so they are collected before the response is written
+        return Deadline.enforce(repository.findByProductId(productId).collectList())
+                .map(entities -> ResponseEntity.ok()
+                        .eTag(EntityTags.of(entities, RecommendationEntity::getId, RecommendationEntity::getVersion))
+                        .body(entities.stream()
+                                .map(mapper::entityToApi)
+                                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
+                                .toList()));
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<Recommendation>>> getTopRecommendations(int productId, int top, String sort) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        validateTop(top, sort);
+
+        // The tag also covers the ratings of all recommendations, that change when one is created below the top
+        return Deadline.enforce(Mono.zip(
+                        repository.findRatingSummary(productId),
+                        repository.findTopByProductId(productId, top).collectList()))
+                .map(ratingsAndEntities -> {
+                    EntityTags.Builder eTag = EntityTags.builder().add("ratings", ratingsAndEntities.getT1().histogram());
+                    ratingsAndEntities.getT2().forEach(entity -> eTag.add(entity.getId(), entity.getVersion()));
+                    return ResponseEntity.ok()
+                            .eTag(eTag.build())
+                            .body(ratingsAndEntities.getT2().stream()
+                                    .map(mapper::entityToApi)
+                                    .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
+                                    .toList());
+                });
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Recommendation>>> getRecommendationsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Deadline.enforce(repository.findByProductIdIn(productIds))
+                .map(mapper::entityToApi)
+                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
+                .collect(groupingBy(Recommendation::productId));
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Recommendation>>> getTopRecommendationsByProductIds(Set<Integer> productIds, int top, String sort) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+        validateTop(top, sort);
+
+        return Deadline.enforce(repository.findTopByProductIdIn(productIds, top))
                 .map(mapper::entityToApi)
-                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()));
+                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
+                .collect(groupingBy(Recommendation::productId));
+    }
+
+    /**
+     * Recounts the ratings of the products of the duplicates. They are already counted, unless a duplicate is a
+     * redelivered event whose recommendation was inserted but whose rating was not.
+     */
+    private Mono<Void> reconcileRatings(List<Recommendation> duplicates) {
+        return repository.recountRatings(duplicates.stream().map(Recommendation::productId).collect(toSet()));
+    }
+
+    private void validate(RecommendationEntity entity) {
+        var constraints = validator.validate(entity);
+        if (!constraints.isEmpty()) {
+            throw new InvalidInputException(constraints.iterator().next().getMessage());
+        }
+    }
+
+    private static void validateTop(int top, String sort) {
+        if (top < 1 || top > MAX_TOP) {
+            throw new InvalidInputException("Invalid top: " + top + ", must be between 1 and " + MAX_TOP);
+        }
+        if (!SORT_BY_RATING.equals(sort)) {
+            throw new InvalidInputException("Invalid sort: " + sort + ", must be " + SORT_BY_RATING);
+        }
     }
 
     @Override
@@ -62,6 +209,27 @@ public class RecommendationServiceImpl implements RecommendationService {
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        return repository.deleteAll(repository.findByProductId(productId));
+        return repository.deleteAll(repository.findByProductId(productId))
+                .then(repository.deleteRatings(productId));
+    }
+
+    @Override
+    public Mono<RatingSummary> getRecommendationRatings(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return Deadline.enforce(repository.findRatingSummary(productId));
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> getRecommendationRatingsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Deadline.enforce(repository.findRatingSummariesByProductIdIn(productIds));
     }
 }
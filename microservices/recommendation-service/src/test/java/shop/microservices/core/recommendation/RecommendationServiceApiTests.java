@@ -5,18 +5,28 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
 import shop.api.core.recommendation.Recommendation;
+import shop.api.core.recommendation.RecommendationService;
 import shop.api.event.Event;
 import shop.api.exceptions.InvalidInputException;
+import shop.microservices.core.recommendation.persistence.RecommendationEntity;
+import shop.microservices.core.recommendation.persistence.RecommendationRatingEntity;
 import shop.microservices.core.recommendation.persistence.RecommendationRepository;
 
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static shop.api.event.Event.Type.CREATE;
@@ -34,13 +44,24 @@ class RecommendationServiceApiTests extends MongoDbTestBase {
     @Autowired
     private RecommendationRepository repository;
 
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
     @Autowired
     @Qualifier("messageProcessor")
     private Consumer<Event<Integer, Recommendation>> messageProcessor;
 
+    @Autowired
+    @Qualifier("batchMessageProcessor")
+    private Consumer<List<Event<Integer, Recommendation>>> batchMessageProcessor;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
     @BeforeEach
     void setupDb() {
         repository.deleteAll().block();
+        mongoTemplate.remove(new Query(), RecommendationRatingEntity.class).block();
     }
 
     @Test
@@ -59,6 +80,58 @@ class RecommendationServiceApiTests extends MongoDbTestBase {
                 .jsonPath("$[2].recommendationId").isEqualTo(3);
     }
 
+    @Test
+    void getRecommendationsNotModified() {
+        int productId = 1;
+
+        sendCreateRecommendationEvent(productId, 1);
+        sendCreateRecommendationEvent(productId, 2);
+
+        String eTag = getAndVerifyRecommendationsByProductId(productId, OK)
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(eTag);
+
+        client.get()
+                .uri("/recommendation?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(ETAG, eTag)
+                .expectBody().isEmpty();
+
+        sendCreateRecommendationEvent(productId, 3);
+
+        client.get()
+                .uri("/recommendation?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3);
+    }
+
+    @Test
+    void getRecommendationsByProductIds() {
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 2);
+        sendCreateRecommendationEvent(2, 1);
+        sendCreateRecommendationEvent(3, 1);
+
+        client.get()
+                .uri("/recommendation/bulk?productIds=1,2,4")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].length()").isEqualTo(2)
+                .jsonPath("$['2'].length()").isEqualTo(1)
+                .jsonPath("$['2'][0].productId").isEqualTo(2);
+    }
+
     @Test
     void duplicateError() {
         int productId = 1;
@@ -91,6 +164,217 @@ class RecommendationServiceApiTests extends MongoDbTestBase {
         sendDeleteRecommendationEvent(productId);
     }
 
+    @Test
+    void createRecommendationsWithDuplicates() {
+        sendCreateRecommendationEvent(1, 1);
+
+        InvalidInputException thrown = assertThrows(
+                InvalidInputException.class,
+                () -> recommendationService.createRecommendations(List.of(
+                        createRecommendation(1, 1),
+                        createRecommendation(1, 2),
+                        createRecommendation(2, 1),
+                        createRecommendation(2, 1))).block());
+        assertEquals("Duplicate key, Product Id/Recommendation Id: [1/1, 2/1]", thrown.getMessage());
+
+        // The bulk write is unordered, the other recommendations and their ratings are created
+        assertEquals(2, (long) repository.findByProductId(1).count().block());
+        assertEquals(1, (long) repository.findByProductId(2).count().block());
+        getAndVerifyRecommendationRatings(1).jsonPath("$.count").isEqualTo(2);
+        getAndVerifyRecommendationRatings(2).jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    void createRecommendationsInvalid() {
+        Recommendation invalid = new Recommendation(1, 2, "", 3, RECOMMENDATION_CONTENT, "SA");
+
+        // Nothing is written if a recommendation is invalid
+        assertThrows(
+                InvalidInputException.class,
+                () -> recommendationService.createRecommendations(List.of(createRecommendation(1, 1), invalid)).block());
+        assertEquals(0, (long) repository.count().block());
+    }
+
+    @Test
+    void processEventBatch() {
+        sendCreateRecommendationEvent(2, 1);
+
+        // The last run of creates has a duplicate, 1/2, the others of the run are created by the bulk write
+        batchMessageProcessor.accept(List.of(
+                createRecommendationEvent(1, 1),
+                createRecommendationEvent(1, 2),
+                new Event<>(DELETE, 2, null),
+                createRecommendationEvent(2, 2),
+                createRecommendationEvent(1, 2)));
+
+        assertEquals(2, (long) repository.findByProductId(1).count().block());
+        assertEquals(1, (long) repository.findByProductId(2).count().block());
+
+        getAndVerifyRecommendationRatings(1).jsonPath("$.count").isEqualTo(2);
+        getAndVerifyRecommendationRatings(2).jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    void processEventBatchWithInvalidEvent() {
+        Recommendation invalid = new Recommendation(1, 2, "", 2, RECOMMENDATION_CONTENT, "SA");
+
+        // The invalid recommendation is skipped, the ones after it in the batch are created
+        batchMessageProcessor.accept(List.of(
+                createRecommendationEvent(1, 1),
+                new Event<>(CREATE, 1, invalid),
+                createRecommendationEvent(1, 3)));
+
+        assertEquals(2, (long) repository.findByProductId(1).count().block());
+        getAndVerifyRecommendationRatings(1)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(4);
+    }
+
+    @Test
+    void createInvalidRecommendation() {
+        Recommendation invalid = new Recommendation(1, 2, "a", 6, RECOMMENDATION_CONTENT, "SA");
+
+        assertThrows(InvalidInputException.class, () -> recommendationService.createRecommendation(invalid).block());
+        assertEquals(0, (long) repository.count().block());
+    }
+
+    @Test
+    void getRecommendationRatings() {
+        sendCreateRecommendationEvent(1, 1);
+        sendCreateRecommendationEvent(1, 3);
+        sendCreateRecommendationEvent(2, 5);
+
+        // The rating of a duplicate is not counted
+        assertThrows(InvalidInputException.class, () -> sendCreateRecommendationEvent(1, 3));
+
+        getAndVerifyRecommendationRatings(1)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(4)
+                .jsonPath("$.histogram[0]").isEqualTo(1)
+                .jsonPath("$.histogram[1]").isEqualTo(0)
+                .jsonPath("$.histogram[2]").isEqualTo(1);
+
+        client.get()
+                .uri("/recommendation/rating/bulk?productIds=1,2,3")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].count").isEqualTo(2)
+                .jsonPath("$['2'].sum").isEqualTo(5);
+
+        sendDeleteRecommendationEvent(1);
+
+        getAndVerifyRecommendationRatings(1)
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.histogram.length()").isEqualTo(5);
+        getAndVerifyRecommendationRatings(2)
+                .jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    void redeliveredRecommendationIsCountedOnce() {
+        // Inserted, but its rating was not added before the event was redelivered
+        repository.save(new RecommendationEntity(1, 2, "Author 2", 2, RECOMMENDATION_CONTENT + 2)).block();
+
+        // The duplicate recounts the ratings of its product
+        assertThrows(InvalidInputException.class, () -> sendCreateRecommendationEvent(1, 2));
+        assertThrows(InvalidInputException.class, () -> sendCreateRecommendationEvent(1, 2));
+
+        getAndVerifyRecommendationRatings(1)
+                .jsonPath("$.count").isEqualTo(1)
+                .jsonPath("$.sum").isEqualTo(2);
+
+        // Also when it is a duplicate of a bulk write
+        repository.save(new RecommendationEntity(2, 3, "Author 3", 3, RECOMMENDATION_CONTENT + 3)).block();
+        assertThrows(
+                InvalidInputException.class,
+                () -> recommendationService.createRecommendations(List.of(createRecommendation(2, 1), createRecommendation(2, 3))).block());
+
+        getAndVerifyRecommendationRatings(2)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(4);
+    }
+
+    @Test
+    void backfillRatings() {
+        // Created before their ratings were summarized
+        repository.save(new RecommendationEntity(1, 1, "Author 1", 1, RECOMMENDATION_CONTENT + 1)).block();
+        repository.save(new RecommendationEntity(1, 3, "Author 3", 3, RECOMMENDATION_CONTENT + 3)).block();
+        repository.save(new RecommendationEntity(2, 5, "Author 5", 5, RECOMMENDATION_CONTENT + 5)).block();
+        mongoTemplate.remove(new Query(), "migrations").block();
+
+        // A recommendation created while the backfill has not run yet
+        sendCreateRecommendationEvent(2, 4);
+
+        // As if two instances started together, both run it and record it
+        Mono.when(repository.backfillRatings(), repository.backfillRatings()).block();
+
+        getAndVerifyRecommendationRatings(1)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(4);
+        getAndVerifyRecommendationRatings(2)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(9);
+
+        // Only once
+        repository.deleteRatings(1).block();
+        repository.backfillRatings().block();
+        getAndVerifyRecommendationRatings(1).jsonPath("$.count").isEqualTo(0);
+    }
+
+    @Test
+    void getTopRecommendations() {
+        int productId = 1;
+
+        // The rating of a recommendation is its recommendationId
+        sendCreateRecommendationEvent(productId, 2);
+        sendCreateRecommendationEvent(productId, 4);
+        sendCreateRecommendationEvent(productId, 3);
+
+        String eTag = getAndVerifyRecommendationsByProductId("?productId=" + productId + "&top=2&sort=rating", OK)
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].recommendationId").isEqualTo(4)
+                .jsonPath("$[1].recommendationId").isEqualTo(3)
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(eTag);
+
+        // A recommendation below the top changes the ratings, and with them the tag
+        sendCreateRecommendationEvent(productId, 1);
+
+        client.get()
+                .uri("/recommendation?productId=" + productId + "&top=2")
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].recommendationId").isEqualTo(4);
+
+        sendCreateRecommendationEvent(2, 1);
+
+        client.get()
+                .uri("/recommendation/bulk?productIds=1,2&top=1&sort=rating")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$['1'].length()").isEqualTo(1)
+                .jsonPath("$['1'][0].recommendationId").isEqualTo(4)
+                .jsonPath("$['2'].length()").isEqualTo(1);
+    }
+
+    @Test
+    void getTopRecommendationsInvalidParameters() {
+        getAndVerifyRecommendationsByProductId("?productId=1&top=0", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid top: 0, must be between 1 and 100");
+
+        getAndVerifyRecommendationsByProductId("?productId=1&top=2&sort=author", UNPROCESSABLE_ENTITY)
+                .jsonPath("$.message").isEqualTo("Invalid sort: author, must be rating");
+    }
+
     @Test
     void getRecommendationsMissingParameter() {
         getAndVerifyRecommendationsByProductId("", BAD_REQUEST);
@@ -125,10 +409,25 @@ class RecommendationServiceApiTests extends MongoDbTestBase {
                 .expectBody();
     }
 
+    private WebTestClient.BodyContentSpec getAndVerifyRecommendationRatings(int productId) {
+        return client.get()
+                .uri("/recommendation/rating?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody();
+    }
+
     private void sendCreateRecommendationEvent(int productId, int recommendationId) {
-        Recommendation recommendation = new Recommendation(productId, recommendationId, "Author " + recommendationId, recommendationId, RECOMMENDATION_CONTENT + recommendationId, "SA");
-        Event<Integer, Recommendation> event = new Event<>(CREATE, productId, recommendation);
-        messageProcessor.accept(event);
+        messageProcessor.accept(createRecommendationEvent(productId, recommendationId));
+    }
+
+    private static Event<Integer, Recommendation> createRecommendationEvent(int productId, int recommendationId) {
+        return new Event<>(CREATE, productId, createRecommendation(productId, recommendationId));
+    }
+
+    private static Recommendation createRecommendation(int productId, int recommendationId) {
+        return new Recommendation(productId, recommendationId, "Author " + recommendationId, recommendationId, RECOMMENDATION_CONTENT + recommendationId, "SA");
     }
 
     private void sendDeleteRecommendationEvent(int productId) {
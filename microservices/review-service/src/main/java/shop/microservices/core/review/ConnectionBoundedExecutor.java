@@ -0,0 +1,152 @@
+package shop.microservices.core.review;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs each task on a new virtual thread, but only as many at a time as the connection pool has connections.
+ * <p>
+ * A task beyond that waits for a permit on its parked virtual thread, which costs no platform thread, instead of
+ * waiting for a connection in Hikari, which fails the task after the connection timeout. There is no queue that
+ * rejects tasks, a burst is bounded by the deadlines of the requests instead.
+ * <p>
+ * A task cancelled by its deadline or timeout interrupts its thread, also while it waits for a permit, so that it
+ * gives up the wait and does not run its jdbc call once a permit is free.
+ */
+public class ConnectionBoundedExecutor extends AbstractExecutorService {
+
+    private final Semaphore connections;
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean shutdown;
+
+    public ConnectionBoundedExecutor(String name, int maxConnections, MeterRegistry meterRegistry) {
+        this.connections = new Semaphore(maxConnections, true);
+        this.threadFactory = Thread.ofVirtual().name(name + "-", 0).factory();
+
+        Gauge.builder("review.jdbc.active", () -> maxConnections - connections.availablePermits())
+                .tag("executor", name)
+                .description("The number of tasks that hold a connection permit")
+                .register(meterRegistry);
+        Gauge.builder("review.jdbc.waiting", connections::getQueueLength)
+                .tag("executor", name)
+                .description("The number of tasks that wait for a connection permit")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+
+        running.incrementAndGet();
+        Thread thread = threadFactory.newThread(() -> {
+            try {
+                runWithPermit(task);
+            } finally {
+                if (running.decrementAndGet() == 0 && shutdown) {
+                    terminated.countDown();
+                }
+            }
+        });
+        if (task instanceof ConnectionTask<?> connectionTask) {
+            connectionTask.thread = thread;
+        }
+        thread.start();
+    }
+
+    private void runWithPermit(Runnable task) {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            // Cancelled while waiting for a permit
+            return;
+        }
+        try {
+            // Cancelled just as the permit was acquired
+            if (!Thread.currentThread().isInterrupted()) {
+                task.run();
+            }
+        } finally {
+            connections.release();
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new ConnectionTask<>(Executors.callable(runnable, value));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new ConnectionTask<>(callable);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (running.get() == 0) {
+            terminated.countDown();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        // There is no queue, every task already has its thread
+        shutdown();
+        return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * A FutureTask only interrupts its thread once it runs, this one interrupts it while it waits for a permit too.
+     */
+    private static class ConnectionTask<T> extends FutureTask<T> {
+
+        private volatile Thread thread;
+
+        ConnectionTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Thread waiting = thread;
+            if (cancelled && mayInterruptIfRunning && waiting != null) {
+                waiting.interrupt();
+            }
+            return cancelled;
+        }
+    }
+}
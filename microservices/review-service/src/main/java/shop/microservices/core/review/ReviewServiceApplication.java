@@ -1,5 +1,8 @@
 package shop.microservices.core.review;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
@@ -13,24 +16,42 @@ import reactor.core.scheduler.Schedulers;
 @ComponentScan("shop")
 public class ReviewServiceApplication {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceApplication.class);
+
     private final Integer threadPoolSize;
     private final Integer taskQueueSize;
+    private final boolean virtualThreads;
+    private final Integer maxConnections;
 
     @Autowired
     public ReviewServiceApplication(
             @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-            @Value("${app.taskQueueSize:100}") Integer taskQueueSize
+            @Value("${app.taskQueueSize:100}") Integer taskQueueSize,
+            @Value("${app.virtualThreads:false}") boolean virtualThreads,
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") Integer maxConnections
     ) {
         this.threadPoolSize = threadPoolSize;
         this.taskQueueSize = taskQueueSize;
+        this.virtualThreads = virtualThreads;
+        this.maxConnections = maxConnections;
     }
 
     public static void main(String[] args) {
         SpringApplication.run(ReviewServiceApplication.class, args);
     }
 
+    /**
+     * The scheduler of the blocking JPA calls, either a bounded elastic pool of app.threadPoolSize platform threads,
+     * or, with app.virtualThreads, a virtual thread per call with as many calls at a time as Hikari has connections.
+     */
     @Bean
-    public Scheduler jdbcScheduler() {
+    public Scheduler jdbcScheduler(MeterRegistry meterRegistry) {
+        if (virtualThreads) {
+            LOG.info("Create a jdbc scheduler on virtual threads for {} connections", maxConnections);
+            return Schedulers.fromExecutorService(new ConnectionBoundedExecutor("jdbc-virtual", maxConnections, meterRegistry), "jdbc-virtual");
+        }
+
+        LOG.info("Create a jdbc scheduler with a thread pool size = {}", threadPoolSize);
         return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
     }
 }
@@ -0,0 +1,24 @@
+package shop.microservices.core.review.persistence;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSourceUtils;
+
+import java.util.List;
+
+class BulkReviewRepositoryImpl implements BulkReviewRepository {
+
+    private static final String INSERT = """
+            INSERT INTO reviews (product_id, review_id, author, subject, content, rating, date)
+            VALUES (:productId, :reviewId, :author, :subject, :content, :rating, :date)""";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    BulkReviewRepositoryImpl(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void insertAll(List<ReviewEntity> entities) {
+        jdbcTemplate.batchUpdate(INSERT, SqlParameterSourceUtils.createBatch(entities));
+    }
+}
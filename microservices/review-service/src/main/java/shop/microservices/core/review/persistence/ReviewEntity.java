@@ -9,16 +9,22 @@ import org.hibernate.validator.constraints.Range;
 
 import java.time.LocalDate;
 
+/**
+ * Mapped by JPA, and by Spring Data R2DBC in the r2dbc profile, to the same table.
+ */
 @Entity
 @Table(name = "reviews", indexes = {
         @Index(name = "reviews_unique_idx", unique = true, columnList = "productId,reviewId")
 })
+@org.springframework.data.relational.core.mapping.Table(name = "reviews")
 public class ReviewEntity {
 
     @Id
+    @org.springframework.data.annotation.Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private int id;
 
+    // Not a version property for R2DBC, which only inserts and deletes reviews
     @Version
     private int version;
 
@@ -0,0 +1,32 @@
+package shop.microservices.core.review.persistence;
+
+import org.springframework.transaction.annotation.Transactional;
+import shop.api.core.rating.RatingSummary;
+
+import java.util.Collection;
+import java.util.Map;
+
+import static org.springframework.transaction.annotation.Propagation.MANDATORY;
+
+/**
+ * The summaries of the ratings per product, see {@link ReviewRatings}. They are only changed in the transaction that
+ * inserts or deletes the reviews.
+ */
+public interface ReviewRatingRepository {
+
+    @Transactional(propagation = MANDATORY)
+    void addRatings(Collection<ReviewEntity> entities);
+
+    @Transactional(propagation = MANDATORY)
+    void deleteRatings(int productId);
+
+    /**
+     * The summary of a product, empty if it has no reviews.
+     */
+    RatingSummary findRatingSummary(int productId);
+
+    /**
+     * The summaries by productId, products without reviews are left out.
+     */
+    Map<Integer, RatingSummary> findRatingSummariesByProductIdIn(Collection<Integer> productIds);
+}
@@ -0,0 +1,72 @@
+package shop.microservices.core.review.persistence;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import shop.api.core.rating.RatingSummary;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+class ReviewRatingRepositoryImpl implements ReviewRatingRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final JdbcClient jdbcClient;
+
+    ReviewRatingRepositoryImpl(NamedParameterJdbcTemplate jdbcTemplate, JdbcClient jdbcClient) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcClient = jdbcClient;
+    }
+
+    @Override
+    public void addRatings(Collection<ReviewEntity> entities) {
+        SqlParameterSource[] parameters = ReviewRatings.byProductId(entities).entrySet().stream()
+                .map(ratings -> new MapSqlParameterSource(ReviewRatings.addParameters(ratings.getKey(), ratings.getValue())))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(ReviewRatings.ADD, parameters);
+    }
+
+    @Override
+    public void deleteRatings(int productId) {
+        jdbcClient.sql(ReviewRatings.DELETE)
+                .param("productId", productId)
+                .update();
+    }
+
+    @Override
+    public RatingSummary findRatingSummary(int productId) {
+        return jdbcClient.sql(ReviewRatings.SELECT + " WHERE product_id = :productId")
+                .param("productId", productId)
+                .query((rs, _) -> toRatingSummary(rs))
+                .optional()
+                .orElse(RatingSummary.empty());
+    }
+
+    @Override
+    public Map<Integer, RatingSummary> findRatingSummariesByProductIdIn(Collection<Integer> productIds) {
+        Map<Integer, RatingSummary> summaries = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return summaries;
+        }
+        jdbcClient.sql(ReviewRatings.SELECT + " WHERE product_id IN (:productIds)")
+                .param("productIds", productIds)
+                .query(rs -> {
+                    summaries.put(rs.getInt("product_id"), toRatingSummary(rs));
+                });
+        return summaries;
+    }
+
+    private static RatingSummary toRatingSummary(ResultSet rs) throws SQLException {
+        return RatingSummary.of(
+                rs.getInt("stars_1"),
+                rs.getInt("stars_2"),
+                rs.getInt("stars_3"),
+                rs.getInt("stars_4"),
+                rs.getInt("stars_5"));
+    }
+}
@@ -0,0 +1,65 @@
+package shop.microservices.core.review.persistence;
+
+import shop.api.core.rating.RatingSummary;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.stream.Collectors.collectingAndThen;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The statements on review_ratings, the number of reviews per product and rating, shared by the JDBC and the R2DBC
+ * persistence.
+ * <p>
+ * The counts are added to by MySQL in the transaction that inserts the reviews, instead of being read, changed and
+ * written back, so that concurrent inserts for the same product can not lose an update. A product's row is deleted
+ * together with its reviews.
+ */
+public final class ReviewRatings {
+
+    public static final String ADD = """
+            INSERT INTO review_ratings (product_id, stars_1, stars_2, stars_3, stars_4, stars_5)
+            VALUES (:productId, :stars1, :stars2, :stars3, :stars4, :stars5) AS added
+            ON DUPLICATE KEY UPDATE
+                stars_1 = review_ratings.stars_1 + added.stars_1,
+                stars_2 = review_ratings.stars_2 + added.stars_2,
+                stars_3 = review_ratings.stars_3 + added.stars_3,
+                stars_4 = review_ratings.stars_4 + added.stars_4,
+                stars_5 = review_ratings.stars_5 + added.stars_5""";
+
+    public static final String DELETE = "DELETE FROM review_ratings WHERE product_id = :productId";
+
+    public static final String SELECT = """
+            SELECT product_id, stars_1, stars_2, stars_3, stars_4, stars_5
+            FROM review_ratings""";
+
+    private ReviewRatings() {
+    }
+
+    /**
+     * The ratings of new reviews per product, ordered by productId so that concurrent transactions lock the rows
+     * of their products in the same order.
+     */
+    public static Map<Integer, RatingSummary> byProductId(Collection<ReviewEntity> entities) {
+        return entities.stream().collect(groupingBy(
+                ReviewEntity::getProductId,
+                TreeMap::new,
+                collectingAndThen(toList(), reviews -> RatingSummary.of(reviews.stream().mapToInt(ReviewEntity::getRating)))));
+    }
+
+    /**
+     * The parameters of {@link #ADD} for the ratings of new reviews of a product.
+     */
+    public static Map<String, Object> addParameters(int productId, RatingSummary ratings) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("productId", productId);
+        for (int rating = RatingSummary.MIN_RATING; rating <= RatingSummary.MAX_RATING; rating++) {
+            parameters.put("stars" + rating, ratings.countOf(rating));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,23 @@
+package shop.microservices.core.review.persistence;
+
+import shop.api.core.review.Review;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The read path of the reviews, with the rows mapped straight into {@link Review} records in one pass. Without the
+ * managed entities of findByProductId, their persistence context and snapshots, and the copies of the mapper.
+ */
+public interface ReviewReadRepository {
+
+    /**
+     * The reviews of a product, ordered by reviewId, with the tag {@code EntityTags.of} their entities.
+     */
+    TaggedReviews findReviewsByProductId(int productId, String serviceAddress);
+
+    List<Review> findReviewsByProductIdIn(Collection<Integer> productIds, String serviceAddress);
+
+    record TaggedReviews(List<Review> reviews, String eTag) {
+    }
+}
@@ -0,0 +1,64 @@
+package shop.microservices.core.review.persistence;
+
+import org.springframework.jdbc.core.simple.JdbcClient;
+import shop.api.core.review.Review;
+import shop.util.http.EntityTags;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Single statements in auto-commit, a read-only transaction would cost extra round trips to MySQL
+class ReviewReadRepositoryImpl implements ReviewReadRepository {
+
+    private static final String SELECT = """
+            SELECT id, version, product_id, review_id, author, subject, content, rating, date
+            FROM reviews""";
+
+    private final JdbcClient jdbcClient;
+
+    ReviewReadRepositoryImpl(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    @Override
+    public TaggedReviews findReviewsByProductId(int productId, String serviceAddress) {
+        return jdbcClient.sql(SELECT + " WHERE product_id = :productId ORDER BY review_id")
+                .param("productId", productId)
+                .query(rs -> {
+                    List<Review> reviews = new ArrayList<>();
+                    EntityTags.Builder eTag = EntityTags.builder();
+                    while (rs.next()) {
+                        eTag.add(rs.getInt("id"), rs.getInt("version"));
+                        reviews.add(toReview(rs, serviceAddress));
+                    }
+                    return new TaggedReviews(reviews, eTag.build());
+                });
+    }
+
+    @Override
+    public List<Review> findReviewsByProductIdIn(Collection<Integer> productIds, String serviceAddress) {
+        if (productIds.isEmpty()) {
+            return List.of();
+        }
+        return jdbcClient.sql(SELECT + " WHERE product_id IN (:productIds) ORDER BY product_id, review_id")
+                .param("productIds", productIds)
+                .query((rs, _) -> toReview(rs, serviceAddress))
+                .list();
+    }
+
+    private static Review toReview(ResultSet rs, String serviceAddress) throws SQLException {
+        return new Review(
+                rs.getInt("product_id"),
+                rs.getInt("review_id"),
+                rs.getString("author"),
+                rs.getString("subject"),
+                rs.getString("content"),
+                rs.getInt("rating"),
+                rs.getObject("date", LocalDate.class),
+                serviceAddress);
+    }
+}
@@ -5,7 +5,8 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
-public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
+public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer>, BulkReviewRepository,
+        ReviewReadRepository, ReviewRatingRepository {
 
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
@@ -9,9 +9,14 @@ import shop.api.core.review.Review;
 import shop.api.core.review.ReviewService;
 import shop.api.event.Event;
 import shop.api.exceptions.EventProcessingException;
+import shop.api.exceptions.InvalidInputException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
+import static shop.api.event.Event.Type.CREATE;
+
 @Configuration
 public class MessageProcessorConfig {
 
@@ -51,4 +56,53 @@ public class MessageProcessorConfig {
             LOG.info("Message processing done!");
         };
     }
+
+    /**
+     * The messageProcessor for batches of events, see the event-batches profile. Each run of consecutive CREATE
+     * events is created with one bulk insert, the other events are processed one by one, in order.
+     */
+    @Bean
+    public Consumer<List<Event<Integer, Review>>> batchMessageProcessor() {
+        Consumer<Event<Integer, Review>> messageProcessor = messageProcessor();
+        return events -> {
+            LOG.info("Process batch of {} messages...", events.size());
+
+            List<Review> reviews = new ArrayList<>();
+            for (Event<Integer, Review> event : events) {
+                if (event.getEventType() == CREATE) {
+                    reviews.add(event.getData());
+                } else {
+                    createReviews(reviews);
+                    reviews.clear();
+                    messageProcessor.accept(event);
+                }
+            }
+            createReviews(reviews);
+
+            LOG.info("Batch processing done!");
+        };
+    }
+
+    private void createReviews(List<Review> reviews) {
+        if (reviews.isEmpty()) {
+            return;
+        }
+
+        LOG.info("Create {} reviews", reviews.size());
+        try {
+            reviewService.createReviews(reviews).block();
+
+        } catch (InvalidInputException iie) {
+            // A duplicate or invalid review fails the whole insert, so the reviews are created one by one to skip
+            // only the failing ones. They would fail again if the batch was redelivered.
+            LOG.warn("Create reviews one by one, the bulk insert failed: {}", iie.getMessage());
+            reviews.forEach(review -> {
+                try {
+                    reviewService.createReview(review).block();
+                } catch (InvalidInputException e) {
+                    LOG.warn("Skip review with ID: {}/{}: {}", review.productId(), review.reviewId(), e.getMessage());
+                }
+            });
+        }
+    }
 }
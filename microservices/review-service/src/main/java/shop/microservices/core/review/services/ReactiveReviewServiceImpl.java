@@ -0,0 +1,245 @@
+package shop.microservices.core.review.services;
+
+import io.r2dbc.spi.Readable;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.Parameter;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import shop.api.core.rating.RatingSummary;
+import shop.api.core.review.Review;
+import shop.api.core.review.ReviewService;
+import shop.api.exceptions.InvalidInputException;
+import shop.microservices.core.review.persistence.ReviewEntity;
+import shop.microservices.core.review.persistence.ReviewRatings;
+import shop.util.http.Deadline;
+import shop.util.http.EntityTags;
+import shop.util.http.ServiceUtil;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.joining;
+import static org.springframework.data.relational.core.query.Criteria.where;
+import static org.springframework.data.relational.core.query.Query.query;
+
+/**
+ * The reviews on R2DBC, in the r2dbc profile, so that the event loop drives the MySQL I/O without handing the
+ * calls to the jdbcScheduler, like the product and recommendation services do.
+ * <p>
+ * Queries with the {@link R2dbcEntityTemplate} instead of a repository, Spring Data JPA would claim a reactive
+ * repository of the JPA mapped {@link ReviewEntity} too, and fail on it.
+ */
+@RestController
+@Profile("r2dbc")
+public class ReactiveReviewServiceImpl implements ReviewService {
+
+    private final R2dbcEntityTemplate template;
+
+    private final ReviewMapper mapper;
+
+    private final ServiceUtil serviceUtil;
+
+    private final Validator validator;
+
+    private final TransactionalOperator transactionalOperator;
+
+    @Autowired
+    public ReactiveReviewServiceImpl(
+            R2dbcEntityTemplate template,
+            ReviewMapper mapper,
+            ServiceUtil serviceUtil,
+            Validator validator,
+            TransactionalOperator transactionalOperator
+    ) {
+        this.template = template;
+        this.mapper = mapper;
+        this.serviceUtil = serviceUtil;
+        this.validator = validator;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    @Override
+    public Mono<Review> createReview(Review body) {
+        if (body.productId() < 1) {
+            throw new InvalidInputException("Invalid productId: " + body.productId());
+        }
+
+        ReviewEntity entity = mapper.apiToEntity(body);
+
+        // Validated here, JPA validates on persist
+        var constraints = validator.validate(entity);
+        if (!constraints.isEmpty()) {
+            throw new InvalidInputException(constraints.iterator().next().getMessage());
+        }
+
+        // The review and the ratings of its product are changed in one transaction
+        return template.insert(entity)
+                .flatMap(newEntity -> addRatings(List.of(newEntity)).thenReturn(newEntity))
+                .as(transactionalOperator::transactional)
+                .onErrorMap(
+                        DataIntegrityViolationException.class,
+                        _ -> new InvalidInputException("Duplicate key, Product Id: " + body.productId() + ", Review Id:" + body.reviewId()))
+                .map(mapper::entityToApi);
+    }
+
+    @Override
+    public Mono<List<Review>> createReviews(List<Review> body) {
+        body.forEach(review -> {
+            if (review.productId() < 1) {
+                throw new InvalidInputException("Invalid productId: " + review.productId());
+            }
+        });
+        if (body.isEmpty()) {
+            return Mono.just(List.of());
+        }
+
+        List<ReviewEntity> entities = mapper.apiListToEntityList(body);
+        entities.forEach(entity -> {
+            var constraints = validator.validate(entity);
+            if (!constraints.isEmpty()) {
+                throw new InvalidInputException(constraints.iterator().next().getMessage());
+            }
+        });
+
+        // One multi-row INSERT, instead of one round trip per review
+        String values = IntStream.range(0, entities.size())
+                .mapToObj(i -> "(:productId%1$d, :reviewId%1$d, :author%1$d, :subject%1$d, :content%1$d, :rating%1$d, :date%1$d)".formatted(i))
+                .collect(joining(", "));
+        DatabaseClient.GenericExecuteSpec insert = template.getDatabaseClient()
+                .sql("INSERT INTO reviews (product_id, review_id, author, subject, content, rating, date) VALUES " + values);
+        for (int i = 0; i < entities.size(); i++) {
+            ReviewEntity entity = entities.get(i);
+            insert = insert
+                    .bind("productId" + i, entity.getProductId())
+                    .bind("reviewId" + i, entity.getReviewId())
+                    .bind("author" + i, entity.getAuthor())
+                    .bind("subject" + i, entity.getSubject())
+                    // The content is optional, and a null value can't be bound without its type
+                    .bind("content" + i, Parameter.fromOrEmpty(entity.getContent(), String.class))
+                    .bind("rating" + i, entity.getRating())
+                    .bind("date" + i, entity.getDate());
+        }
+
+        return insert.then()
+                .then(addRatings(entities))
+                .as(transactionalOperator::transactional)
+                .onErrorMap(
+                        DataIntegrityViolationException.class,
+                        _ -> new InvalidInputException("Duplicate key in the reviews, Product Id/Review Id: "
+                                + body.stream().map(review -> review.productId() + "/" + review.reviewId()).toList()))
+                .thenReturn(mapper.entityListToApiList(entities));
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<Review>>> getReviews(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        // Ordered like the JPA read path, the tag depends on the order of the entities
+        return Deadline.enforce(template.select(ReviewEntity.class)
+                        .matching(query(where("productId").is(productId)).sort(Sort.by("reviewId")))
+                        .all()
+                        .collectList())
+                .map(entityList -> ResponseEntity.ok()
+                        .eTag(EntityTags.of(entityList, ReviewEntity::getId, ReviewEntity::getVersion))
+                        .body(entityList.stream()
+                                .map(e -> mapper.entityToApi(e).withServiceAddress(serviceUtil.getServiceAddress()))
+                                .toList()));
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Review>>> getReviewsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Deadline.enforce(template.select(ReviewEntity.class)
+                .matching(query(where("productId").in(productIds)).sort(Sort.by("productId", "reviewId")))
+                .all()
+                .map(e -> mapper.entityToApi(e).withServiceAddress(serviceUtil.getServiceAddress()))
+                .collect(groupingBy(Review::productId)));
+    }
+
+    @Override
+    public Mono<Void> deleteReviews(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return template.delete(ReviewEntity.class)
+                .matching(query(where("productId").is(productId)))
+                .all()
+                .then(template.getDatabaseClient()
+                        .sql(ReviewRatings.DELETE)
+                        .bind("productId", productId)
+                        .then())
+                .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<RatingSummary> getReviewRatings(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return Deadline.enforce(template.getDatabaseClient()
+                .sql(ReviewRatings.SELECT + " WHERE product_id = :productId")
+                .bind("productId", productId)
+                .map(ReactiveReviewServiceImpl::toRatingSummary)
+                .one()
+                .defaultIfEmpty(RatingSummary.empty()));
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> getReviewRatingsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+        if (productIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+
+        return Deadline.enforce(template.getDatabaseClient()
+                .sql(ReviewRatings.SELECT + " WHERE product_id IN (:productIds)")
+                .bind("productIds", productIds)
+                .map(row -> Map.entry(row.get("product_id", Integer.class), toRatingSummary(row)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private Mono<Void> addRatings(Collection<ReviewEntity> entities) {
+        return Flux.fromIterable(ReviewRatings.byProductId(entities).entrySet())
+                .concatMap(ratings -> template.getDatabaseClient()
+                        .sql(ReviewRatings.ADD)
+                        .bindValues(ReviewRatings.addParameters(ratings.getKey(), ratings.getValue()))
+                        .then())
+                .then();
+    }
+
+    private static RatingSummary toRatingSummary(Readable row) {
+        return RatingSummary.of(
+                row.get("stars_1", Integer.class),
+                row.get("stars_2", Integer.class),
+                row.get("stars_3", Integer.class),
+                row.get("stars_4", Integer.class),
+                row.get("stars_5", Integer.class));
+    }
+}
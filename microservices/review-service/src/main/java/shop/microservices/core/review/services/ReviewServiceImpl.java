@@ -1,24 +1,34 @@
 package shop.microservices.core.review.services;
 
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.RestController;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
+import shop.api.core.rating.RatingSummary;
 import shop.api.core.review.Review;
 import shop.api.core.review.ReviewService;
 import shop.api.exceptions.InvalidInputException;
 import shop.microservices.core.review.persistence.ReviewEntity;
+import shop.microservices.core.review.persistence.ReviewReadRepository.TaggedReviews;
 import shop.microservices.core.review.persistence.ReviewRepository;
+import shop.util.http.Deadline;
 import shop.util.http.ServiceUtil;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static java.util.stream.Collectors.groupingBy;
 import static reactor.core.publisher.Mono.fromCallable;
 import static reactor.core.publisher.Mono.fromRunnable;
 
 @RestController
+@Profile("!r2dbc")
 public class ReviewServiceImpl implements ReviewService {
 
     private final ReviewRepository repository;
@@ -29,17 +39,25 @@ public class ReviewServiceImpl implements ReviewService {
 
     private final Scheduler jdbcScheduler;
 
+    private final Validator validator;
+
+    private final TransactionTemplate transactionTemplate;
+
     @Autowired
     public ReviewServiceImpl(
             ReviewRepository repository,
             ReviewMapper mapper,
             ServiceUtil serviceUtil,
-            Scheduler jdbcScheduler
+            Scheduler jdbcScheduler,
+            Validator validator,
+            TransactionTemplate transactionTemplate
     ) {
         this.repository = repository;
         this.mapper = mapper;
         this.serviceUtil = serviceUtil;
         this.jdbcScheduler = jdbcScheduler;
+        this.validator = validator;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @Override
@@ -47,19 +65,67 @@ public class ReviewServiceImpl implements ReviewService {
         if (body.productId() < 1) {
             throw new InvalidInputException("Invalid productId: " + body.productId());
         }
-        return fromCallable(() -> internalCreateReview(body))
+
+        // Validated here like the bulk creates, JPA would throw a ConstraintViolationException on persist, wrapped
+        // in a TransactionSystemException
+        ReviewEntity entity = mapper.apiToEntity(body);
+        validate(entity);
+
+        return fromCallable(() -> internalCreateReview(entity))
                 .subscribeOn(jdbcScheduler);
     }
 
     @Override
-    public Flux<Review> getReviews(int productId) {
+    public Mono<List<Review>> createReviews(List<Review> body) {
+        body.forEach(review -> {
+            if (review.productId() < 1) {
+                throw new InvalidInputException("Invalid productId: " + review.productId());
+            }
+        });
+
+        return fromCallable(() -> internalCreateReviews(body))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    @Override
+    public Mono<ResponseEntity<List<Review>>> getReviews(int productId) {
         if (productId < 1) {
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        return fromCallable(() -> internalGetReviews(productId))
-                .flatMapMany(Flux::fromIterable)
-                .subscribeOn(jdbcScheduler);
+        // A timeout drops the query from the jdbc-pool queue if it has not started before the deadline
+        return Deadline.enforce(fromCallable(() -> internalGetReviews(productId)).subscribeOn(jdbcScheduler));
+    }
+
+    @Override
+    public Mono<Map<Integer, List<Review>>> getReviewsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Deadline.enforce(fromCallable(() -> internalGetReviewsByProductIds(productIds)).subscribeOn(jdbcScheduler));
+    }
+
+    @Override
+    public Mono<RatingSummary> getReviewRatings(int productId) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+
+        return Deadline.enforce(fromCallable(() -> repository.findRatingSummary(productId)).subscribeOn(jdbcScheduler));
+    }
+
+    @Override
+    public Mono<Map<Integer, RatingSummary>> getReviewRatingsByProductIds(Set<Integer> productIds) {
+        productIds.forEach(productId -> {
+            if (productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return Deadline.enforce(fromCallable(() -> repository.findRatingSummariesByProductIdIn(productIds)).subscribeOn(jdbcScheduler));
     }
 
     @Override
@@ -73,27 +139,65 @@ public class ReviewServiceImpl implements ReviewService {
                 .then();
     }
 
-    private Review internalCreateReview(Review body) {
+    private Review internalCreateReview(ReviewEntity entity) {
         try {
-            ReviewEntity entity = mapper.apiToEntity(body);
-            ReviewEntity newEntity = repository.save(entity);
+            // The review and the ratings of its product are changed in one transaction
+            ReviewEntity newEntity = transactionTemplate.execute(_ -> {
+                ReviewEntity saved = repository.save(entity);
+                repository.addRatings(List.of(saved));
+                return saved;
+            });
 
             return mapper.entityToApi(newEntity);
 
         } catch (DataIntegrityViolationException dive) {
-            throw new InvalidInputException("Duplicate key, Product Id: " + body.productId() + ", Review Id:" + body.reviewId());
+            throw new InvalidInputException("Duplicate key, Product Id: " + entity.getProductId() + ", Review Id:" + entity.getReviewId());
         }
     }
 
-    private List<Review> internalGetReviews(int productId) {
-        List<ReviewEntity> entityList = repository.findByProductId(productId);
-        return mapper.entityListToApiList(entityList)
+    private List<Review> internalCreateReviews(List<Review> body) {
+        List<ReviewEntity> entities = mapper.apiListToEntityList(body);
+
+        // Validated here, the batch bypasses the validation of JPA on persist
+        entities.forEach(this::validate);
+
+        try {
+            transactionTemplate.executeWithoutResult(_ -> {
+                repository.insertAll(entities);
+                repository.addRatings(entities);
+            });
+            return mapper.entityListToApiList(entities);
+
+        } catch (DataIntegrityViolationException dive) {
+            throw new InvalidInputException("Duplicate key in the reviews, Product Id/Review Id: "
+                    + body.stream().map(review -> review.productId() + "/" + review.reviewId()).toList());
+        }
+    }
+
+    private void validate(ReviewEntity entity) {
+        var constraints = validator.validate(entity);
+        if (!constraints.isEmpty()) {
+            throw new InvalidInputException(constraints.iterator().next().getMessage());
+        }
+    }
+
+    private ResponseEntity<List<Review>> internalGetReviews(int productId) {
+        TaggedReviews reviews = repository.findReviewsByProductId(productId, serviceUtil.getServiceAddress());
+        return ResponseEntity.ok()
+                .eTag(reviews.eTag())
+                .body(reviews.reviews());
+    }
+
+    private Map<Integer, List<Review>> internalGetReviewsByProductIds(Set<Integer> productIds) {
+        return repository.findReviewsByProductIdIn(productIds, serviceUtil.getServiceAddress())
                 .stream()
-                .map(e -> e.withServiceAddress(serviceUtil.getServiceAddress()))
-                .toList();
+                .collect(groupingBy(Review::productId));
     }
 
     private void internalDeleteReviews(int productId) {
-        repository.deleteAll(repository.findByProductId(productId));
+        transactionTemplate.executeWithoutResult(_ -> {
+            repository.deleteAll(repository.findByProductId(productId));
+            repository.deleteRatings(productId);
+        });
     }
 }
@@ -0,0 +1,22 @@
+-- The number of reviews per product and rating, kept up to date by the review service
+CREATE TABLE review_ratings
+(
+    product_id INT NOT NULL,
+    stars_1    INT NOT NULL,
+    stars_2    INT NOT NULL,
+    stars_3    INT NOT NULL,
+    stars_4    INT NOT NULL,
+    stars_5    INT NOT NULL,
+    PRIMARY KEY (product_id)
+);
+
+-- Count the existing reviews
+INSERT INTO review_ratings (product_id, stars_1, stars_2, stars_3, stars_4, stars_5)
+SELECT product_id,
+       SUM(rating = 1),
+       SUM(rating = 2),
+       SUM(rating = 3),
+       SUM(rating = 4),
+       SUM(rating = 5)
+FROM reviews
+GROUP BY product_id;
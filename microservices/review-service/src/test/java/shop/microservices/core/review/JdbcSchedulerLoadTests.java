@@ -0,0 +1,124 @@
+package shop.microservices.core.review;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A burst of blocking calls on both kinds of jdbc scheduler, against a connection pool of 10 connections.
+ */
+class JdbcSchedulerLoadTests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcSchedulerLoadTests.class);
+
+    private static final int CONNECTIONS = 10;
+    private static final int CALLS = 2000;
+    private static final long CALL_MILLIS = 5;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Semaphore connectionPool = new Semaphore(CONNECTIONS);
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    @Test
+    void boundedElasticRejectsBurst() {
+        Result result = burst(createScheduler(false));
+
+        assertTrue(result.rejected() > 0);
+        assertEquals(CALLS, result.completed() + result.rejected());
+    }
+
+    @Test
+    void virtualThreadsQueueBurstUpToConnections() {
+        Result result = burst(createScheduler(true));
+
+        assertEquals(0, result.rejected());
+        assertEquals(CALLS, result.completed());
+        assertEquals(CONNECTIONS, maxActive.get());
+        assertEquals(0, meterRegistry.get("review.jdbc.waiting").gauge().value());
+    }
+
+    @Test
+    void virtualThreadsCancelledWhileWaitingForConnection() throws InterruptedException {
+        Scheduler scheduler = createScheduler(true);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        // Holds all the connections
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Mono.fromCallable(() -> release.await(10, SECONDS)).subscribeOn(scheduler).subscribe();
+        }
+
+        Integer timedOut = Mono.fromCallable(calls::incrementAndGet)
+                .subscribeOn(scheduler)
+                .timeout(Duration.ofMillis(100), Mono.just(-1))
+                .block();
+        assertEquals(-1, timedOut);
+
+        // The cancelled call gives up its wait, and does not run once a connection is free
+        Thread.sleep(100);
+        assertEquals(0, meterRegistry.get("review.jdbc.waiting").gauge().value());
+        release.countDown();
+        Thread.sleep(100);
+        assertEquals(0, calls.get());
+        assertEquals(0, meterRegistry.get("review.jdbc.active").gauge().value());
+        scheduler.dispose();
+    }
+
+    private record Result(int completed, int rejected) {
+    }
+
+    private Result burst(Scheduler scheduler) {
+        AtomicInteger rejected = new AtomicInteger();
+        long start = System.nanoTime();
+
+        Integer completed = Flux.range(0, CALLS)
+                .flatMap(_ -> Mono.fromCallable(this::query)
+                        .subscribeOn(scheduler)
+                        .onErrorResume(RejectedExecutionException.class, _ -> {
+                            rejected.incrementAndGet();
+                            return Mono.empty();
+                        }), CALLS)
+                .count()
+                .map(Long::intValue)
+                .block();
+
+        LOG.info("{} calls completed and {} rejected in {} ms", completed, rejected.get(), (System.nanoTime() - start) / 1_000_000);
+        scheduler.dispose();
+        return new Result(completed, rejected.get());
+    }
+
+    /**
+     * A query that holds a connection for a while, and fails like Hikari if none is free.
+     */
+    private int query() throws InterruptedException {
+        if (!connectionPool.tryAcquire()) {
+            throw new IllegalStateException("Connection is not available");
+        }
+        try {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            Thread.sleep(CALL_MILLIS);
+            return 1;
+        } finally {
+            active.decrementAndGet();
+            connectionPool.release();
+        }
+    }
+
+    private Scheduler createScheduler(boolean virtualThreads) {
+        return new ReviewServiceApplication(CONNECTIONS, 100, virtualThreads, CONNECTIONS).jdbcScheduler(meterRegistry);
+    }
+}
@@ -3,6 +3,10 @@ package shop.microservices.core.review;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mapstruct.factory.Mappers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -10,11 +14,17 @@ import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.annotation.Transactional;
 import shop.microservices.core.review.persistence.ReviewEntity;
+import shop.microservices.core.review.persistence.ReviewReadRepository.TaggedReviews;
 import shop.microservices.core.review.persistence.ReviewRepository;
+import shop.microservices.core.review.services.ReviewMapper;
+import shop.util.http.EntityTags;
 
+import java.lang.management.ManagementFactory;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Set;
 
+import static java.util.Comparator.comparingInt;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -28,6 +38,10 @@ class PersistenceTests extends MySqlTestBase {
 
     private static final String REVIEW_CONTENT = "Lorem ipsum dolor sit amet, consetetur sadipscingw";
 
+    private static final Logger LOG = LoggerFactory.getLogger(PersistenceTests.class);
+
+    private final ReviewMapper mapper = Mappers.getMapper(ReviewMapper.class);
+
     @Autowired
     private ReviewRepository repository;
 
@@ -78,6 +92,52 @@ class PersistenceTests extends MySqlTestBase {
         assertEqualsReview(savedEntity, entityList.getFirst());
     }
 
+    @Test
+    void readPathMatchesEntities() {
+        repository.save(new ReviewEntity(1, 1, "a", "s", REVIEW_CONTENT, 5, LocalDate.now()));
+        List<ReviewEntity> entityList = repository.findByProductId(1).stream()
+                .sorted(comparingInt(ReviewEntity::getReviewId))
+                .toList();
+
+        TaggedReviews reviews = repository.findReviewsByProductId(1, "SA");
+
+        assertEquals(entityList.stream().map(e -> mapper.entityToApi(e).withServiceAddress("SA")).toList(), reviews.reviews());
+        assertEquals(EntityTags.of(entityList, ReviewEntity::getId, ReviewEntity::getVersion), reviews.eTag());
+        assertEquals(reviews.reviews(), repository.findReviewsByProductIdIn(Set.of(1, 2), "SA"));
+    }
+
+    // Only measures, the read paths return the same reviews, see readPathMatchesEntities
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void compareReadPaths() {
+        for (int reviewId = 3; reviewId <= 50; reviewId++) {
+            repository.save(new ReviewEntity(1, reviewId, "a", "s", REVIEW_CONTENT, 4, LocalDate.now()));
+        }
+
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up
+            measure("Entities", () -> mapper.entityListToApiList(repository.findByProductId(1)).stream()
+                    .map(e -> e.withServiceAddress("SA"))
+                    .toList());
+            measure("JdbcClient", () -> repository.findReviewsByProductId(1, "SA"));
+        }
+    }
+
+    private static void measure(String readPath, Runnable read) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int reads = 500;
+
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            read.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        LOG.info("{}: {} us and {} kB allocated per read of 50 reviews", readPath, elapsed / reads / 1000, allocated / reads / 1024);
+    }
+
     @Test
     void duplicateError() {
         assertThrows(DataIntegrityViolationException.class, () -> {
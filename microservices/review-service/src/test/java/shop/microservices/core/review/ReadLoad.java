@@ -0,0 +1,51 @@
+package shop.microservices.core.review;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+/**
+ * Concurrent reads of the reviews of a product, that log the throughput and latency, to compare the JPA and the
+ * R2DBC persistence with the same numbers.
+ */
+final class ReadLoad {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadLoad.class);
+
+    private static final int CALLS = 2000;
+    private static final int CONCURRENCY = 50;
+
+    private ReadLoad() {
+    }
+
+    static void measure(String persistence, WebTestClient client, int productId) {
+        long[] latencies = new long[CALLS];
+        long start = System.nanoTime();
+
+        Flux.range(0, CALLS)
+                .flatMap(i -> Mono.fromRunnable(() -> {
+                    long callStart = System.nanoTime();
+                    client.get()
+                            .uri("/review?productId=" + productId)
+                            .accept(APPLICATION_JSON)
+                            .exchange()
+                            .expectStatus().isOk();
+                    latencies[i] = System.nanoTime() - callStart;
+                }).subscribeOn(Schedulers.boundedElastic()), CONCURRENCY)
+                .blockLast();
+
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        LOG.info("{}: {} reads/s, latency p50 = {} ms, p99 = {} ms", persistence,
+                CALLS * 1_000_000_000L / elapsed,
+                latencies[CALLS / 2] / 1_000_000.0,
+                latencies[CALLS * 99 / 100] / 1_000_000.0);
+    }
+}
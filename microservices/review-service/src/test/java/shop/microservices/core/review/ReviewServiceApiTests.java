@@ -2,10 +2,12 @@ package shop.microservices.core.review;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import shop.api.core.review.Review;
 import shop.api.event.Event;
@@ -13,11 +15,15 @@ import shop.api.exceptions.InvalidInputException;
 import shop.microservices.core.review.persistence.ReviewRepository;
 
 import java.time.LocalDate;
+import java.util.List;
 import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static shop.api.event.Event.Type.CREATE;
@@ -37,12 +43,20 @@ class ReviewServiceApiTests extends MySqlTestBase {
     @Autowired
     private ReviewRepository repository;
 
+    @Autowired
+    private JdbcClient jdbcClient;
+
     @Autowired
     @Qualifier("messageProcessor")
     private Consumer<Event<Integer, Review>> messageProcessor;
 
+    @Autowired
+    @Qualifier("batchMessageProcessor")
+    private Consumer<List<Event<Integer, Review>>> batchMessageProcessor;
+
     @BeforeEach
     void setupDb() {
+        jdbcClient.sql("DELETE FROM review_ratings").update();
         repository.deleteAll();
     }
 
@@ -64,6 +78,58 @@ class ReviewServiceApiTests extends MySqlTestBase {
                 .jsonPath("$[2].reviewId").isEqualTo(3);
     }
 
+    @Test
+    void getReviewsNotModified() {
+        int productId = 1;
+
+        sendCreateReviewEvent(productId, 1);
+        sendCreateReviewEvent(productId, 2);
+
+        String eTag = getAndVerifyReviewsByProductId(productId, OK)
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(eTag);
+
+        client.get()
+                .uri("/review?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(ETAG, eTag)
+                .expectBody().isEmpty();
+
+        sendCreateReviewEvent(productId, 3);
+
+        client.get()
+                .uri("/review?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3);
+    }
+
+    @Test
+    void getReviewsByProductIds() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+        sendCreateReviewEvent(3, 1);
+
+        client.get()
+                .uri("/review/bulk?productIds=1,2,4")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isEqualTo(OK)
+                .expectHeader().contentType(APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].length()").isEqualTo(2)
+                .jsonPath("$['2'].length()").isEqualTo(1)
+                .jsonPath("$['2'][0].productId").isEqualTo(2);
+    }
+
     @Test
     void duplicateError() {
 
@@ -100,6 +166,93 @@ class ReviewServiceApiTests extends MySqlTestBase {
         sendDeleteReviewEvent(productId);
     }
 
+    @Test
+    void processEventBatch() {
+        sendCreateReviewEvent(2, 1);
+
+        // The last run of creates has a duplicate, 1/2, and is created one by one instead
+        batchMessageProcessor.accept(List.of(
+                createReviewEvent(1, 1),
+                createReviewEvent(1, 2),
+                new Event<>(DELETE, 2, null),
+                createReviewEvent(2, 2),
+                createReviewEvent(1, 2)));
+
+        assertEquals(2, repository.findByProductId(1).size());
+        assertEquals(1, repository.findByProductId(2).size());
+
+        // The ratings of the batch are rolled back with it, before the reviews are created one by one
+        getAndVerifyReviewRatings(1).jsonPath("$.count").isEqualTo(2);
+        getAndVerifyReviewRatings(2).jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    void invalidReview() {
+        Review review = new Review(1, 1, "", "Subject", REVIEW_CONTENT, 4, LocalDate.now(), "SA");
+
+        assertThrows(
+                InvalidInputException.class,
+                () -> messageProcessor.accept(new Event<>(CREATE, 1, review)),
+                "Expected a InvalidInputException here!");
+    }
+
+    @Test
+    void processEventBatchWithInvalidEvent() {
+        Review invalid = new Review(1, 2, "", "Subject 2", REVIEW_CONTENT, 4, LocalDate.now(), "SA");
+
+        // The invalid review fails the bulk insert, and is skipped when the reviews are created one by one
+        batchMessageProcessor.accept(List.of(
+                createReviewEvent(1, 1),
+                new Event<>(CREATE, 1, invalid),
+                createReviewEvent(1, 3)));
+
+        assertEquals(2, repository.findByProductId(1).size());
+        getAndVerifyReviewRatings(1).jsonPath("$.count").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewRatings() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+
+        // The rating of a duplicate is rolled back with it
+        assertThrows(InvalidInputException.class, () -> sendCreateReviewEvent(1, 2));
+
+        getAndVerifyReviewRatings(1)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(8)
+                .jsonPath("$.histogram[3]").isEqualTo(2);
+
+        client.get()
+                .uri("/review/rating/bulk?productIds=1,2,3")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].count").isEqualTo(2)
+                .jsonPath("$['2'].count").isEqualTo(1);
+
+        sendDeleteReviewEvent(1);
+
+        getAndVerifyReviewRatings(1)
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.histogram.length()").isEqualTo(5);
+        getAndVerifyReviewRatings(2)
+                .jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void readLoad() {
+        for (int reviewId = 1; reviewId <= 10; reviewId++) {
+            sendCreateReviewEvent(1, reviewId);
+        }
+
+        ReadLoad.measure("JPA", client, 1);
+    }
+
     @Test
     void getReviewsMissingParameter() {
 
@@ -141,10 +294,22 @@ class ReviewServiceApiTests extends MySqlTestBase {
                 .expectBody();
     }
 
+    private WebTestClient.BodyContentSpec getAndVerifyReviewRatings(int productId) {
+        return client.get()
+                .uri("/review/rating?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody();
+    }
+
     private void sendCreateReviewEvent(int productId, int reviewId) {
+        messageProcessor.accept(createReviewEvent(productId, reviewId));
+    }
+
+    private static Event<Integer, Review> createReviewEvent(int productId, int reviewId) {
         Review review = new Review(productId, reviewId, "Author " + reviewId, "Subject " + reviewId, REVIEW_CONTENT + reviewId, 4, LocalDate.now(), "SA");
-        Event<Integer, Review> event = new Event<>(CREATE, productId, review);
-        messageProcessor.accept(event);
+        return new Event<>(CREATE, productId, review);
     }
 
     private void sendDeleteReviewEvent(int productId) {
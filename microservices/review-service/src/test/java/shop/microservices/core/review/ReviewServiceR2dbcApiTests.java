@@ -0,0 +1,263 @@
+package shop.microservices.core.review;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import shop.api.core.review.Review;
+import shop.api.event.Event;
+import shop.api.exceptions.InvalidInputException;
+import shop.microservices.core.review.persistence.ReviewEntity;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.data.relational.core.query.Criteria.where;
+import static org.springframework.data.relational.core.query.Query.empty;
+import static org.springframework.data.relational.core.query.Query.query;
+import static org.springframework.http.HttpHeaders.ETAG;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static shop.api.event.Event.Type.CREATE;
+import static shop.api.event.Event.Type.DELETE;
+
+@SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
+        "spring.cloud.stream.defaultBinder=rabbit",
+        "logging.level.shop=DEBUG",
+        "eureka.client.enabled=false"})
+@ActiveProfiles("r2dbc")
+class ReviewServiceR2dbcApiTests extends MySqlTestBase {
+
+    private static final String REVIEW_CONTENT = "Lorem ipsum dolor sit amet, consetetur sadipscingw";
+
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private R2dbcEntityTemplate template;
+
+    @Autowired
+    @Qualifier("messageProcessor")
+    private Consumer<Event<Integer, Review>> messageProcessor;
+
+    @Autowired
+    @Qualifier("batchMessageProcessor")
+    private Consumer<List<Event<Integer, Review>>> batchMessageProcessor;
+
+    @BeforeEach
+    void setupDb() {
+        template.getDatabaseClient().sql("DELETE FROM review_ratings").then().block();
+        template.delete(ReviewEntity.class).all().block();
+    }
+
+    @Test
+    void getReviewsByProductId() {
+        int productId = 1;
+
+        // Served by reviewId, not in the order of creation
+        sendCreateReviewEvent(productId, 3);
+        sendCreateReviewEvent(productId, 1);
+        sendCreateReviewEvent(productId, 2);
+
+        assertEquals(3, count(productId));
+
+        String eTag = client.get()
+                .uri("/review?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].reviewId").isEqualTo(1)
+                .jsonPath("$[2].reviewId").isEqualTo(3)
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(eTag);
+
+        client.get()
+                .uri("/review?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .header(IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(ETAG, eTag);
+    }
+
+    @Test
+    void getReviewsByProductIds() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+
+        client.get()
+                .uri("/review/bulk?productIds=1,2,4")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].length()").isEqualTo(2)
+                .jsonPath("$['2'].length()").isEqualTo(1);
+    }
+
+    @Test
+    void duplicateError() {
+        sendCreateReviewEvent(1, 1);
+
+        InvalidInputException thrown = assertThrows(
+                InvalidInputException.class,
+                () -> sendCreateReviewEvent(1, 1),
+                "Expected a InvalidInputException here!");
+        assertEquals("Duplicate key, Product Id: 1, Review Id:1", thrown.getMessage());
+
+        assertEquals(1, count());
+    }
+
+    @Test
+    void invalidReview() {
+        Review review = new Review(1, 1, "", "Subject", REVIEW_CONTENT, 4, LocalDate.now(), "SA");
+
+        assertThrows(
+                InvalidInputException.class,
+                () -> messageProcessor.accept(new Event<>(CREATE, 1, review)),
+                "Expected a InvalidInputException here!");
+    }
+
+    @Test
+    void deleteReviews() {
+        sendCreateReviewEvent(1, 1);
+        assertEquals(1, count(1));
+
+        sendDeleteReviewEvent(1);
+        assertEquals(0, count(1));
+
+        sendDeleteReviewEvent(1);
+    }
+
+    @Test
+    void processEventBatch() {
+        sendCreateReviewEvent(2, 1);
+
+        // The last run of creates has a duplicate, 1/2, and is created one by one instead
+        batchMessageProcessor.accept(List.of(
+                createReviewEvent(1, 1),
+                createReviewEvent(1, 2),
+                new Event<>(DELETE, 2, null),
+                createReviewEvent(2, 2),
+                createReviewEvent(1, 2)));
+
+        assertEquals(2, count(1));
+        assertEquals(1, count(2));
+
+        // The ratings of the batch are rolled back with it, before the reviews are created one by one
+        getAndVerifyReviewRatings(1).jsonPath("$.count").isEqualTo(2);
+        getAndVerifyReviewRatings(2).jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    void processEventBatchWithoutContent() {
+        Review review = new Review(1, 2, "Author 2", "Subject 2", null, 4, LocalDate.now(), "SA");
+        batchMessageProcessor.accept(List.of(createReviewEvent(1, 1), new Event<>(CREATE, 1, review)));
+
+        assertEquals(2, count(1));
+        assertNull(template.selectOne(query(where("reviewId").is(2)), ReviewEntity.class).block().getContent());
+    }
+
+    @Test
+    void processEventBatchWithInvalidEvent() {
+        Review invalid = new Review(1, 2, "", "Subject 2", REVIEW_CONTENT, 4, LocalDate.now(), "SA");
+
+        // The invalid review fails the bulk insert, and is skipped when the reviews are created one by one
+        batchMessageProcessor.accept(List.of(
+                createReviewEvent(1, 1),
+                new Event<>(CREATE, 1, invalid),
+                createReviewEvent(1, 3)));
+
+        assertEquals(2, count(1));
+        getAndVerifyReviewRatings(1).jsonPath("$.count").isEqualTo(2);
+    }
+
+    @Test
+    void getReviewRatings() {
+        sendCreateReviewEvent(1, 1);
+        sendCreateReviewEvent(1, 2);
+        sendCreateReviewEvent(2, 1);
+
+        // The rating of a duplicate is rolled back with it
+        assertThrows(InvalidInputException.class, () -> sendCreateReviewEvent(1, 2));
+
+        getAndVerifyReviewRatings(1)
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(8)
+                .jsonPath("$.histogram[3]").isEqualTo(2);
+
+        client.get()
+                .uri("/review/rating/bulk?productIds=1,2,3")
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$['1'].count").isEqualTo(2)
+                .jsonPath("$['2'].count").isEqualTo(1);
+
+        sendDeleteReviewEvent(1);
+
+        getAndVerifyReviewRatings(1)
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.histogram.length()").isEqualTo(5);
+        getAndVerifyReviewRatings(2)
+                .jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void readLoad() {
+        for (int reviewId = 1; reviewId <= 10; reviewId++) {
+            sendCreateReviewEvent(1, reviewId);
+        }
+
+        ReadLoad.measure("R2DBC", client, 1);
+    }
+
+    private long count() {
+        return template.count(empty(), ReviewEntity.class).block();
+    }
+
+    private long count(int productId) {
+        return template.count(query(where("productId").is(productId)), ReviewEntity.class).block();
+    }
+
+    private WebTestClient.BodyContentSpec getAndVerifyReviewRatings(int productId) {
+        return client.get()
+                .uri("/review/rating?productId=" + productId)
+                .accept(APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody();
+    }
+
+    private void sendCreateReviewEvent(int productId, int reviewId) {
+        messageProcessor.accept(createReviewEvent(productId, reviewId));
+    }
+
+    private static Event<Integer, Review> createReviewEvent(int productId, int reviewId) {
+        Review review = new Review(productId, reviewId, "Author " + reviewId, "Subject " + reviewId, REVIEW_CONTENT + reviewId, 4, LocalDate.now(), "SA");
+        return new Event<>(CREATE, productId, review);
+    }
+
+    private void sendDeleteReviewEvent(int productId) {
+        Event<Integer, Review> event = new Event<>(DELETE, productId, null);
+        messageProcessor.accept(event);
+    }
+}
@@ -0,0 +1,94 @@
+package shop.util.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Jackson Smile and CBOR codecs for the internal calls between the services.
+ * <p>
+ * The codecs use the same configuration as the JSON codec. They are registered with the WebFlux server by
+ * Spring Boot; WebClients have to apply {@link #codecCustomizer} themselves unless they use the builder
+ * auto-configured by Spring Boot.
+ * <p>
+ * CBOR only supports single values, Flux responses can only be encoded as Smile.
+ */
+@Configuration
+public class BinaryCodecs {
+
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+    public static final MediaType APPLICATION_CBOR = MediaType.APPLICATION_CBOR;
+
+    @Bean
+    public CodecCustomizer binaryCodecsCustomizer(ObjectMapper objectMapper) {
+        return codecCustomizer(objectMapper);
+    }
+
+    public static CodecCustomizer codecCustomizer(ObjectMapper objectMapper) {
+        ObjectMapper smileMapper = smileMapper(objectMapper);
+        ObjectMapper cborMapper = cborMapper(objectMapper);
+
+        // The mime types must be given explicitly, without them the codecs claim application/json
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, APPLICATION_SMILE));
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, APPLICATION_CBOR));
+            configurer.customCodecs().register(new CborEncoder(cborMapper));
+        };
+    }
+
+    /**
+     * A Smile mapper with the configuration of the given JSON mapper. Short string values, like the service
+     * addresses repeated in every element of a list, are written once and referenced afterwards.
+     */
+    public static ObjectMapper smileMapper(ObjectMapper objectMapper) {
+        return objectMapper.copyWith(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build());
+    }
+
+    /**
+     * A CBOR mapper with the configuration of the given JSON mapper.
+     */
+    public static ObjectMapper cborMapper(ObjectMapper objectMapper) {
+        return objectMapper.copyWith(new CBORFactory());
+    }
+
+    /**
+     * Spring's CBOR encoder rejects any publisher, even though the server writes a Mono response through
+     * {@link #encode} too. A single value is encoded as a whole, a Flux is still rejected.
+     */
+    static class CborEncoder extends Jackson2CborEncoder {
+
+        CborEncoder(ObjectMapper cborMapper) {
+            super(cborMapper, APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono<?> mono) {
+                return mono.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+            }
+            return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        }
+    }
+}
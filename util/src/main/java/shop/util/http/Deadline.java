@@ -0,0 +1,100 @@
+package shop.util.http;
+
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+import shop.api.exceptions.DeadlineExceededException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * The point in time when the caller of a request stops waiting for the response.
+ * <p>
+ * The deadline is carried between services as the remaining budget in milliseconds in the
+ * {@value #TIMEOUT_HEADER} header, which keeps it independent of clock skew between the hosts. Within a
+ * service it is kept in the Reactor context, see {@link DeadlineWebFilter}.
+ */
+public record Deadline(long expiresAtNanos) {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    public static Optional<Deadline> fromContext(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fails the given Mono if it does not complete within the deadline of the current request, if any.
+     */
+    public static <T> Mono<T> enforce(Mono<T> mono) {
+        return Mono.deferContextual(context -> fromContext(context)
+                .map(deadline -> deadline.isExpired()
+                        ? Mono.<T>error(deadline.exceeded())
+                        : mono.timeout(deadline.remaining(), Mono.error(deadline::exceeded)))
+                .orElse(mono));
+    }
+
+    /**
+     * Fails the given Flux if it does not complete within the deadline of the current request, if any.
+     */
+    public static <T> Flux<T> enforce(Flux<T> flux) {
+        return Flux.deferContextual(context -> fromContext(context)
+                .map(deadline -> deadline.isExpired()
+                        ? Flux.<T>error(deadline.exceeded())
+                        : flux.timeout(
+                        Mono.delay(deadline.remaining()),
+                        _ -> Mono.delay(deadline.remaining()),
+                        Flux.error(deadline::exceeded)))
+                .orElse(flux));
+    }
+
+    /**
+     * Fails the given stream if it goes without an element for longer than the budget of the current request, the
+     * remaining time of its deadline at subscription, if any. Unlike {@link #enforce(Flux)} the stream as a whole is
+     * not bound by the deadline, so that a listing runs as long as its elements keep coming, however many there are.
+     */
+    public static <T> Flux<T> enforceIdle(Flux<T> flux) {
+        return Flux.deferContextual(context -> fromContext(context)
+                .map(deadline -> deadline.isExpired()
+                        ? Flux.<T>error(deadline.exceeded())
+                        : flux.timeout(deadline.remaining(), Flux.error(deadline::exceeded)))
+                .orElse(flux));
+    }
+
+    /**
+     * Runs the given work under a deadline of its own, the given budget from now on, instead of the deadline of the
+     * current request. For the work done per element of a stream, see {@link #enforceIdle(Flux)}.
+     */
+    public static <T> Flux<T> within(Duration budget, Flux<T> flux) {
+        return flux.contextWrite(context -> context.put(Deadline.class, after(budget)));
+    }
+
+    /**
+     * Passes the remaining budget of the current request on to the called service.
+     */
+    public static ExchangeFilterFunction propagationFilter() {
+        return (request, next) -> Mono.deferContextual(context -> fromContext(context)
+                .map(deadline -> next.exchange(ClientRequest.from(request)
+                        .header(TIMEOUT_HEADER, String.valueOf(deadline.remaining().toMillis()))
+                        .build()))
+                .orElseGet(() -> next.exchange(request)));
+    }
+
+    private DeadlineExceededException exceeded() {
+        return new DeadlineExceededException("Request deadline exceeded");
+    }
+}
@@ -0,0 +1,60 @@
+package shop.util.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static shop.util.http.Deadline.TIMEOUT_HEADER;
+
+/**
+ * Puts the deadline of the incoming request into the Reactor context.
+ * <p>
+ * The deadline is taken from the {@value Deadline#TIMEOUT_HEADER} header. Requests without the header get
+ * the configured default timeout, or no deadline at all if none is configured.
+ */
+@Component
+public class DeadlineWebFilter implements WebFilter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadlineWebFilter.class);
+
+    private final long defaultTimeoutMillis;
+
+    @Autowired
+    public DeadlineWebFilter(@Value("${app.deadline.defaultTimeoutMillis:0}") long defaultTimeoutMillis) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        long timeoutMillis = getTimeoutMillis(exchange.getRequest().getHeaders().getFirst(TIMEOUT_HEADER));
+        if (timeoutMillis <= 0) {
+            return chain.filter(exchange);
+        }
+
+        Deadline deadline = Deadline.after(Duration.ofMillis(timeoutMillis));
+        return chain.filter(exchange)
+                .contextWrite(context -> context.put(Deadline.class, deadline));
+    }
+
+    private long getTimeoutMillis(String header) {
+        if (header == null) {
+            return defaultTimeoutMillis;
+        }
+
+        try {
+            // A remaining budget of zero or less means that the caller already gave up, use the smallest possible deadline
+            return Math.max(1, Long.parseLong(header));
+        } catch (NumberFormatException ignored) {
+            LOG.debug("Ignoring invalid {} header: {}", TIMEOUT_HEADER, header);
+            return defaultTimeoutMillis;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package shop.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Weak entity tags, for the ETag header, derived from the ids and {@code @Version} fields of persistent entities.
+ * <p>
+ * The tags are weak since they only cover the stored state: two responses with the same tag may still differ,
+ * e.g. in the serviceAddress of the instance that served them. The id is part of the tag, so that a deleted and
+ * recreated entity, whose version starts over, gets a new tag. The tag value is 16 hex digits of a 64-bit FNV-1a
+ * hash, e.g. {@code W/"2b1c3d4e5f607182"}.
+ */
+public final class EntityTags {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private EntityTags() {
+    }
+
+    public static String of(Object id, Object version) {
+        return format(hash(FNV_OFFSET_BASIS, id, version));
+    }
+
+    /**
+     * The tag of a list of entities, it changes if an entity is added, removed, reordered or gets a new version.
+     */
+    public static <T> String of(Collection<T> entities, Function<T, Object> id, Function<T, Object> version) {
+        Builder builder = builder();
+        for (T entity : entities) {
+            builder.add(id.apply(entity), version.apply(entity));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the tag of a list of entities one entity at a time, e.g. while reading their rows, the same tag as
+     * {@link #of(Collection, Function, Function)} of the entities.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the opaque value of a tag, without the weak prefix and the quotes, or null if it is not a single tag.
+     */
+    public static String value(String tag) {
+        if (tag == null) {
+            return null;
+        }
+        String value = tag.startsWith("W/") ? tag.substring(2) : tag;
+        if (value.length() < 2 || !value.startsWith("\"") || !value.endsWith("\"")) {
+            return null;
+        }
+        value = value.substring(1, value.length() - 1);
+        return value.indexOf('"') < 0 ? value : null;
+    }
+
+    public static String weak(String value) {
+        return "W/\"" + value + "\"";
+    }
+
+    public static final class Builder {
+
+        private long hash = FNV_OFFSET_BASIS;
+
+        private Builder() {
+        }
+
+        public Builder add(Object id, Object version) {
+            hash = hash(hash, id, version);
+            return this;
+        }
+
+        public String build() {
+            return format(hash);
+        }
+    }
+
+    private static long hash(long hash, Object id, Object version) {
+        hash = hash(hash, String.valueOf(id));
+        hash = hash(hash, ":");
+        hash = hash(hash, String.valueOf(version));
+        return hash(hash, ";");
+    }
+
+    private static long hash(long hash, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static String format(long hash) {
+        return weak(String.format("%016x", hash));
+    }
+}
@@ -8,9 +8,11 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import shop.api.exceptions.DeadlineExceededException;
 import shop.api.exceptions.InvalidInputException;
 import shop.api.exceptions.NotFoundException;
 
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
 
@@ -36,6 +38,15 @@ class GlobalControllerExceptionHandler {
         return createHttpErrorInfo(UNPROCESSABLE_ENTITY, request, ex);
     }
 
+    @ResponseStatus(GATEWAY_TIMEOUT)
+    @ExceptionHandler(DeadlineExceededException.class)
+    public @ResponseBody HttpErrorInfo handleDeadlineExceededException(
+            ServerHttpRequest request,
+            DeadlineExceededException ex
+    ) {
+        return createHttpErrorInfo(GATEWAY_TIMEOUT, request, ex);
+    }
+
     private HttpErrorInfo createHttpErrorInfo(
             HttpStatus httpStatus,
             ServerHttpRequest request,